@@ -0,0 +1,160 @@
+package com.vaadin.demo.dashboard.component;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vaadin.data.Container;
+import com.vaadin.data.Property;
+import com.vaadin.ui.Table;
+
+/*
+ * A Table that remembers the formatted string of every cell it has rendered.
+ * A cell is formatted again only when the value of its property has changed
+ * since it was last formatted, so repaints and scrolling over unchanged rows
+ * don't redo the formatting. Subclasses format cells in formatCell instead of
+ * formatPropertyValue.
+ *
+ * The cache holds the cells of the rows the client has rendered, the page
+ * and the cache rate's worth of rows around it, a few times over, so that
+ * scrolling back and forth hits it without the table holding a string for
+ * every cell of a large container.
+ */
+@SuppressWarnings("serial")
+public abstract class CachedFormatTable extends Table {
+
+    /* Cached cells per rendered cell */
+    private static final int CACHED_PAGE_FACTOR = 2;
+
+    private transient Cache<CellKey, FormattedCell> formattedCells;
+
+    @Override
+    protected final String formatPropertyValue(final Object rowId,
+            final Object colId, final Property<?> property) {
+        Object value = property == null ? null : property.getValue();
+        CellKey key = new CellKey(rowId, colId);
+        FormattedCell cell = getFormattedCells().getIfPresent(key);
+        if (cell == null || !Objects.equal(cell.value, value)) {
+            cell = new FormattedCell(value, formatCell(rowId, colId, property));
+            getFormattedCells().put(key, cell);
+        }
+        return cell.formatted;
+    }
+
+    /**
+     * Formats a single cell, by default the same way as a plain Table.
+     */
+    protected String formatCell(final Object rowId, final Object colId,
+            final Property<?> property) {
+        return super.formatPropertyValue(rowId, colId, property);
+    }
+
+    /**
+     * Forgets all formatted cells, e.g. after changing how a column is
+     * formatted.
+     */
+    public void clearFormattedCells() {
+        if (formattedCells != null) {
+            formattedCells.invalidateAll();
+        }
+    }
+
+    private Cache<CellKey, FormattedCell> getFormattedCells() {
+        if (formattedCells == null) {
+            formattedCells = CacheBuilder.newBuilder()
+                    .maximumSize(renderedCells() * CACHED_PAGE_FACTOR)
+                    .build();
+        }
+        return formattedCells;
+    }
+
+    /*
+     * Cells of the rows the client renders: the page and the cache rate's
+     * worth of pages above and below it, or all rows without paging.
+     */
+    private long renderedCells() {
+        int pageLength = getPageLength();
+        double rows = pageLength == 0 ? size() : pageLength
+                * (1 + 2 * getCacheRate());
+        return (long) Math.ceil(Math.max(rows, 1)
+                * Math.max(getVisibleColumns().length, 1));
+    }
+
+    /*
+     * Sizes the cache again when next used.
+     */
+    private void dropFormattedCells() {
+        formattedCells = null;
+    }
+
+    @Override
+    public void setPageLength(final int pageLength) {
+        dropFormattedCells();
+        super.setPageLength(pageLength);
+    }
+
+    @Override
+    public void setCacheRate(final double cacheRate) {
+        dropFormattedCells();
+        super.setCacheRate(cacheRate);
+    }
+
+    @Override
+    public void setVisibleColumns(final Object... visibleColumns) {
+        dropFormattedCells();
+        super.setVisibleColumns(visibleColumns);
+    }
+
+    @Override
+    public void setContainerDataSource(final Container newDataSource) {
+        dropFormattedCells();
+        super.setContainerDataSource(newDataSource);
+    }
+
+    @Override
+    public void containerItemSetChange(final Container.ItemSetChangeEvent event) {
+        dropFormattedCells();
+        super.containerItemSetChange(event);
+    }
+
+    @Override
+    public void containerPropertySetChange(
+            final Container.PropertySetChangeEvent event) {
+        dropFormattedCells();
+        super.containerPropertySetChange(event);
+    }
+
+    private static final class CellKey {
+        private final Object rowId;
+        private final Object colId;
+
+        CellKey(final Object rowId, final Object colId) {
+            this.rowId = rowId;
+            this.colId = colId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof CellKey)) {
+                return false;
+            }
+            CellKey other = (CellKey) obj;
+            return Objects.equal(rowId, other.rowId)
+                    && Objects.equal(colId, other.colId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(rowId, colId);
+        }
+    }
+
+    private static final class FormattedCell {
+        private final Object value;
+        private final String formatted;
+
+        FormattedCell(final Object value, final String formatted) {
+            this.value = value;
+            this.formatted = formatted;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.vaadin.demo.dashboard.component;
+
+import java.util.Collection;
+import java.util.Date;
+
+import com.vaadin.addon.charts.Chart;
+import com.vaadin.addon.charts.model.ChartType;
+import com.vaadin.addon.charts.model.Configuration;
+import com.vaadin.addon.charts.model.Credits;
+import com.vaadin.addon.charts.model.HeatSeries;
+import com.vaadin.addon.charts.model.Labels;
+import com.vaadin.addon.charts.model.Legend;
+import com.vaadin.addon.charts.model.style.SolidColor;
+import com.vaadin.demo.dashboard.DashboardUI;
+import com.vaadin.demo.dashboard.data.geo.GeoBounds;
+import com.vaadin.demo.dashboard.data.geo.HeatmapTile;
+import com.vaadin.demo.dashboard.data.geo.TileKey;
+import com.vaadin.demo.dashboard.data.admission.QueryCancelledException;
+import com.vaadin.demo.dashboard.data.admission.QueryRejectedException;
+import com.vaadin.demo.dashboard.data.geo.TimeBucket;
+import com.vaadin.server.FontAwesome;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Button.ClickEvent;
+import com.vaadin.ui.Button.ClickListener;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.Notification.Type;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.themes.ValoTheme;
+
+/*
+ * Heatmap of where location requests land. Only the tiles of the visible
+ * area are fetched, already aggregated on the server. Days moved to the
+ * archive are not counted and show an empty map.
+ *
+ * No view of this tree places the heatmap yet; a view adds it for the time
+ * and bucket it shows, e.g. new LocationHeatmap(new Date(), TimeBucket.HOUR).
+ */
+@SuppressWarnings("serial")
+public class LocationHeatmap extends VerticalLayout {
+
+    /* Size of the visible area, in tiles */
+    private static final int COLUMNS = 16;
+    private static final int ROWS = 10;
+    private static final int MAX_ZOOM = 16;
+
+    private final Chart chart = new Chart(ChartType.HEATMAP);
+    private final Date time;
+    private final TimeBucket bucket;
+
+    private int zoom = 2;
+    private int left;
+    private int top;
+
+    public LocationHeatmap(final Date time, final TimeBucket bucket) {
+        this.time = time;
+        this.bucket = bucket;
+        setSizeFull();
+        setSpacing(true);
+
+        addComponent(buildToolbar());
+
+        Configuration conf = chart.getConfiguration();
+        conf.setTitle("");
+        conf.getChart().setAnimation(false);
+        conf.setCredits(new Credits(""));
+        Legend legend = new Legend();
+        legend.setEnabled(false);
+        conf.setLegend(legend);
+        conf.getxAxis().setLabels(new Labels(false));
+        conf.getyAxis().setLabels(new Labels(false));
+        conf.getyAxis().setTitle("");
+        conf.getyAxis().setReversed(true);
+        conf.getColorAxis().setMin(0);
+        conf.getColorAxis().setMinColor(new SolidColor("#FFFFFF"));
+        conf.getColorAxis().setMaxColor(new SolidColor("#EC6464"));
+        chart.setSizeFull();
+        addComponent(chart);
+        setExpandRatio(chart, 1);
+
+        refresh();
+    }
+
+    private HorizontalLayout buildToolbar() {
+        HorizontalLayout toolbar = new HorizontalLayout();
+        toolbar.setSpacing(true);
+        toolbar.addComponent(buildButton(FontAwesome.PLUS, 0, 0, 1));
+        toolbar.addComponent(buildButton(FontAwesome.MINUS, 0, 0, -1));
+        toolbar.addComponent(buildButton(FontAwesome.ARROW_LEFT, -COLUMNS / 2,
+                0, 0));
+        toolbar.addComponent(buildButton(FontAwesome.ARROW_RIGHT, COLUMNS / 2,
+                0, 0));
+        toolbar.addComponent(buildButton(FontAwesome.ARROW_UP, 0, -ROWS / 2, 0));
+        toolbar.addComponent(buildButton(FontAwesome.ARROW_DOWN, 0, ROWS / 2,
+                0));
+        return toolbar;
+    }
+
+    private Button buildButton(final FontAwesome icon, final int dx,
+            final int dy, final int dz) {
+        Button button = new Button(icon);
+        button.addStyleName(ValoTheme.BUTTON_SMALL);
+        button.addClickListener(new ClickListener() {
+            @Override
+            public void buttonClick(final ClickEvent event) {
+                move(dx, dy, dz);
+            }
+        });
+        return button;
+    }
+
+    private void move(final int dx, final int dy, final int dz) {
+        if (dz > 0 && zoom < MAX_ZOOM) {
+            zoom++;
+            left = left * 2 + COLUMNS / 2;
+            top = top * 2 + ROWS / 2;
+        } else if (dz < 0 && zoom > 0) {
+            zoom--;
+            left = (left - COLUMNS / 2) / 2;
+            top = (top - ROWS / 2) / 2;
+        }
+        int size = 1 << zoom;
+        left = Math.max(0, Math.min(left + dx, size - COLUMNS));
+        top = Math.max(0, Math.min(top + dy, size - ROWS));
+        refresh();
+    }
+
+    private void refresh() {
+        int size = 1 << zoom;
+        int right = Math.min(left + COLUMNS, size) - 1;
+        int bottom = Math.min(top + ROWS, size) - 1;
+        Collection<HeatmapTile> tiles;
+        try {
+            tiles = DashboardUI.getDataProvider().getHeatmapTiles(time,
+                    bucket, zoom,
+                    GeoBounds.ofTiles(zoom, left, top, right, bottom));
+        } catch (QueryRejectedException e) {
+            Notification.show(e.getMessage(), Type.WARNING_MESSAGE);
+            return;
+        } catch (QueryCancelledException e) {
+            return;
+        }
+
+        HeatSeries series = new HeatSeries();
+        for (HeatmapTile tile : tiles) {
+            TileKey key = tile.getKey();
+            if (key.getX() <= right && key.getY() <= bottom) {
+                series.addHeatPoint(key.getX() - left, key.getY() - top,
+                        tile.getRequests());
+            }
+        }
+        chart.getConfiguration().getxAxis().setMin(0);
+        chart.getConfiguration().getxAxis().setMax(COLUMNS - 1);
+        chart.getConfiguration().getyAxis().setMin(0);
+        chart.getConfiguration().getyAxis().setMax(ROWS - 1);
+        chart.getConfiguration().setSeries(series);
+        chart.drawChart();
+    }
+}
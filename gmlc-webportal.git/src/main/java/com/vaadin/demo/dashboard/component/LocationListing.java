@@ -1,11 +1,12 @@
 package com.vaadin.demo.dashboard.component;
 
-import java.text.DateFormat;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.Collection;
+import java.util.Date;
 
-import com.vaadin.demo.dashboard.domain.Location;
+import com.vaadin.demo.dashboard.data.DayRange;
+import com.vaadin.demo.dashboard.domain.LocationVisit;
 import com.vaadin.shared.ui.label.ContentMode;
 import com.vaadin.ui.CssLayout;
 import com.vaadin.ui.Label;
@@ -13,45 +14,47 @@ import com.vaadin.ui.Label;
 @SuppressWarnings("serial")
 public class LocationListing extends CssLayout {
 
-    private final DateFormat df = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss a");
+    private static final DateTimeFormatter DATEFORMAT = DateTimeFormatter
+            .ofPattern("MM/dd/yyyy hh:mm:ss a").withZone(DayRange.getZone());
 
-    public LocationListing(final Collection<Location> loaction) {
+    /**
+     * @param visits
+     *            The trail of the subscriber, compressed by the data
+     *            provider.
+     */
+    public LocationListing(final Collection<LocationVisit> visits) {
         addComponent(new Label("<strong>Selected loaction</strong>",
                 ContentMode.HTML));
         
-        /*
-        if (loaction != null) {
-            for (Loaction transaction : loaction) {
-                CssLayout transationLayout = new CssLayout();
-                transationLayout.addStyleName("transaction");
-
-                Label content = new Label(df.format((transaction.getTime()))
-                        + "<br>" + transaction.getCity() + ", "
-                        + transaction.getCountry());
+        if (visits != null) {
+            for (LocationVisit visit : visits) {
+                CssLayout visitLayout = new CssLayout();
+                visitLayout.addStyleName("transaction");
+
+                Label content = new Label(format(visit.getFirstSeen())
+                        + "<br>" + format(visit.getLastSeen()));
                 content.setSizeUndefined();
                 content.setContentMode(ContentMode.HTML);
                 content.addStyleName("time");
-                transationLayout.addComponent(content);
+                visitLayout.addComponent(content);
 
-                content = new Label(transaction.getTitle());
+                content = new Label("Cell " + visit.getCellId());
                 content.setSizeUndefined();
                 content.addStyleName("movie-title");
-                transationLayout.addComponent(content);
-
-                content = new Label("Seats: "
-                        + transaction.getSeats()
-                        + "<br>"
-                        + "Revenue: $"
-                        + new DecimalFormat("#.##").format(transaction
-                                .getPrice()), ContentMode.HTML);
+                visitLayout.addComponent(content);
+
+                content = new Label("Locates: " + visit.getCount());
                 content.setSizeUndefined();
                 content.addStyleName("seats");
-                transationLayout.addComponent(content);
+                visitLayout.addComponent(content);
 
-                addComponent(transationLayout);
+                addComponent(visitLayout);
             }
+        }
+    }
 
-        } */
+    private static String format(final Date time) {
+        return DATEFORMAT.format(Instant.ofEpochMilli(time.getTime()));
     }
 
 }
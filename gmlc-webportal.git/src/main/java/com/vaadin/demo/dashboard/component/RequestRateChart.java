@@ -0,0 +1,135 @@
+package com.vaadin.demo.dashboard.component;
+
+import java.util.Date;
+
+import com.vaadin.addon.charts.Chart;
+import com.vaadin.addon.charts.XAxesExtremesChangeEvent;
+import com.vaadin.addon.charts.XAxesExtremesChangeListener;
+import com.vaadin.addon.charts.model.AxisType;
+import com.vaadin.addon.charts.model.ChartType;
+import com.vaadin.addon.charts.model.Credits;
+import com.vaadin.addon.charts.model.Marker;
+import com.vaadin.addon.charts.model.PlotOptionsLine;
+import com.vaadin.addon.charts.model.ZoomType;
+import com.vaadin.demo.dashboard.DashboardUI;
+import com.vaadin.demo.dashboard.data.Downsampler;
+import com.vaadin.demo.dashboard.data.TimeSeries;
+import com.vaadin.demo.dashboard.data.admission.QueryCancelledException;
+import com.vaadin.demo.dashboard.data.admission.QueryRejectedException;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.Notification.Type;
+
+/*
+ * Location requests over time. The series is fetched at a granularity
+ * matching the visible range and downsampled to the chart width on the
+ * server, so the payload stays the same size for an hour or a year. The
+ * points are evenly spaced and sent as a plain number array placed by a start
+ * time and an interval. Zooming in fetches finer data for the zoomed range.
+ */
+@SuppressWarnings("serial")
+public class RequestRateChart extends Chart {
+
+    private static final long MIN_BUCKET = 1000L * 60;
+
+    /* Raw points fetched per pixel column, the lowest and highest are drawn */
+    private static final int OVERSAMPLING = 4;
+
+    private final int pixels;
+    private final Date start;
+    private final Date end;
+    private final PlotOptionsLine opts = new PlotOptionsLine();
+    private final SeriesBinding binding;
+    private long shownFrom;
+    private long shownTo;
+
+    /**
+     * @param pixels
+     *            Approximate width of the plot area in pixels.
+     */
+    public RequestRateChart(final Date start, final Date end, final int pixels) {
+        super(ChartType.LINE);
+        this.start = start;
+        this.end = end;
+        this.pixels = pixels;
+
+        setCaption("Location Requests");
+        getConfiguration().setTitle("");
+        getConfiguration().getChart().setAnimation(false);
+        getConfiguration().getChart().setZoomType(ZoomType.X);
+        getConfiguration().getxAxis().setType(AxisType.DATETIME);
+        getConfiguration().getyAxis().setTitle("");
+        getConfiguration().setCredits(new Credits(""));
+
+        opts.setMarker(new Marker(false));
+        opts.setAnimation(false);
+        opts.setShadow(false);
+        getConfiguration().setPlotOptions(opts);
+        binding = new SeriesBinding(this, "Requests", 0);
+        setWidth("100%");
+
+        addXAxesExtremesChangeListener(new XAxesExtremesChangeListener() {
+            @Override
+            public void onXAxesExtremesChange(
+                    final XAxesExtremesChangeEvent event) {
+                long min = (long) (double) event.getMinimum();
+                long max = (long) (double) event.getMaximum();
+                if (min != shownFrom || max != shownTo) {
+                    getConfiguration().getxAxis().setExtremes(min, max);
+                    show(new Date(min), new Date(max));
+                }
+            }
+        });
+
+        show(start, end);
+    }
+
+    /**
+     * Shows the whole range again after zooming in.
+     */
+    public void resetZoom() {
+        getConfiguration().getxAxis().setExtremes(start.getTime(),
+                end.getTime());
+        show(start, end);
+    }
+
+    private void show(final Date from, final Date to) {
+        shownFrom = from.getTime();
+        shownTo = to.getTime();
+        // Whole seconds, as the provider counts in seconds
+        long bucket = Math.max(MIN_BUCKET, (to.getTime() - from.getTime()
+                + pixels * OVERSAMPLING * 1000L - 1)
+                / (pixels * OVERSAMPLING * 1000L) * 1000);
+        TimeSeries raw;
+        try {
+            raw = DashboardUI.getDataProvider().getRequestTimeSeries(from, to,
+                    bucket);
+        } catch (QueryRejectedException e) {
+            Notification.show(e.getMessage(), Type.WARNING_MESSAGE);
+            return;
+        } catch (QueryCancelledException e) {
+            return;
+        }
+        double[] values;
+        long interval;
+        if (raw.size() <= pixels * 2) {
+            values = new double[raw.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = raw.getValue(i);
+            }
+            interval = bucket;
+        } else {
+            values = Downsampler.minMax(raw, OVERSAMPLING);
+            interval = bucket * OVERSAMPLING / 2;
+        }
+        long pointStart = raw.size() == 0 ? from.getTime() : raw.getTime(0);
+        if (opts.getPointStart() == null
+                || opts.getPointStart().longValue() != pointStart
+                || opts.getPointInterval().longValue() != interval) {
+            opts.setPointStart(pointStart);
+            opts.setPointInterval(interval);
+            binding.redraw(values);
+        } else {
+            binding.setValues(values);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.vaadin.demo.dashboard.component;
+
+import java.util.Arrays;
+
+import com.vaadin.addon.charts.Chart;
+import com.vaadin.addon.charts.model.ListSeries;
+
+/*
+ * Binds a ListSeries of a chart to primitive values. The series is built from
+ * an array in one step and sent to the client as a plain number array instead
+ * of one object per point. Later updates are sent as diffs: appended points
+ * (shifting the oldest out when the window is full) and a few changed points
+ * only, the full configuration is redrawn only when the values can't be
+ * expressed as such a small diff.
+ */
+public final class SeriesBinding {
+
+    /* Changed points sent one by one, above this the data is replaced */
+    private static final int MAX_POINT_UPDATES = 32;
+
+    private final Chart chart;
+    private final ListSeries series;
+    private final int window;
+    private double[] values;
+
+    /**
+     * @param chart
+     *            Chart the series is added to.
+     * @param name
+     *            Series name.
+     * @param window
+     *            Maximum number of points kept when appending, 0 for no
+     *            limit.
+     */
+    public SeriesBinding(final Chart chart, final String name,
+            final int window) {
+        this.chart = chart;
+        this.window = window;
+        series = new ListSeries(name);
+        values = new double[0];
+        chart.getConfiguration().addSeries(series);
+    }
+
+    public ListSeries getSeries() {
+        return series;
+    }
+
+    /**
+     * Replaces all values of the series.
+     */
+    public void setValues(final int[] newValues) {
+        double[] converted = new double[newValues.length];
+        for (int i = 0; i < newValues.length; i++) {
+            converted[i] = newValues[i];
+        }
+        setValues(converted);
+    }
+
+    /**
+     * Replaces all values of the series, sending only what changed to the
+     * client. If many points changed, the data is replaced in one step
+     * instead.
+     */
+    public void setValues(final double[] newValues) {
+        if (!chart.isAttached()) {
+            series.setData(toNumbers(newValues));
+        } else if (newValues.length == values.length && values.length > 0) {
+            int shift = shiftBetween(values, newValues);
+            if (shift > 0) {
+                for (int i = newValues.length - shift; i < newValues.length; i++) {
+                    series.addData(newValues[i], true, true);
+                }
+            } else if (changedPoints(values, newValues) > MAX_POINT_UPDATES) {
+                redraw(newValues);
+                return;
+            } else {
+                for (int i = 0; i < newValues.length; i++) {
+                    if (newValues[i] != values[i]) {
+                        series.updatePoint(i, newValues[i]);
+                    }
+                }
+            }
+        } else {
+            redraw(newValues);
+            return;
+        }
+        values = newValues.clone();
+    }
+
+    /**
+     * Replaces all values of the series and redraws the chart, e.g. because
+     * the points stand for other times now.
+     */
+    public void redraw(final double[] newValues) {
+        series.setData(toNumbers(newValues));
+        if (chart.isAttached()) {
+            chart.drawChart();
+        }
+        values = newValues.clone();
+    }
+
+    /**
+     * Appends a point, shifting the oldest one out when the window is full.
+     */
+    public void append(final double value) {
+        boolean shift = window > 0 && values.length >= window;
+        if (chart.isAttached()) {
+            series.addData(value, true, shift);
+        } else {
+            series.addData(value, false, shift);
+        }
+        double[] next = Arrays.copyOfRange(values, shift ? 1 : 0,
+                values.length + 1);
+        next[next.length - 1] = value;
+        values = next;
+    }
+
+    /*
+     * Number of points the old values have to be shifted left so they line
+     * up with the new ones, or 0 if they don't line up with a small shift.
+     */
+    private static int shiftBetween(final double[] old, final double[] now) {
+        int maxShift = Math.min(old.length / 2, 16);
+        for (int shift = 1; shift <= maxShift; shift++) {
+            boolean match = true;
+            for (int i = shift; i < old.length && match; i++) {
+                match = old[i] == now[i - shift];
+            }
+            if (match) {
+                return shift;
+            }
+        }
+        return 0;
+    }
+
+    private static int changedPoints(final double[] old, final double[] now) {
+        int changed = 0;
+        for (int i = 0; i < old.length && changed <= MAX_POINT_UPDATES; i++) {
+            if (old[i] != now[i]) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static Number[] toNumbers(final double[] values) {
+        Number[] numbers = new Number[values.length];
+        for (int i = 0; i < values.length; i++) {
+            numbers[i] = values[i];
+        }
+        return numbers;
+    }
+}
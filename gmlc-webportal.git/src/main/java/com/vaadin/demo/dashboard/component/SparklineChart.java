@@ -1,17 +1,10 @@
 package com.vaadin.demo.dashboard.component;
 
-import java.util.Arrays;
-import java.util.List;
-
-import org.apache.commons.lang3.ArrayUtils;
-
 import com.vaadin.addon.charts.Chart;
 import com.vaadin.addon.charts.model.ChartType;
 import com.vaadin.addon.charts.model.Configuration;
 import com.vaadin.addon.charts.model.Credits;
 import com.vaadin.addon.charts.model.DashStyle;
-import com.vaadin.addon.charts.model.DataSeries;
-import com.vaadin.addon.charts.model.DataSeriesItem;
 import com.vaadin.addon.charts.model.Labels;
 import com.vaadin.addon.charts.model.Legend;
 import com.vaadin.addon.charts.model.Marker;
@@ -32,6 +25,12 @@ import com.vaadin.ui.themes.ValoTheme;
 @SuppressWarnings("serial")
 public class SparklineChart extends VerticalLayout {
 
+    private final String unit;
+    private final String prefix;
+    private final Label current;
+    private final Label highLow;
+    private SeriesBinding binding;
+
     public SparklineChart(final String name, final String unit,
             final String prefix, final Color color, final int howManyPoints,
             final int min, final int max) {
@@ -39,10 +38,12 @@ public class SparklineChart extends VerticalLayout {
         addStyleName("spark");
         setDefaultComponentAlignment(Alignment.TOP_CENTER);
 
+        this.unit = unit;
+        this.prefix = prefix;
         int[] values = DummyDataGenerator.randomSparklineValues(howManyPoints,
                 min, max);
 
-        Label current = new Label(prefix + values[values.length - 1] + unit);
+        current = new Label();
         current.setSizeUndefined();
         current.addStyleName(ValoTheme.LABEL_HUGE);
         addComponent(current);
@@ -55,15 +56,34 @@ public class SparklineChart extends VerticalLayout {
 
         addComponent(buildSparkline(values, color));
 
-        List<Integer> vals = Arrays.asList(ArrayUtils.toObject(values));
-        Label highLow = new Label("High <b>" + java.util.Collections.max(vals)
-                + "</b> &nbsp;&nbsp;&nbsp; Low <b>"
-                + java.util.Collections.min(vals) + "</b>", ContentMode.HTML);
+        highLow = new Label("", ContentMode.HTML);
         highLow.addStyleName(ValoTheme.LABEL_TINY);
         highLow.addStyleName(ValoTheme.LABEL_LIGHT);
         highLow.setSizeUndefined();
         addComponent(highLow);
 
+        updateLabels(values);
+    }
+
+    /**
+     * Shows new values. Only the points that changed (or were shifted in) are
+     * sent to the client.
+     */
+    public void setValues(final int[] values) {
+        binding.setValues(values);
+        updateLabels(values);
+    }
+
+    private void updateLabels(final int[] values) {
+        int high = Integer.MIN_VALUE;
+        int low = Integer.MAX_VALUE;
+        for (int value : values) {
+            high = Math.max(high, value);
+            low = Math.min(low, value);
+        }
+        current.setValue(prefix + values[values.length - 1] + unit);
+        highLow.setValue("High <b>" + high
+                + "</b> &nbsp;&nbsp;&nbsp; Low <b>" + low + "</b>");
     }
 
     private Component buildSparkline(final int[] values, final Color color) {
@@ -74,15 +94,11 @@ public class SparklineChart extends VerticalLayout {
         spark.setWidth("120px");
         spark.setHeight("40px");
 
-        DataSeries series = new DataSeries();
-        for (int i = 0; i < values.length; i++) {
-            DataSeriesItem item = new DataSeriesItem("", values[i]);
-            series.add(item);
-        }
-        spark.getConfiguration().setSeries(series);
+        binding = new SeriesBinding(spark, "", values.length);
+        binding.setValues(values);
         spark.getConfiguration().getTooltip().setEnabled(false);
 
-        Configuration conf = series.getConfiguration();
+        Configuration conf = spark.getConfiguration();
         Legend legend = new Legend();
         legend.setEnabled(false);
         conf.setLegend(legend);
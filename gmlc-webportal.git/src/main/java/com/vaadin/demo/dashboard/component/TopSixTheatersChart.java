@@ -26,8 +26,6 @@ public class TopSixTheatersChart extends Chart {
         setWidth("100%");
         setHeight("90%");
 
-        DataSeries series = new DataSeries();
-
         //List<Movie> movies = new ArrayList<Movie>(DashboardUI.getDataProvider()
         //        .getMovies());
         
@@ -62,14 +60,17 @@ public class TopSixTheatersChart extends Chart {
         m.setScore(5);
         movies.add(m);
         
+        // The chart is not attached yet, so the points are only sent with its
+        // first paint. They are built up front and set as one series.
+        List<DataSeriesItem> items = new ArrayList<DataSeriesItem>(6);
         for (int i = 0; i < 6; i++) {
             Movie movie = movies.get(i);
             DataSeriesItem item = new DataSeriesItem(movie.getTitle(),
                     movie.getScore());
-            series.add(item);
             item.setColor(DummyDataGenerator.chartColors[5 - i]);
+            items.add(item);
         }
-        getConfiguration().setSeries(series);
+        getConfiguration().setSeries(new DataSeries(items));
 
         PlotOptionsPie opts = new PlotOptionsPie();
         opts.setBorderWidth(0);
@@ -3,6 +3,9 @@ package com.vaadin.demo.dashboard.data;
 import java.util.Collection;
 import java.util.Date;
 
+import com.vaadin.demo.dashboard.data.geo.GeoBounds;
+import com.vaadin.demo.dashboard.data.geo.HeatmapTile;
+import com.vaadin.demo.dashboard.data.geo.TimeBucket;
 import com.vaadin.demo.dashboard.domain.DashboardNotification;
 import com.vaadin.demo.dashboard.domain.Movie;
 import com.vaadin.demo.dashboard.domain.MovieRevenue;
@@ -11,10 +14,15 @@ import com.vaadin.demo.dashboard.domain.Statistics;
 import com.vaadin.demo.dashboard.domain.Detailed;
 import com.vaadin.demo.dashboard.domain.Service;
 import com.vaadin.demo.dashboard.domain.Location;
+import com.vaadin.demo.dashboard.domain.LocationVisit;
 import com.vaadin.demo.dashboard.domain.User;
 
 /**
  * QuickTickets Dashboard backend API.
+ * <p>
+ * Queries over a time range may throw a QueryRejectedException, whose
+ * message tells the user why, when the database is too busy to run them or
+ * they take too long.
  */
 public interface DataProvider {
     /**
@@ -32,10 +40,18 @@ public interface DataProvider {
     Collection<MovieRevenue> getDailyRevenuesByMovie(long id);
 
     /**
-     * @return Total revenues for each listed movie.
+     * @return Total revenues for each listed movie, highest first.
      */
     Collection<MovieRevenue> getTotalMovieRevenues();
 
+    /**
+     * @param count
+     *            Number of movies to return.
+     * @return Total revenues of the count highest grossing movies, highest
+     *         first.
+     */
+    Collection<MovieRevenue> getTopMovieRevenues(int count);
+
     /**
      * @param userName
      * @param password
@@ -162,4 +178,50 @@ public interface DataProvider {
      *         dates.
      */
     Collection<Location> getLocation(String msisdn,Date startDate, Date endDate);
+
+    /**
+     * @param msisdn
+     * @param startDate
+     * @param endDate
+     * @return The cells the subscriber was located in between the given
+     *         start and end dates, consecutive results in the same cell
+     *         merged into one visit. Empty for a blank msisdn.
+     */
+    Collection<LocationVisit> getLocationTrail(String msisdn, Date startDate,
+            Date endDate);
+
+    /**
+     * @param startDate
+     * @param endDate
+     * @param bucketMillis
+     *            Width of the time buckets requests are counted in.
+     * @return Number of location requests per time bucket between the given
+     *         start and end times, with a zero for every bucket without
+     *         requests.
+     */
+    TimeSeries getRequestTimeSeries(Date startDate, Date endDate,
+            long bucketMillis);
+
+    /**
+     * @param time
+     *            Any time inside the wanted time bucket.
+     * @param bucket
+     *            Time bucket granularity.
+     * @param zoom
+     *            Map zoom level.
+     * @param bounds
+     *            Visible map area.
+     * @return Location request counts of the visible map tiles. Days moved
+     *         to the archive are not counted, their tiles are empty.
+     */
+    Collection<HeatmapTile> getHeatmapTiles(Date time, TimeBucket bucket,
+            int zoom, GeoBounds bounds);
+
+    /**
+     * Cancels the queries of the current user that are still running or
+     * waiting to run. The cancelled calls throw a QueryCancelledException.
+     * A query run on a request thread holds the session lock until it ends,
+     * so only a thread not waiting for that lock can cancel it.
+     */
+    void cancelQueries();
 }
@@ -0,0 +1,205 @@
+package com.vaadin.demo.dashboard.data;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An immutable range of whole days, from the start of the first day up to
+ * (but not including) the start of the day after the last day. The day
+ * boundaries are computed once when the range is created.
+ * <p>
+ * Days are those of the operators, in the zone given by the system property
+ * <code>dashboard.operator.timezone</code> (by default the zone of the
+ * server), regardless of the zone of the database.
+ */
+public final class DayRange {
+
+    private static final ZoneId ZONE = ZoneId.of(System.getProperty(
+            "dashboard.operator.timezone", ZoneId.systemDefault().getId()));
+
+    private final LocalDate firstDay;
+    private final LocalDate endDay;
+    private final Date start;
+    private final Date end;
+
+    private DayRange(final LocalDate firstDay, final LocalDate endDay,
+            final ZoneId zone) {
+        this.firstDay = firstDay;
+        this.endDay = endDay;
+        start = Date.from(firstDay.atStartOfDay(zone).toInstant());
+        end = Date.from(endDay.atStartOfDay(zone).toInstant());
+    }
+
+    /**
+     * @param startDate
+     *            Any time on the first day of the range.
+     * @param endDate
+     *            Any time on the last day of the range.
+     */
+    public static DayRange of(final Date startDate, final Date endDate) {
+        return new DayRange(toLocalDate(startDate, ZONE), toLocalDate(
+                endDate, ZONE).plusDays(1), ZONE);
+    }
+
+    /**
+     * @param firstDay
+     *            First day of the range.
+     * @param endDay
+     *            Day after the last day of the range.
+     */
+    public static DayRange between(final LocalDate firstDay,
+            final LocalDate endDay) {
+        return new DayRange(firstDay, endDay, ZONE);
+    }
+
+    /**
+     * @return Zone of the operators' days.
+     */
+    public static ZoneId getZone() {
+        return ZONE;
+    }
+
+    /**
+     * @return The range covering the single day the given time falls on.
+     */
+    public static DayRange day(final Date time) {
+        return of(time, time);
+    }
+
+    /*
+     * java.sql.Date doesn't support toInstant(), so go through the epoch
+     * millis.
+     */
+    static LocalDate toLocalDate(final Date date, final ZoneId zone) {
+        return Instant.ofEpochMilli(date.getTime()).atZone(zone)
+                .toLocalDate();
+    }
+
+    /**
+     * @return Start of the first day.
+     */
+    public Date getStart() {
+        return start;
+    }
+
+    /**
+     * @return Start of the day after the last day (exclusive).
+     */
+    public Date getEnd() {
+        return end;
+    }
+
+    /**
+     * @param storedZone
+     *            Zone of the local times the database stores, e.g. the zone
+     *            of the server writing them.
+     * @return The range split where the offset of the operators' zone or of
+     *         the stored zone changes, e.g. for daylight saving time. Within
+     *         a span the stored times are as many seconds apart as the
+     *         instants they stand for, so the day of a time is
+     *         <code>floor((seconds since the span start + epoch seconds of
+     *         the start + offset) / 86400)</code>. This lets a query group by
+     *         day in SQL regardless of the zone of the database session.
+     */
+    public List<OffsetSpan> getOffsetSpans(final ZoneId storedZone) {
+        return offsetSpans(start.toInstant(), end.toInstant(), ZONE,
+                storedZone);
+    }
+
+    /*
+     * The spans of the time range in the given zones.
+     */
+    static List<OffsetSpan> offsetSpans(final Instant start,
+            final Instant end, final ZoneId zone, final ZoneId storedZone) {
+        ZoneRules rules = zone.getRules();
+        ZoneRules storedRules = storedZone.getRules();
+        List<OffsetSpan> spans = new ArrayList<OffsetSpan>();
+        Instant from = start;
+        while (from.isBefore(end)) {
+            Instant until = end;
+            for (ZoneRules zoneRules : new ZoneRules[] { rules, storedRules }) {
+                ZoneOffsetTransition next = zoneRules.nextTransition(from);
+                if (next != null && next.getInstant().isBefore(until)) {
+                    until = next.getInstant();
+                }
+            }
+            spans.add(new OffsetSpan(Date.from(from), Date.from(until), rules
+                    .getOffset(from).getTotalSeconds()));
+            from = until;
+        }
+        return spans;
+    }
+
+    /**
+     * @return Start of the day with the given number of days since the epoch.
+     */
+    public static Date startOfEpochDay(final long epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZONE)
+                .toInstant());
+    }
+
+    public LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return The day after the last day (exclusive).
+     */
+    public LocalDate getEndDay() {
+        return endDay;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof DayRange)) {
+            return false;
+        }
+        DayRange other = (DayRange) obj;
+        return firstDay.equals(other.firstDay) && endDay.equals(other.endDay);
+    }
+
+    @Override
+    public int hashCode() {
+        return firstDay.hashCode() * 31 + endDay.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + firstDay + ", " + endDay + ")";
+    }
+
+    /**
+     * A part of a range from start (inclusive) to end (exclusive) in which
+     * the zone has the same offset.
+     */
+    public static final class OffsetSpan {
+
+        private final Date start;
+        private final Date end;
+        private final int offsetSeconds;
+
+        OffsetSpan(final Date start, final Date end, final int offsetSeconds) {
+            this.start = start;
+            this.end = end;
+            this.offsetSeconds = offsetSeconds;
+        }
+
+        public Date getStart() {
+            return start;
+        }
+
+        public Date getEnd() {
+            return end;
+        }
+
+        public int getOffsetSeconds() {
+            return offsetSeconds;
+        }
+    }
+}
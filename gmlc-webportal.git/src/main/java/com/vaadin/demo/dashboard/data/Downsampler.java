@@ -0,0 +1,47 @@
+package com.vaadin.demo.dashboard.data;
+
+/**
+ * Reduces time series to about as many points as a chart has pixels, while
+ * keeping their visual shape.
+ */
+public final class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * Min/max per column for a series of evenly spaced points: keeps the
+     * lowest and highest value of every column of pointsPerColumn points, in
+     * time order. Preserves every spike, and the result is evenly spaced
+     * again, two values per column, so that a chart can place the points by
+     * a start time and an interval alone.
+     *
+     * @param pointsPerColumn
+     *            Number of points of the series per column, at least 1.
+     * @return Two values per column, the first one at the start of the
+     *         column and the second one half a column later.
+     */
+    public static double[] minMax(final TimeSeries series,
+            final int pointsPerColumn) {
+        int size = series.size();
+        int columns = (size + pointsPerColumn - 1) / pointsPerColumn;
+        double[] values = new double[columns * 2];
+        for (int column = 0; column < columns; column++) {
+            int from = column * pointsPerColumn;
+            int to = Math.min(from + pointsPerColumn, size);
+            int min = from;
+            int max = from;
+            for (int i = from + 1; i < to; i++) {
+                if (series.getValue(i) < series.getValue(min)) {
+                    min = i;
+                }
+                if (series.getValue(i) > series.getValue(max)) {
+                    max = i;
+                }
+            }
+            values[column * 2] = series.getValue(Math.min(min, max));
+            values[column * 2 + 1] = series.getValue(Math.max(min, max));
+        }
+        return values;
+    }
+}
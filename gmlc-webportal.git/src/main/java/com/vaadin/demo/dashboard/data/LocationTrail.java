@@ -0,0 +1,44 @@
+package com.vaadin.demo.dashboard.data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.vaadin.demo.dashboard.data.dictionary.ValueDictionary;
+import com.vaadin.demo.dashboard.domain.LocationVisit;
+
+/**
+ * Run-length compresses a time ordered stream of location results into
+ * {@link LocationVisit}s. Results without a cell (failed locates) don't
+ * interrupt a run.
+ */
+public final class LocationTrail {
+
+    private final List<LocationVisit> visits = new ArrayList<LocationVisit>();
+    private LocationVisit current;
+
+    /**
+     * Adds the next location result. Results must be added in time order.
+     */
+    public void add(final String cellId, final Date time) {
+        if (cellId == null || cellId.isEmpty()) {
+            return;
+        }
+        if (current != null && current.getCellId().equals(cellId)) {
+            current.setLastSeen(time);
+            current.setCount(current.getCount() + 1);
+        } else {
+            current = new LocationVisit();
+            // Trails are cached per subscriber, so they share the cell ids
+            current.setCellId(ValueDictionary.CELL_ID.canonical(cellId));
+            current.setFirstSeen(time);
+            current.setLastSeen(time);
+            current.setCount(1);
+            visits.add(current);
+        }
+    }
+
+    public List<LocationVisit> getVisits() {
+        return visits;
+    }
+}
@@ -0,0 +1,234 @@
+package com.vaadin.demo.dashboard.data;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.UI;
+
+/**
+ * Estimates how many bytes of heap the parts of a UI session retain, e.g. its
+ * DataProvider and the components of the open view.
+ * <p>
+ * The estimate walks the object graph of each registered part. Objects are
+ * counted for the first part that reaches them only, and objects registered
+ * with {@link #registerShared(String, Object)} (reference data shared by all
+ * sessions) are not counted at all. Parents of a component are not followed,
+ * so a component is charged for its own subtree only. Connection pools,
+ * data sources and connections are not followed either, as they lead into
+ * the shared pool and the JDBC driver.
+ * <p>
+ * References in fields the JVM doesn't let us read are not followed; their
+ * number is reported with the estimate.
+ * <p>
+ * Sizes assume a 64 bit JVM with compressed references.
+ */
+public final class SessionFootprint {
+
+    /**
+     * If set, sessions release view data when views detach and the data
+     * layer keeps results in compact form.
+     */
+    private static final boolean LEAN = Boolean
+            .getBoolean("dashboard.leanSessions");
+
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    private static final Map<String, Object> SHARED = new ConcurrentHashMap<String, Object>();
+    private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private final Map<String, Object> parts = new LinkedHashMap<String, Object>();
+    private int inaccessibleFields;
+
+    /**
+     * @return true if the portal runs in lean session mode.
+     */
+    public static boolean isLean() {
+        return LEAN;
+    }
+
+    /**
+     * Excludes an object (and everything only reachable through it) from all
+     * session footprints, because it is shared by all sessions. Registering
+     * another object with the same name replaces the previous one.
+     */
+    public static void registerShared(final String name, final Object shared) {
+        if (shared == null) {
+            SHARED.remove(name);
+        } else {
+            SHARED.put(name, shared);
+        }
+    }
+
+    /**
+     * Adds a part of the session to account for.
+     */
+    public SessionFootprint add(final String name, final Object part) {
+        parts.put(name, part);
+        return this;
+    }
+
+    /**
+     * @return Estimated retained bytes per part, in the order added.
+     */
+    public Map<String, Long> measure() {
+        inaccessibleFields = 0;
+        Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        for (Object part : parts.values()) {
+            Object parent = part instanceof Component ? ((Component) part)
+                    .getParent() : null;
+            while (parent != null) {
+                visited.put(parent, Boolean.TRUE);
+                parent = ((Component) parent).getParent();
+            }
+        }
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Object> e : parts.entrySet()) {
+            result.put(e.getKey(), sizeOf(e.getValue(), visited));
+        }
+        return result;
+    }
+
+    /**
+     * @return Reference fields the last {@link #measure()} could not read,
+     *         whose objects are missing from the estimate.
+     */
+    public int getInaccessibleFields() {
+        return inaccessibleFields;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (Map.Entry<String, Long> e : measure().entrySet()) {
+            sb.append(String.format("%-24s %10d bytes%n", e.getKey(),
+                    e.getValue()));
+            total += e.getValue();
+        }
+        sb.append(String.format("%-24s %10d bytes%n", "total", total));
+        if (inaccessibleFields > 0) {
+            sb.append(String.format("%-24s %10d fields%n", "not followed",
+                    inaccessibleFields));
+        }
+        return sb.toString();
+    }
+
+    private long sizeOf(final Object root,
+            final Map<Object, Boolean> visited) {
+        long size = 0;
+        Deque<Object> pending = new ArrayDeque<Object>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Object o = pending.pop();
+            if (o == null || visited.containsKey(o) || isExcluded(o)) {
+                continue;
+            }
+            visited.put(o, Boolean.TRUE);
+            Class<?> type = o.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(o);
+                Class<?> component = type.getComponentType();
+                size += align(ARRAY_HEADER + (long) length
+                        * primitiveSize(component));
+                if (!component.isPrimitive()) {
+                    for (int i = 0; i < length; i++) {
+                        pending.push(Array.get(o, i));
+                    }
+                }
+                continue;
+            }
+            long shallow = HEADER;
+            for (Field field : fieldsOf(type)) {
+                shallow += primitiveSize(field.getType());
+                if (!field.getType().isPrimitive()) {
+                    if (!field.isAccessible()) {
+                        inaccessibleFields++;
+                        continue;
+                    }
+                    try {
+                        pending.push(field.get(o));
+                    } catch (IllegalAccessException e) {
+                        // Counted as a shallow reference only
+                        inaccessibleFields++;
+                    }
+                }
+            }
+            size += align(shallow);
+        }
+        return size;
+    }
+
+    private static boolean isExcluded(final Object o) {
+        if (o instanceof Class || o instanceof ClassLoader
+                || o instanceof Thread || o instanceof UI
+                || o instanceof VaadinSession
+                || o instanceof JDBCConnectionPool || o instanceof DataSource
+                || o instanceof Connection) {
+            return true;
+        }
+        for (Object shared : SHARED.values()) {
+            if (shared == o) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Field[] fieldsOf(final Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            List<Field> result = new ArrayList<Field>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())
+                            || "parent".equals(field.getName())) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                    } catch (RuntimeException e) {
+                        // Not accessible on this JVM, counted when met
+                    }
+                    result.add(field);
+                }
+            }
+            fields = result.toArray(new Field[result.size()]);
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static int primitiveSize(final Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(final long size) {
+        return (size + 7) & ~7L;
+    }
+}
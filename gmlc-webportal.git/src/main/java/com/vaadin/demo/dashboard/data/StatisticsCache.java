@@ -0,0 +1,117 @@
+package com.vaadin.demo.dashboard.data;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.vaadin.demo.dashboard.data.admission.QueryCancelledException;
+import com.vaadin.demo.dashboard.data.admission.QueryRejectedException;
+import com.vaadin.demo.dashboard.domain.Statistics;
+
+/**
+ * Daily statistics by {@link DayRange}, shared by all sessions.
+ * <p>
+ * Ranges that ended before today no longer change and are kept until they
+ * are evicted by size, or invalidated when late rows are added to one of
+ * their days. Ranges including today are reloaded once they are
+ * older than the given number of seconds. Sessions asking for a range that
+ * is being loaded wait for that load instead of querying again. If the
+ * guard of the loading session stops its query, the waiting sessions load
+ * the range again under their own guard.
+ */
+public class StatisticsCache {
+
+    private final Cache<DayRange, Collection<Statistics>> closed = CacheBuilder
+            .newBuilder().maximumSize(256).recordStats().build();
+    private final Cache<DayRange, Collection<Statistics>> open;
+
+    /**
+     * @param openSeconds
+     *            How long the statistics of a range including today are
+     *            used.
+     */
+    public StatisticsCache(final int openSeconds) {
+        open = CacheBuilder.newBuilder().maximumSize(64)
+                .expireAfterWrite(openSeconds, TimeUnit.SECONDS).recordStats()
+                .build();
+    }
+
+    /**
+     * @return The cached statistics of the range, or those returned by the
+     *         loader, which must not be changed afterwards.
+     */
+    public Collection<Statistics> get(final DayRange range,
+            final Callable<Collection<Statistics>> loader) {
+        Cache<DayRange, Collection<Statistics>> cache = range.getEndDay()
+                .isAfter(LocalDate.now(DayRange.getZone())) ? open : closed;
+        while (true) {
+            final boolean[] loaded = new boolean[1];
+            try {
+                return cache.get(range,
+                        new Callable<Collection<Statistics>>() {
+                            @Override
+                            public Collection<Statistics> call()
+                                    throws Exception {
+                                loaded[0] = true;
+                                return Collections
+                                        .unmodifiableCollection(loader.call());
+                            }
+                        });
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            } catch (UncheckedExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!loaded[0]
+                        && (cause instanceof QueryCancelledException || cause instanceof QueryRejectedException)) {
+                    // Stopped by the guard of another session, not ours
+                    continue;
+                }
+                throw (RuntimeException) cause;
+            }
+        }
+    }
+
+    /**
+     * Forgets the statistics of the ranges including the day.
+     */
+    public void invalidate(final LocalDate day) {
+        invalidate(open, day);
+        invalidate(closed, day);
+    }
+
+    /**
+     * @return Hits and misses of all ranges since the cache was created.
+     */
+    public CacheStats getStats() {
+        return open.stats().plus(closed.stats());
+    }
+
+    /**
+     * Forgets all statistics, e.g. after rows of past days were changed.
+     */
+    public void invalidateAll() {
+        open.invalidateAll();
+        closed.invalidateAll();
+    }
+
+    private static void invalidate(
+            final Cache<DayRange, Collection<Statistics>> cache,
+            final LocalDate day) {
+        for (Iterator<DayRange> i = cache.asMap().keySet().iterator(); i
+                .hasNext();) {
+            DayRange range = i.next();
+            if (!day.isBefore(range.getFirstDay())
+                    && day.isBefore(range.getEndDay())) {
+                i.remove();
+            }
+        }
+    }
+}
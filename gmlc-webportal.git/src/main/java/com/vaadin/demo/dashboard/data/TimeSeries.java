@@ -0,0 +1,38 @@
+package com.vaadin.demo.dashboard.data;
+
+/**
+ * An immutable series of (time, value) points in primitive arrays, ordered
+ * by time.
+ */
+public final class TimeSeries {
+
+    private final long[] times;
+    private final double[] values;
+
+    /**
+     * @param times
+     *            Point times in epoch milliseconds, ascending.
+     * @param values
+     *            Point values, same length as times.
+     */
+    public TimeSeries(final long[] times, final double[] values) {
+        if (times.length != values.length) {
+            throw new IllegalArgumentException(
+                    "times and values must have the same length");
+        }
+        this.times = times;
+        this.values = values;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public long getTime(final int index) {
+        return times[index];
+    }
+
+    public double getValue(final int index) {
+        return values[index];
+    }
+}
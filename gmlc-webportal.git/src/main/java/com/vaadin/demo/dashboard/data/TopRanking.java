@@ -0,0 +1,51 @@
+package com.vaadin.demo.dashboard.data;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+/**
+ * An immutable snapshot of items sorted from the highest to the lowest, built
+ * once when the underlying data changes and then shared by all readers.
+ */
+public final class TopRanking<T> {
+
+    private final List<T> items;
+
+    private TopRanking(final List<T> items) {
+        this.items = items;
+    }
+
+    /**
+     * @param order
+     *            Order of the items, the highest item is ranked first.
+     * @param limit
+     *            Number of items kept.
+     */
+    public static <T> TopRanking<T> of(final Iterable<T> items,
+            final Comparator<? super T> order, final int limit) {
+        return new TopRanking<T>(ImmutableList.copyOf(Ordering.from(order)
+                .greatestOf(items, limit)));
+    }
+
+    public static <T> TopRanking<T> empty() {
+        return new TopRanking<T>(Collections.<T> emptyList());
+    }
+
+    /**
+     * @return All ranked items, highest first.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return The highest items, at most count of them.
+     */
+    public List<T> getTop(final int count) {
+        return items.subList(0, Math.min(count, items.size()));
+    }
+}
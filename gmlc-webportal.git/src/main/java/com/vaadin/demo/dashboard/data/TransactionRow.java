@@ -0,0 +1,93 @@
+package com.vaadin.demo.dashboard.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * One immutable row of <code>transaction_tab</code>, as written by the GMLC
+ * for every hop of a location request.
+ */
+public final class TransactionRow {
+
+    /** Insertable columns of transaction_tab, in {@link #bind} order. */
+    public static final String COLUMNS = "ref_id, seq_id, module_name, date_time, msisdn, service_id, cell_id";
+    public static final int COLUMN_COUNT = 7;
+
+    private final String refId;
+    private final int seqId;
+    private final String moduleName;
+    private final long dateTime;
+    private final String msisdn;
+    private final String serviceId;
+    private final String cellId;
+
+    public TransactionRow(final String refId, final int seqId,
+            final String moduleName, final long dateTime, final String msisdn,
+            final String serviceId, final String cellId) {
+        this.refId = refId;
+        this.seqId = seqId;
+        this.moduleName = moduleName;
+        this.dateTime = dateTime;
+        this.msisdn = msisdn;
+        this.serviceId = serviceId;
+        this.cellId = cellId;
+    }
+
+    /**
+     * Sets the column values of this row as parameters of the statement,
+     * starting at the given parameter index.
+     *
+     * @return The index of the parameter after the last one set.
+     */
+    public int bind(final PreparedStatement statement, final int index)
+            throws SQLException {
+        int i = index;
+        statement.setString(i++, refId);
+        statement.setInt(i++, seqId);
+        statement.setString(i++, moduleName);
+        statement.setTimestamp(i++, new Timestamp(dateTime));
+        statement.setString(i++, msisdn);
+        statement.setString(i++, serviceId);
+        statement.setString(i++, cellId);
+        return i;
+    }
+
+    public String getRefId() {
+        return refId;
+    }
+
+    public int getSeqId() {
+        return seqId;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * @return Time of the hop in epoch milliseconds.
+     */
+    public long getDateTime() {
+        return dateTime;
+    }
+
+    public String getMsisdn() {
+        return msisdn;
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public String getCellId() {
+        return cellId;
+    }
+
+    /**
+     * @return true if the hop carries no cell, i.e. the locate failed.
+     */
+    public boolean isFailed() {
+        return cellId == null || cellId.isEmpty();
+    }
+}
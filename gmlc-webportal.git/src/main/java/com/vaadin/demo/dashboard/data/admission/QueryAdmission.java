@@ -0,0 +1,182 @@
+package com.vaadin.demo.dashboard.data.admission;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Limits the heavy queries running at the same time, in total and per user,
+ * so that a single user can't take all connections of the pool.
+ * <p>
+ * A query over a limit waits in a queue. Waiting queries are admitted in the
+ * order they arrived, skipping those of users already at their own limit. A
+ * query is rejected with a {@link QueryRejectedException} if the queue, or
+ * the user's part of it, is full, or if it waited longer than the maximum
+ * wait.
+ */
+public class QueryAdmission {
+
+    private final int maxRunning;
+    private final int maxRunningPerUser;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+
+    private int running;
+    private final Map<String, Integer> runningByUser = new HashMap<String, Integer>();
+    private final LinkedList<Waiter> queue = new LinkedList<Waiter>();
+    private long rejected;
+
+    /**
+     * @param maxRunning
+     *            Queries running at the same time.
+     * @param maxRunningPerUser
+     *            Queries of one user running at the same time, and waiting
+     *            in the queue.
+     * @param maxQueued
+     *            Queries waiting in the queue.
+     * @param maxWaitMillis
+     *            How long a query waits before it is rejected.
+     */
+    public QueryAdmission(final int maxRunning, final int maxRunningPerUser,
+            final int maxQueued, final long maxWaitMillis) {
+        this.maxRunning = maxRunning;
+        this.maxRunningPerUser = maxRunningPerUser;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Waits until the query of the user may run. Every successful call must
+     * be followed by a {@link #release(String)}.
+     *
+     * @throws QueryRejectedException
+     *             if the query may not run.
+     * @throws QueryCancelledException
+     *             if the query was cancelled while waiting.
+     */
+    synchronized void acquire(final String user, final QueryGuard.Query query) {
+        if (queue.isEmpty() && mayRun(user)) {
+            admit(user);
+            return;
+        }
+        if (queue.size() >= maxQueued) {
+            throw reject("The portal is busy, please try again in a moment");
+        }
+        if (queued(user) >= maxRunningPerUser) {
+            throw reject("Your other queries are still running, please wait"
+                    + " for them to finish");
+        }
+        Waiter waiter = new Waiter(user);
+        queue.add(waiter);
+        try {
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            while (true) {
+                if (query.isCancelled()) {
+                    throw new QueryCancelledException();
+                }
+                if (mayRun(user) && next() == waiter) {
+                    admit(user);
+                    return;
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw reject("The portal is busy, your query waited "
+                            + maxWaitMillis / 1000 + " s and was not run");
+                }
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new QueryCancelledException();
+                }
+            }
+        } finally {
+            queue.remove(waiter);
+            // The next waiter may be one of another user
+            notifyAll();
+        }
+    }
+
+    synchronized void release(final String user) {
+        running--;
+        Integer count = runningByUser.get(user);
+        if (count == null || count <= 1) {
+            runningByUser.remove(user);
+        } else {
+            runningByUser.put(user, count - 1);
+        }
+        notifyAll();
+    }
+
+    /*
+     * Lets the waiting queries check whether they were cancelled.
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return Queries rejected since the start.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private boolean mayRun(final String user) {
+        return running < maxRunning && runningOf(user) < maxRunningPerUser;
+    }
+
+    private int runningOf(final String user) {
+        Integer count = runningByUser.get(user);
+        return count == null ? 0 : count;
+    }
+
+    private void admit(final String user) {
+        running++;
+        runningByUser.put(user, runningOf(user) + 1);
+    }
+
+    private QueryRejectedException reject(final String message) {
+        rejected++;
+        return new QueryRejectedException(message);
+    }
+
+    private int queued(final String user) {
+        int count = 0;
+        for (Waiter waiter : queue) {
+            if (waiter.user.equals(user)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * The first waiter whose user is below the limit.
+     */
+    private Waiter next() {
+        for (Waiter waiter : queue) {
+            if (runningOf(waiter.user) < maxRunningPerUser) {
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private static final class Waiter {
+
+        private final String user;
+
+        Waiter(final String user) {
+            this.user = user;
+        }
+    }
+}
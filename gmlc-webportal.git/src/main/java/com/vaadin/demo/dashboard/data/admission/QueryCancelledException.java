@@ -0,0 +1,14 @@
+package com.vaadin.demo.dashboard.data.admission;
+
+/**
+ * Thrown instead of the result of a query that was cancelled, e.g. because
+ * the user left the view that asked for it. Nobody is waiting for the result
+ * any more, so there is nothing to show.
+ */
+@SuppressWarnings("serial")
+public class QueryCancelledException extends RuntimeException {
+
+    public QueryCancelledException() {
+        super("The query was cancelled");
+    }
+}
@@ -0,0 +1,304 @@
+package com.vaadin.demo.dashboard.data.admission;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+
+/**
+ * Bounds the heavy queries of one session. A query started with
+ * {@link #start(String)} first has to be admitted by the shared
+ * {@link QueryAdmission}. Every statement executed through a
+ * {@link #wrap(JDBCConnectionPool) wrapped pool} gets the query timeout, and
+ * the statements of the running queries are cancelled by {@link #cancel()}.
+ * <p>
+ * The queries swallow their SQLExceptions, so a stopped query is only
+ * noticed by {@link Query#check(Object)}, which throws instead of returning
+ * the partial result.
+ */
+public class QueryGuard {
+
+    private final QueryAdmission admission;
+    private final int timeoutSeconds;
+
+    /* Query of each thread, statements executed on it belong to it */
+    private final ThreadLocal<Query> current = new ThreadLocal<Query>();
+    private final Set<Query> running = Collections
+            .newSetFromMap(Collections
+                    .synchronizedMap(new IdentityHashMap<Query, Boolean>()));
+
+    /**
+     * @param timeoutSeconds
+     *            Timeout of every statement, 0 for none.
+     */
+    public QueryGuard(final QueryAdmission admission, final int timeoutSeconds) {
+        this.admission = admission;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * @return A pool whose statements are bounded by this guard, with the
+     *         connections of the given pool.
+     */
+    public JDBCConnectionPool wrap(final JDBCConnectionPool pool) {
+        return new GuardedPool(pool);
+    }
+
+    /**
+     * Waits until a heavy query of the user may run. A query started on a
+     * thread that already runs one is part of that one.
+     *
+     * @throws QueryRejectedException
+     *             if the query may not run.
+     * @throws QueryCancelledException
+     *             if the guard was cancelled while the query waited.
+     */
+    public Query start(final String user) {
+        Query query = current.get();
+        if (query != null) {
+            query.depth++;
+            return query;
+        }
+        query = new Query(user);
+        running.add(query);
+        try {
+            admission.acquire(user, query);
+        } catch (RuntimeException e) {
+            running.remove(query);
+            throw e;
+        }
+        current.set(query);
+        return query;
+    }
+
+    /**
+     * Cancels the running and the waiting queries, e.g. because the user
+     * left the view or closed the session. Called from any thread.
+     */
+    public void cancel() {
+        List<Query> queries;
+        synchronized (running) {
+            queries = new ArrayList<Query>(running);
+        }
+        for (Query query : queries) {
+            query.cancel();
+        }
+        admission.wakeUp();
+    }
+
+    /**
+     * A heavy query admitted to run, {@link #end() ended} in a finally block.
+     */
+    public final class Query {
+
+        private final String user;
+        private int depth;
+        private volatile boolean cancelled;
+        private volatile boolean timedOut;
+        private final Set<Statement> statements = Collections
+                .newSetFromMap(Collections
+                        .synchronizedMap(new IdentityHashMap<Statement, Boolean>()));
+
+        private Query(final String user) {
+            this.user = user;
+        }
+
+        /**
+         * @return The result of the query, if it was neither cancelled nor
+         *         timed out.
+         * @throws QueryCancelledException
+         *             if the query was cancelled.
+         * @throws QueryRejectedException
+         *             if a statement of the query timed out.
+         */
+        public <T> T check(final T result) {
+            if (cancelled) {
+                throw new QueryCancelledException();
+            }
+            if (timedOut) {
+                throw new QueryRejectedException("The query took longer than "
+                        + timeoutSeconds
+                        + " s and was stopped, please choose a shorter range");
+            }
+            return result;
+        }
+
+        public void end() {
+            if (depth > 0) {
+                depth--;
+                return;
+            }
+            current.remove();
+            running.remove(this);
+            statements.clear();
+            admission.release(user);
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            List<Statement> executing;
+            synchronized (statements) {
+                executing = new ArrayList<Statement>(statements);
+            }
+            for (Statement statement : executing) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    // Already closed or finished
+                }
+            }
+        }
+    }
+
+    private static Object invoke(final Object target, final Method method,
+            final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * A proxy equals only itself, as the pools tell connections apart by
+     * identity.
+     */
+    private static Object identity(final Object proxy, final Method method,
+            final Object[] args, final Object target) throws Throwable {
+        if (method.getName().equals("equals")) {
+            return proxy == args[0];
+        } else if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        return invoke(target, method, args);
+    }
+
+    @SuppressWarnings("serial")
+    private final class GuardedPool implements JDBCConnectionPool {
+
+        private final JDBCConnectionPool pool;
+
+        /* Connection of the pool behind each handed out proxy */
+        private final Map<Connection, Connection> connections = Collections
+                .synchronizedMap(new IdentityHashMap<Connection, Connection>());
+
+        GuardedPool(final JDBCConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public Connection reserveConnection() throws SQLException {
+            Connection connection = pool.reserveConnection();
+            Connection proxy = (Connection) Proxy.newProxyInstance(
+                    QueryGuard.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new ConnectionHandler(connection));
+            connections.put(proxy, connection);
+            return proxy;
+        }
+
+        @Override
+        public void releaseConnection(final Connection conn) {
+            Connection connection = conn == null ? null : connections
+                    .remove(conn);
+            pool.releaseConnection(connection != null ? connection : conn);
+        }
+
+        /*
+         * The pool belongs to the guard's owner.
+         */
+        @Override
+        public void destroy() {
+        }
+    }
+
+    /*
+     * Hands out statements with the timeout, executed on behalf of the
+     * query of the thread.
+     */
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        ConnectionHandler(final Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return identity(proxy, method, args, connection);
+            }
+            Object result = QueryGuard.invoke(connection, method, args);
+            if (result instanceof Statement
+                    && Statement.class.isAssignableFrom(method.getReturnType())) {
+                Statement statement = (Statement) result;
+                if (timeoutSeconds > 0) {
+                    statement.setQueryTimeout(timeoutSeconds);
+                }
+                return Proxy.newProxyInstance(
+                        QueryGuard.class.getClassLoader(),
+                        new Class<?>[] { method.getReturnType() },
+                        new StatementHandler(statement));
+            }
+            return result;
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+
+        StatementHandler(final Statement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return identity(proxy, method, args, statement);
+            }
+            Query query = current.get();
+            if (query == null || !method.getName().startsWith("execute")) {
+                if (query != null && method.getName().equals("close")) {
+                    query.statements.remove(statement);
+                }
+                return QueryGuard.invoke(statement, method, args);
+            }
+            // Stays cancellable while its results are read
+            query.statements.add(statement);
+            if (query.cancelled) {
+                throw new SQLException("The query was cancelled");
+            }
+            long start = System.currentTimeMillis();
+            try {
+                return QueryGuard.invoke(statement, method, args);
+            } catch (SQLException e) {
+                if (!query.cancelled
+                        && (e instanceof SQLTimeoutException || timeoutSeconds > 0
+                                && System.currentTimeMillis() - start >= timeoutSeconds * 1000L)) {
+                    query.timedOut = true;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.vaadin.demo.dashboard.data.admission;
+
+/**
+ * Thrown instead of the result of a query that was not run because the
+ * database is busy, or that was stopped because it took too long. The
+ * message explains why and can be shown to the user as is.
+ */
+@SuppressWarnings("serial")
+public class QueryRejectedException extends RuntimeException {
+
+    public QueryRejectedException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,122 @@
+package com.vaadin.demo.dashboard.data.alert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.vaadin.demo.dashboard.data.TransactionRow;
+
+/**
+ * Raises an alert when the failure rate of a service or module over a
+ * sliding window reaches a threshold, and clears it once the rate has fallen
+ * to a lower threshold. The gap between the two keeps a rate hovering around
+ * one threshold from raising and clearing alerts over and over.
+ * <p>
+ * Rules are written as
+ * <code>dimension:key:windowSeconds:minRequests:raiseRate:clearRate</code>,
+ * e.g. <code>service:*:60:100:0.25:0.10</code>, where dimension is
+ * <code>service</code> or <code>module</code> and key <code>*</code> applies
+ * the rule to every value separately.
+ */
+public final class AlertRule {
+
+    public enum Dimension {
+        SERVICE, MODULE;
+
+        String valueOf(final TransactionRow row) {
+            return this == SERVICE ? row.getServiceId() : row.getModuleName();
+        }
+    }
+
+    private final Dimension dimension;
+    private final String key;
+    private final int windowSeconds;
+    private final int minRequests;
+    private final double raiseRate;
+    private final double clearRate;
+
+    /**
+     * @param key
+     *            Value of the dimension, null for each value.
+     * @param minRequests
+     *            Requests the window must hold before an alert is raised.
+     */
+    public AlertRule(final Dimension dimension, final String key,
+            final int windowSeconds, final int minRequests,
+            final double raiseRate, final double clearRate) {
+        if (clearRate > raiseRate) {
+            throw new IllegalArgumentException(
+                    "Clear rate above raise rate");
+        }
+        this.dimension = dimension;
+        this.key = key;
+        this.windowSeconds = windowSeconds;
+        this.minRequests = minRequests;
+        this.raiseRate = raiseRate;
+        this.clearRate = clearRate;
+    }
+
+    /**
+     * @return The rules of a comma separated list.
+     */
+    public static List<AlertRule> parse(final String rules) {
+        List<AlertRule> result = new ArrayList<AlertRule>();
+        for (String rule : rules.split(",")) {
+            if (rule.trim().isEmpty()) {
+                continue;
+            }
+            String[] f = rule.trim().split(":");
+            if (f.length != 6) {
+                throw new IllegalArgumentException("Malformed rule: " + rule);
+            }
+            result.add(new AlertRule(Dimension.valueOf(f[0].toUpperCase(
+                    Locale.ROOT)), "*".equals(f[1]) ? null : f[1], Integer
+                    .parseInt(f[2]), Integer.parseInt(f[3]), Double
+                    .parseDouble(f[4]), Double.parseDouble(f[5])));
+        }
+        return result;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public int getMinRequests() {
+        return minRequests;
+    }
+
+    public double getRaiseRate() {
+        return raiseRate;
+    }
+
+    public double getClearRate() {
+        return clearRate;
+    }
+
+    /**
+     * @return The value of the row this rule counts it for, null if the rule
+     *         doesn't apply to the row.
+     */
+    String match(final TransactionRow row) {
+        String value = dimension.valueOf(row);
+        if (value == null || (key != null && !key.equals(value))) {
+            return null;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return dimension.name().toLowerCase(Locale.ROOT) + ":"
+                + (key == null ? "*" : key) + ":" + windowSeconds + ":"
+                + minRequests + ":" + raiseRate + ":" + clearRate;
+    }
+}
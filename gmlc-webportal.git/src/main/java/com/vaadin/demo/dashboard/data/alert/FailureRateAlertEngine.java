@@ -0,0 +1,172 @@
+package com.vaadin.demo.dashboard.data.alert;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.ingest.IngestListener;
+import com.vaadin.demo.dashboard.data.notify.NotificationDispatcher;
+import com.vaadin.demo.dashboard.domain.DashboardNotification;
+
+/**
+ * Watches the failure rate of the ingested traffic per service and module.
+ * A request failed if it has no cell_id, as in the statistics.
+ * <p>
+ * Committed rows are only counted into the {@link FailureWindow}s of the
+ * matching rules, the database is never queried. They are counted at the
+ * time they are committed, not by their date_time, so that a batch of old
+ * or future-dated rows can't move the windows. The rules are evaluated
+ * every second on a background thread, which publishes a notification to
+ * all users whenever an alert is raised or cleared.
+ */
+public class FailureRateAlertEngine implements IngestListener {
+
+    /** Any service failing a quarter of its requests in a minute */
+    public static final String DEFAULT_RULES = "service:*:60:100:0.25:0.10";
+
+    private final List<AlertRule> rules;
+    private final NotificationDispatcher dispatcher;
+
+    /* Windows by rule and value, created as values are seen */
+    private final List<ConcurrentMap<String, Tracked>> tracked = new ArrayList<ConcurrentMap<String, Tracked>>();
+
+    private ScheduledExecutorService scheduler;
+
+    public FailureRateAlertEngine(final List<AlertRule> rules,
+            final NotificationDispatcher dispatcher) {
+        this.rules = rules;
+        this.dispatcher = dispatcher;
+        for (int i = 0; i < rules.size(); i++) {
+            tracked.add(new ConcurrentHashMap<String, Tracked>());
+        }
+    }
+
+    /**
+     * Evaluates the rules every second on a background thread.
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r, "failure-alerts");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evaluate(System.currentTimeMillis());
+                    } catch (RuntimeException e) {
+                        // Keeps the schedule alive
+                        e.printStackTrace();
+                    }
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void rowsCommitted(final List<TransactionRow> rows) {
+        long committed = System.currentTimeMillis();
+        for (int r = 0; r < rules.size(); r++) {
+            AlertRule rule = rules.get(r);
+            ConcurrentMap<String, Tracked> byValue = tracked.get(r);
+            for (TransactionRow row : rows) {
+                String value = rule.match(row);
+                if (value == null) {
+                    continue;
+                }
+                Tracked t = byValue.get(value);
+                if (t == null) {
+                    t = new Tracked(rule.getWindowSeconds());
+                    Tracked previous = byValue.putIfAbsent(value, t);
+                    if (previous != null) {
+                        t = previous;
+                    }
+                }
+                String cellId = row.getCellId();
+                t.window.add(committed, cellId == null || cellId.isEmpty());
+            }
+        }
+    }
+
+    /**
+     * Raises and clears alerts according to the windows ending at the given
+     * time. Both need the minimum number of requests, so an alert stays
+     * raised while a value has too little traffic, e.g. none at all.
+     */
+    void evaluate(final long now) {
+        for (int r = 0; r < rules.size(); r++) {
+            AlertRule rule = rules.get(r);
+            for (Map.Entry<String, Tracked> e : tracked.get(r).entrySet()) {
+                Tracked t = e.getValue();
+                t.window.advance(now);
+                int requests = t.window.getRequests();
+                int failures = t.window.getFailures();
+                double rate = requests == 0 ? 0 : (double) failures
+                        / requests;
+                if (!t.alerting && requests >= rule.getMinRequests()
+                        && rate >= rule.getRaiseRate()) {
+                    t.alerting = true;
+                    publish(rule, e.getKey(), true, requests, failures);
+                } else if (t.alerting && requests >= rule.getMinRequests()
+                        && rate <= rule.getClearRate()) {
+                    t.alerting = false;
+                    publish(rule, e.getKey(), false, requests, failures);
+                }
+            }
+        }
+    }
+
+    private void publish(final AlertRule rule, final String value,
+            final boolean raised, final int requests, final int failures) {
+        DashboardNotification notification = new DashboardNotification();
+        notification.setFirstName("Failure");
+        notification.setLastName("alert");
+        notification.setAction(raised ? "raised an alert" : "cleared an alert");
+        notification.setContent(String.format(
+                "Failure rate of %s %s %s %.0f%%: %d of %d requests in the last %d s",
+                rule.getDimension().name().toLowerCase(Locale.ROOT), value,
+                raised ? "reached" : "is back at",
+                requests == 0 ? 0.0 : 100.0 * failures / requests, failures,
+                requests, rule.getWindowSeconds()));
+        try {
+            dispatcher.publish(null, notification);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Alert state of one value of a rule, only changed by the evaluating
+     * thread.
+     */
+    private static final class Tracked {
+        private final FailureWindow window;
+        private boolean alerting;
+
+        Tracked(final int windowSeconds) {
+            window = new FailureWindow(windowSeconds);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.vaadin.demo.dashboard.data.alert;
+
+/**
+ * Requests and failures of the last seconds, counted in one bucket per
+ * second. The totals are updated as requests are added and buckets expire,
+ * so reading the rate never sums the buckets.
+ */
+final class FailureWindow {
+
+    private final int length;
+    private final int[] requests;
+    private final int[] failures;
+    private long newest = Long.MIN_VALUE;
+    private int totalRequests;
+    private int totalFailures;
+
+    FailureWindow(final int windowSeconds) {
+        length = windowSeconds;
+        requests = new int[windowSeconds];
+        failures = new int[windowSeconds];
+    }
+
+    /**
+     * Counts a request arriving at the given time. Requests older than the
+     * window are ignored.
+     */
+    synchronized void add(final long time, final boolean failed) {
+        long second = time / 1000;
+        advanceTo(second);
+        if (second <= newest - length) {
+            return;
+        }
+        int i = bucket(second);
+        requests[i]++;
+        totalRequests++;
+        if (failed) {
+            failures[i]++;
+            totalFailures++;
+        }
+    }
+
+    /**
+     * Moves the window to end at the given time, expiring older buckets.
+     */
+    synchronized void advance(final long time) {
+        advanceTo(time / 1000);
+    }
+
+    synchronized int getRequests() {
+        return totalRequests;
+    }
+
+    synchronized int getFailures() {
+        return totalFailures;
+    }
+
+    private void advanceTo(final long second) {
+        if (second <= newest) {
+            return;
+        }
+        long from = newest == Long.MIN_VALUE
+                || second - newest > length ? second - length + 1 : newest + 1;
+        for (long s = from; s <= second; s++) {
+            int i = bucket(s);
+            totalRequests -= requests[i];
+            totalFailures -= failures[i];
+            requests[i] = 0;
+            failures[i] = 0;
+        }
+        newest = second;
+    }
+
+    private int bucket(final long second) {
+        return (int) Math.floorMod(second, (long) length);
+    }
+}
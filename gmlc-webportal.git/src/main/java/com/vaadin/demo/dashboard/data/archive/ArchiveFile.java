@@ -0,0 +1,672 @@
+package com.vaadin.demo.dashboard.data.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+
+/**
+ * One archived day of <code>transaction_tab</code> in a compressed columnar
+ * file. Rows are sorted by msisdn and date_time and stored in blocks of up to
+ * 4096 rows. Within a block every column is stored and compressed
+ * separately:
+ * <ul>
+ * <li>msisdn as runs of (value, row count),</li>
+ * <li>date_time and seq_id as zig-zag varint deltas to the previous row,</li>
+ * <li>ref_id, nearly unique per request, as plain strings,</li>
+ * <li>the other columns as a dictionary of the block and a varint code per
+ * row.</li>
+ * </ul>
+ * The uncompressed header holds the row count, the time and msisdn ranges and
+ * Bloom filters of the msisdns and ref_ids, so that a scan can skip a file by
+ * its header alone. It also holds the failed, per service and per minute
+ * request counts of the day, which answer the aggregate queries without
+ * reading the columns, and the first and last msisdn and the position of
+ * every block, so that a lookup of a subscriber reads only the blocks that
+ * may hold its rows.
+ */
+public final class ArchiveFile {
+
+    private static final int MAGIC = 0x54434132;
+    private static final int COLUMNS = 7;
+    private static final int BLOCK_ROWS = 4096;
+    private static final double BLOOM_FPP = 0.01;
+
+    private final File file;
+    private final long dayStart;
+    private final int rows;
+    private final int failedRows;
+    private final Map<String, Integer> serviceRows;
+    private final int[] minuteRows;
+    private final long minTime;
+    private final long maxTime;
+    private final String minMsisdn;
+    private final String maxMsisdn;
+    private final BloomFilter<CharSequence> msisdns;
+    private final BloomFilter<CharSequence> refIds;
+    private final Block[] blocks;
+
+    private ArchiveFile(final File file, final long dayStart,
+            final int rows, final long minTime, final long maxTime,
+            final String minMsisdn, final String maxMsisdn,
+            final int failedRows, final Map<String, Integer> serviceRows,
+            final int[] minuteRows, final BloomFilter<CharSequence> msisdns,
+            final BloomFilter<CharSequence> refIds, final Block[] blocks) {
+        this.file = file;
+        this.dayStart = dayStart;
+        this.rows = rows;
+        this.failedRows = failedRows;
+        this.serviceRows = serviceRows;
+        this.minuteRows = minuteRows;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.minMsisdn = minMsisdn;
+        this.maxMsisdn = maxMsisdn;
+        this.msisdns = msisdns;
+        this.refIds = refIds;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Reads the header of an archive file. The columns are read only when
+     * the file is scanned.
+     */
+    public static ArchiveFile open(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            readMagic(in, file);
+            long offset = 8 + in.readInt();
+            long dayStart = in.readLong();
+            int rows = in.readInt();
+            long minTime = in.readLong();
+            long maxTime = in.readLong();
+            String minMsisdn = in.readUTF();
+            String maxMsisdn = in.readUTF();
+            int failedRows = in.readInt();
+            Map<String, Integer> serviceRows = new TreeMap<String, Integer>();
+            for (int i = in.readInt(); i > 0; i--) {
+                serviceRows.put(in.readUTF(), in.readInt());
+            }
+            int[] minuteRows = new int[in.readInt()];
+            for (int i = 0; i < minuteRows.length; i++) {
+                minuteRows[i] = in.readInt();
+            }
+            BloomFilter<CharSequence> msisdns = readBloomFilter(in);
+            BloomFilter<CharSequence> refIds = readBloomFilter(in);
+            Block[] blocks = new Block[in.readInt()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new Block(in.readUTF(), in.readUTF(),
+                        in.readInt(), offset, in.readInt());
+                offset += blocks[i].length;
+            }
+            return new ArchiveFile(file, dayStart, rows, minTime, maxTime,
+                    minMsisdn, maxMsisdn, failedRows, serviceRows,
+                    minuteRows, msisdns, refIds, blocks);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return Start of the archived day in epoch milliseconds.
+     */
+    public long getDayStart() {
+        return dayStart;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return Number of rows without a cell, i.e. failed locates.
+     */
+    public int getFailedRows() {
+        return failedRows;
+    }
+
+    /**
+     * @return Number of rows per service_id, ordered by service_id.
+     */
+    public Map<String, Integer> getServiceRows() {
+        return Collections.unmodifiableMap(serviceRows);
+    }
+
+    /**
+     * @return Number of rows per minute of the day, starting at
+     *         {@link #getDayStart()}. Must not be modified.
+     */
+    public int[] getMinuteRows() {
+        return minuteRows;
+    }
+
+    /**
+     * @return true if rows of the file may fall into the time range from
+     *         (inclusive) to (exclusive).
+     */
+    public boolean overlaps(final long from, final long to) {
+        return rows > 0 && minTime < to && maxTime >= from;
+    }
+
+    /**
+     * @return false if the file certainly holds no rows of the subscriber.
+     */
+    public boolean mightContainMsisdn(final String msisdn) {
+        return rows > 0 && msisdn.compareTo(minMsisdn) >= 0
+                && msisdn.compareTo(maxMsisdn) <= 0
+                && msisdns.mightContain(msisdn);
+    }
+
+    /**
+     * @return false if the file certainly holds no rows of the request.
+     */
+    public boolean mightContainRefId(final String refId) {
+        return rows > 0 && refIds.mightContain(refId);
+    }
+
+    /**
+     * Reads the rows in the time range from (inclusive) to (exclusive) that
+     * match the given column values, null matching any value. With an msisdn
+     * only the blocks whose msisdn range includes it are read.
+     *
+     * @return Matching rows, ordered by msisdn and date_time.
+     */
+    public List<TransactionRow> scan(final long from, final long to,
+            final String msisdn, final String serviceId, final String refId)
+            throws IOException {
+        List<TransactionRow> result = new ArrayList<TransactionRow>();
+        if (!overlaps(from, to)
+                || (msisdn != null && !mightContainMsisdn(msisdn))
+                || (refId != null && !mightContainRefId(refId))) {
+            return result;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            for (Block block : blocks) {
+                if (msisdn != null && msisdn.compareTo(block.lastMsisdn) > 0) {
+                    continue;
+                }
+                if (msisdn != null && msisdn.compareTo(block.firstMsisdn) < 0) {
+                    // Sorted by msisdn, the later blocks are behind it too
+                    break;
+                }
+                byte[] bytes = new byte[block.length];
+                in.seek(block.offset);
+                in.readFully(bytes);
+                scan(bytes, block.rows, from, to, msisdn, serviceId, refId,
+                        result);
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    private static void scan(final byte[] block, final int rows,
+            final long from, final long to, final String msisdn,
+            final String serviceId, final String refId,
+            final List<TransactionRow> result) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                block));
+        ColumnReader[] columns = new ColumnReader[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            byte[] compressed = new byte[in.readInt()];
+            in.readFully(compressed);
+            columns[i] = new ColumnReader(compressed);
+        }
+        ColumnReader msisdnColumn = columns[0];
+        ColumnReader timeColumn = columns[1];
+        ColumnReader seqColumn = columns[2];
+        ColumnReader refIdColumn = columns[3];
+        String[] moduleDictionary = columns[4].readDictionary();
+        String[] serviceDictionary = columns[5].readDictionary();
+        String[] cellDictionary = columns[6].readDictionary();
+
+        String currentMsisdn = null;
+        int runLeft = 0;
+        long time = 0;
+        long seq = 0;
+        for (int row = 0; row < rows; row++) {
+            if (runLeft == 0) {
+                currentMsisdn = msisdnColumn.readString();
+                runLeft = (int) msisdnColumn.readVarLong();
+                if (msisdn != null && currentMsisdn.compareTo(msisdn) > 0) {
+                    // Sorted by msisdn, the subscriber's rows are behind
+                    return;
+                }
+            }
+            runLeft--;
+            time += timeColumn.readZigZag();
+            seq += seqColumn.readZigZag();
+            String rowRefId = refIdColumn.readNullableString();
+            String module = moduleDictionary[columns[4].readCode()];
+            String service = serviceDictionary[columns[5].readCode()];
+            String cell = cellDictionary[columns[6].readCode()];
+            if (time >= from && time < to
+                    && (msisdn == null || msisdn.equals(currentMsisdn))
+                    && (serviceId == null || serviceId.equals(service))
+                    && (refId == null || refId.equals(rowRefId))) {
+                result.add(new TransactionRow(rowRefId, (int) seq, module,
+                        time, currentMsisdn, service, cell));
+            }
+        }
+    }
+
+    private static BloomFilter<CharSequence> readBloomFilter(
+            final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return BloomFilter.readFrom(new ByteArrayInputStream(bytes),
+                Funnels.stringFunnel(StandardCharsets.UTF_8));
+    }
+
+    private static void readMagic(final DataInputStream in, final File file)
+            throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an archive file: " + file);
+        }
+    }
+
+    private static void writeBloomFilter(final DataOutputStream out,
+            final BloomFilter<CharSequence> filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(bytes);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Builds an archive file from rows added in msisdn and date_time order.
+     * Full blocks are compressed as they are completed.
+     */
+    public static final class Writer {
+
+        private ColumnWriter msisdnColumn;
+        private ColumnWriter timeColumn;
+        private ColumnWriter seqColumn;
+        private ColumnWriter refIdColumn;
+        private ColumnWriter moduleColumn;
+        private ColumnWriter serviceColumn;
+        private ColumnWriter cellColumn;
+
+        private final BloomFilter<CharSequence> msisdns;
+        private final BloomFilter<CharSequence> refIds;
+        private final long dayStart;
+        private final int[] minuteRows;
+        private final Map<String, Integer> serviceRows = new TreeMap<String, Integer>();
+        private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+        private final List<Block> blocks = new ArrayList<Block>();
+
+        private int rows;
+        private int failedRows;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+        private String firstMsisdn;
+        private String lastMsisdn;
+        private String runMsisdn;
+        private int runLength;
+        private String blockFirstMsisdn;
+        private int blockRows;
+        private long lastTime;
+        private long lastSeq;
+
+        /**
+         * @param dayStart
+         *            Start of the day in epoch milliseconds.
+         * @param dayEnd
+         *            Start of the next day in epoch milliseconds.
+         * @param expectedRows
+         *            Expected number of rows, sizes the Bloom filters.
+         */
+        public Writer(final long dayStart, final long dayEnd,
+                final int expectedRows) {
+            this.dayStart = dayStart;
+            minuteRows = new int[(int) ((dayEnd - dayStart) / 60000)];
+            int expected = Math.max(1000, expectedRows);
+            msisdns = BloomFilter.create(
+                    Funnels.stringFunnel(StandardCharsets.UTF_8), expected,
+                    BLOOM_FPP);
+            refIds = BloomFilter.create(
+                    Funnels.stringFunnel(StandardCharsets.UTF_8), expected,
+                    BLOOM_FPP);
+            startBlock();
+        }
+
+        public void add(final TransactionRow row) throws IOException {
+            String msisdn = row.getMsisdn() == null ? "" : row.getMsisdn();
+            if (lastMsisdn != null && msisdn.compareTo(lastMsisdn) < 0) {
+                throw new IllegalArgumentException(
+                        "Rows must be added in msisdn order");
+            }
+            if (blockRows == BLOCK_ROWS) {
+                finishBlock();
+            }
+            if (runLength > 0 && !msisdn.equals(runMsisdn)) {
+                finishRun();
+            }
+            if (runLength == 0) {
+                runMsisdn = msisdn;
+                if (blockRows == 0) {
+                    blockFirstMsisdn = msisdn;
+                }
+                if (firstMsisdn == null) {
+                    firstMsisdn = msisdn;
+                }
+            }
+            runLength++;
+            lastMsisdn = msisdn;
+
+            timeColumn.writeZigZag(row.getDateTime() - lastTime);
+            lastTime = row.getDateTime();
+            seqColumn.writeZigZag(row.getSeqId() - lastSeq);
+            lastSeq = row.getSeqId();
+            refIdColumn.writeNullableString(row.getRefId());
+            moduleColumn.writeCoded(row.getModuleName());
+            serviceColumn.writeCoded(row.getServiceId());
+            cellColumn.writeCoded(row.getCellId());
+            blockRows++;
+
+            msisdns.put(msisdn);
+            if (row.getRefId() != null) {
+                refIds.put(row.getRefId());
+            }
+            if (row.isFailed()) {
+                failedRows++;
+            }
+            String service = row.getServiceId() == null ? "" : row
+                    .getServiceId();
+            Integer serviceCount = serviceRows.get(service);
+            serviceRows.put(service, serviceCount == null ? 1
+                    : serviceCount + 1);
+            int minute = (int) Math.floorDiv(row.getDateTime() - dayStart,
+                    60000L);
+            if (minute >= 0 && minute < minuteRows.length) {
+                minuteRows[minute]++;
+            }
+            minTime = Math.min(minTime, row.getDateTime());
+            maxTime = Math.max(maxTime, row.getDateTime());
+            rows++;
+        }
+
+        /**
+         * Writes the file. The file is written next to the target and
+         * renamed, so readers never see a partly written file.
+         */
+        public void writeTo(final File target) throws IOException {
+            finishBlock();
+            File temp = new File(target.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+                DataOutputStream header = new DataOutputStream(headerBytes);
+                header.writeLong(dayStart);
+                header.writeInt(rows);
+                header.writeLong(rows == 0 ? 0 : minTime);
+                header.writeLong(rows == 0 ? 0 : maxTime);
+                header.writeUTF(firstMsisdn == null ? "" : firstMsisdn);
+                header.writeUTF(lastMsisdn == null ? "" : lastMsisdn);
+                header.writeInt(failedRows);
+                header.writeInt(serviceRows.size());
+                for (Map.Entry<String, Integer> e : serviceRows.entrySet()) {
+                    header.writeUTF(e.getKey());
+                    header.writeInt(e.getValue());
+                }
+                header.writeInt(minuteRows.length);
+                for (int count : minuteRows) {
+                    header.writeInt(count);
+                }
+                writeBloomFilter(header, msisdns);
+                writeBloomFilter(header, refIds);
+                header.writeInt(blocks.size());
+                for (Block block : blocks) {
+                    header.writeUTF(block.firstMsisdn);
+                    header.writeUTF(block.lastMsisdn);
+                    header.writeInt(block.rows);
+                    header.writeInt(block.length);
+                }
+                header.close();
+
+                // The header length lets scans find the blocks
+                out.writeInt(MAGIC);
+                out.writeInt(headerBytes.size());
+                headerBytes.writeTo(out);
+                blockBytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Could not create " + target);
+            }
+        }
+
+        private void startBlock() {
+            msisdnColumn = new ColumnWriter();
+            timeColumn = new ColumnWriter();
+            seqColumn = new ColumnWriter();
+            refIdColumn = new ColumnWriter();
+            moduleColumn = new ColumnWriter();
+            serviceColumn = new ColumnWriter();
+            cellColumn = new ColumnWriter();
+            blockRows = 0;
+            lastTime = 0;
+            lastSeq = 0;
+        }
+
+        private void finishRun() {
+            msisdnColumn.writeString(runMsisdn);
+            msisdnColumn.writeVarLong(runLength);
+            runLength = 0;
+        }
+
+        /*
+         * Compresses the columns of the block, a run of an msisdn going on
+         * in the next block is continued there.
+         */
+        private void finishBlock() throws IOException {
+            if (blockRows == 0) {
+                return;
+            }
+            if (runLength > 0) {
+                finishRun();
+            }
+            int start = blockBytes.size();
+            DataOutputStream out = new DataOutputStream(blockBytes);
+            msisdnColumn.writeTo(out);
+            timeColumn.writeTo(out);
+            seqColumn.writeTo(out);
+            refIdColumn.writeTo(out);
+            moduleColumn.writeTo(out);
+            serviceColumn.writeTo(out);
+            cellColumn.writeTo(out);
+            out.flush();
+            blocks.add(new Block(blockFirstMsisdn, lastMsisdn, blockRows,
+                    start, blockBytes.size() - start));
+            startBlock();
+        }
+    }
+
+    /*
+     * Position and msisdn range of a block of rows.
+     */
+    private static final class Block {
+
+        private final String firstMsisdn;
+        private final String lastMsisdn;
+        private final int rows;
+        private final long offset;
+        private final int length;
+
+        Block(final String firstMsisdn, final String lastMsisdn,
+                final int rows, final long offset, final int length) {
+            this.firstMsisdn = firstMsisdn;
+            this.lastMsisdn = lastMsisdn;
+            this.rows = rows;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /*
+     * Values of one column of a block, encoded in memory and compressed when
+     * written. Dictionary coded columns keep their dictionary separately and
+     * write it in front of the codes; code 0 stands for null.
+     */
+    private static final class ColumnWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private Map<String, Integer> dictionary;
+        private List<String> values;
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        void writeZigZag(final long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(final String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            bytes.write(utf8, 0, utf8.length);
+        }
+
+        /*
+         * The length plus one, 0 for null, and the UTF-8 bytes.
+         */
+        void writeNullableString(final String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            bytes.write(utf8, 0, utf8.length);
+        }
+
+        void writeCoded(final String value) {
+            if (dictionary == null) {
+                dictionary = new HashMap<String, Integer>();
+                values = new ArrayList<String>();
+            }
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                values.add(value);
+                code = values.size();
+                dictionary.put(value, code);
+            }
+            writeVarLong(code);
+        }
+
+        void writeTo(final DataOutputStream out) throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            OutputStream deflater = new DeflaterOutputStream(compressed);
+            if (dictionary != null) {
+                ColumnWriter header = new ColumnWriter();
+                header.writeVarLong(values.size());
+                for (String value : values) {
+                    header.writeString(value);
+                }
+                header.bytes.writeTo(deflater);
+            }
+            bytes.writeTo(deflater);
+            deflater.close();
+            out.writeInt(compressed.size());
+            compressed.writeTo(out);
+        }
+    }
+
+    private static final class ColumnReader {
+
+        private final InputStream in;
+
+        ColumnReader(final byte[] compressed) {
+            in = new BufferedInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(compressed)));
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Truncated archive column");
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readCode() throws IOException {
+            return (int) readVarLong();
+        }
+
+        String readString() throws IOException {
+            byte[] utf8 = new byte[(int) readVarLong()];
+            new DataInputStream(in).readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        String readNullableString() throws IOException {
+            int length = (int) readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            byte[] utf8 = new byte[length - 1];
+            new DataInputStream(in).readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        /*
+         * @return The dictionary with null at index 0, so that it can be
+         * indexed by the codes directly.
+         */
+        String[] readDictionary() throws IOException {
+            String[] dictionary = new String[(int) readVarLong() + 1];
+            for (int i = 1; i < dictionary.length; i++) {
+                dictionary[i] = readString();
+            }
+            return dictionary;
+        }
+    }
+}
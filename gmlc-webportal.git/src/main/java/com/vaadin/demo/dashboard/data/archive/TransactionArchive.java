@@ -0,0 +1,523 @@
+package com.vaadin.demo.dashboard.data.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.DayRange;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+
+/**
+ * Cold tier of <code>transaction_tab</code>. Closed days older than the
+ * archive age are copied, oldest first, from the database into one
+ * {@link ArchiveFile} per day.
+ * <p>
+ * Several nodes may share the database, so only the node holding the lease
+ * row archives; the others pick up its files by rescanning the directory,
+ * which therefore has to be shared by all nodes:
+ *
+ * <pre>
+ * CREATE TABLE archive_lease (
+ *     id INT PRIMARY KEY,
+ *     node VARCHAR(64),
+ *     expires TIMESTAMP)
+ * </pre>
+ *
+ * The archived rows are only removed from the database when that is
+ * enabled, and then one run after their day was archived, once every node
+ * had the time to see the file.
+ * <p>
+ * All days before the horizon (the day after the newest archived day) are
+ * served from the archive, all later days from the database, so queries
+ * split their range at the horizon and merge both parts. Rows arriving late
+ * for days already archived stay in the database and are not visible.
+ */
+public class TransactionArchive {
+
+    private static final String FILE_PREFIX = "transactions-";
+    private static final String FILE_SUFFIX = ".tca";
+
+    /*
+     * Ordered by the bytes of msisdn, the order of Java strings the writer
+     * and the scans rely on, whatever the collation of the column
+     */
+    private static final String DAY_ROWS = "SELECT " + TransactionRow.COLUMNS
+            + " FROM %s WHERE date_time >= ? AND date_time < ?"
+            + " ORDER BY CAST(msisdn AS BINARY), date_time, seq_id";
+    private static final int FETCH_SIZE = 5000;
+
+    private static final String RENEW_LEASE = "UPDATE archive_lease"
+            + " SET node = ?, expires = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP)"
+            + " WHERE id = 1 AND (node = ? OR expires < CURRENT_TIMESTAMP)";
+    private static final String INSERT_LEASE = "INSERT INTO archive_lease"
+            + " (id, node, expires)"
+            + " SELECT 1, ?, TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP)"
+            + " FROM archive_lease WHERE id = 1 HAVING COUNT(*) = 0";
+    private static final String RELEASE_LEASE = "UPDATE archive_lease"
+            + " SET expires = CURRENT_TIMESTAMP WHERE id = 1 AND node = ?";
+    /* Outlives a run by far, so only a node that is gone loses it */
+    private static final int LEASE_SECONDS = 2 * 60 * 60;
+    private static final long RESCAN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File directory;
+    private final JDBCConnectionPool connectionPool;
+    private final PartitionManager partitions;
+    private final String node;
+    private final ZoneId zone = DayRange.getZone();
+
+    private int archiveAfterDays = 30;
+    private boolean deleteArchived;
+
+    private final NavigableSet<LocalDate> days = new ConcurrentSkipListSet<LocalDate>();
+    private volatile long lastScan;
+
+    /* Archived by this node, their rows are removed on the next run */
+    private final NavigableSet<LocalDate> pending = new TreeSet<LocalDate>();
+
+    /* Headers hold the Bloom filters, so only recently used ones are kept */
+    private final Cache<LocalDate, ArchiveFile> headers = CacheBuilder
+            .newBuilder().maximumSize(64).build();
+
+    private ScheduledExecutorService scheduler;
+
+    public TransactionArchive(final File directory,
+            final JDBCConnectionPool connectionPool,
+            final PartitionManager partitions, final String node) {
+        this.directory = directory;
+        this.connectionPool = connectionPool;
+        this.partitions = partitions;
+        this.node = node;
+        directory.mkdirs();
+        rescan();
+    }
+
+    /**
+     * @param archiveAfterDays
+     *            Age in days after which a day is moved to the archive.
+     */
+    public void setArchiveAfterDays(final int archiveAfterDays) {
+        this.archiveAfterDays = archiveAfterDays;
+    }
+
+    public int getArchiveAfterDays() {
+        return archiveAfterDays;
+    }
+
+    /**
+     * @param deleteArchived
+     *            true to remove archived rows from the database, only safe
+     *            when every node reads the same archive directory. Off by
+     *            default.
+     */
+    public void setDeleteArchived(final boolean deleteArchived) {
+        this.deleteArchived = deleteArchived;
+    }
+
+    /**
+     * Archives due days now and then every hour on a background thread.
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "transaction-archive");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    archive();
+                }
+            }, 0, 1, TimeUnit.HOURS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            try {
+                releaseLease();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The first day served from the database, null if nothing is
+     *         archived.
+     */
+    public LocalDate getHorizon() {
+        rescanIfDue();
+        return days.isEmpty() ? null : days.last().plusDays(1);
+    }
+
+    /**
+     * @return The part of the range served from the database, null if the
+     *         whole range is archived.
+     */
+    public DayRange live(final DayRange range) {
+        LocalDate horizon = getHorizon();
+        if (horizon == null || !horizon.isAfter(range.getFirstDay())) {
+            return range;
+        } else if (!horizon.isBefore(range.getEndDay())) {
+            return null;
+        }
+        return DayRange.between(horizon, range.getEndDay());
+    }
+
+    /**
+     * @return The range of all archived days, null if nothing is archived.
+     */
+    public DayRange all() {
+        LocalDate horizon = getHorizon();
+        return horizon == null ? null : DayRange.between(days.first(),
+                horizon);
+    }
+
+    /**
+     * @return Headers of the archived days of the range, in day order. Their
+     *         counts answer aggregate queries without a scan.
+     */
+    public List<ArchiveFile> files(final DayRange range) {
+        rescanIfDue();
+        List<ArchiveFile> result = new ArrayList<ArchiveFile>();
+        for (LocalDate day : days.subSet(range.getFirstDay(), true,
+                range.getEndDay(), false)) {
+            try {
+                result.add(header(day));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the archived rows of the range that match the given column
+     * values, null matching any value. Days whose header rules out the
+     * msisdn or ref_id are not read.
+     *
+     * @return Matching rows, in day order and within a day by msisdn and
+     *         date_time.
+     */
+    public List<TransactionRow> scan(final DayRange range,
+            final String msisdn, final String serviceId, final String refId) {
+        rescanIfDue();
+        List<TransactionRow> result = new ArrayList<TransactionRow>();
+        long from = range.getStart().getTime();
+        long to = range.getEnd().getTime();
+        for (LocalDate day : days.subSet(range.getFirstDay(), true,
+                range.getEndDay(), false)) {
+            try {
+                result.addAll(header(day).scan(from, to, msisdn, serviceId,
+                        refId));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Archives all days older than the archive age that are still in the
+     * database, oldest first, if this node holds the lease. A day that fails
+     * stops the run, as the days after it can only be archived once it is;
+     * the next run tries again.
+     */
+    public synchronized void archive() {
+        LocalDate cutoff = LocalDate.now(zone).minusDays(archiveAfterDays);
+        try {
+            if (!holdLease()) {
+                return;
+            }
+            rescan();
+            try {
+                removePending();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            LocalDate oldest = oldestLiveDay();
+            if (oldest == null) {
+                return;
+            }
+            LocalDate horizon = getHorizon();
+            LocalDate day = horizon != null && horizon.isAfter(oldest) ? horizon
+                    : oldest;
+            for (; day.isBefore(cutoff); day = day.plusDays(1)) {
+                if (!holdLease()) {
+                    return;
+                }
+                try {
+                    archiveDay(day);
+                } catch (RuntimeException e) {
+                    // Would end the scheduled runs if it escaped
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void archiveDay(final LocalDate day) throws SQLException,
+            IOException {
+        DayRange range = DayRange.between(day, day.plusDays(1));
+        ArchiveFile.Writer writer;
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            writer = new ArchiveFile.Writer(range.getStart().getTime(), range
+                    .getEnd().getTime(), countRows(connection, range));
+            PreparedStatement statement = connection.prepareStatement(
+                    String.format(DAY_ROWS, partitions.source(range)),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                statement.setFetchSize(FETCH_SIZE);
+                statement.setTimestamp(1, new Timestamp(range.getStart()
+                        .getTime()));
+                statement.setTimestamp(2, new Timestamp(range.getEnd()
+                        .getTime()));
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    writer.add(new TransactionRow(rs.getString(1), rs
+                            .getInt(2), rs.getString(3), rs.getTimestamp(4)
+                            .getTime(), rs.getString(5), rs.getString(6), rs
+                            .getString(7)));
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+        writer.writeTo(fileOf(day));
+        days.add(day);
+        if (deleteArchived) {
+            pending.add(day);
+        }
+    }
+
+    /*
+     * Removes the rows of the days archived by an earlier run, which the
+     * other nodes serve from the files by now.
+     */
+    private void removePending() throws SQLException {
+        if (!deleteArchived) {
+            pending.clear();
+            return;
+        }
+        while (!pending.isEmpty()) {
+            LocalDate day = pending.first();
+            DayRange range = DayRange.between(day, day.plusDays(1));
+            if (!partitions.dropDay(range, archivedRun(day))) {
+                deleteDay(range);
+            }
+            pending.remove(day);
+        }
+    }
+
+    /*
+     * The archived days without a gap up to the given one.
+     */
+    private DayRange archivedRun(final LocalDate day) {
+        LocalDate first = day;
+        while (days.contains(first.minusDays(1))) {
+            first = first.minusDays(1);
+        }
+        return DayRange.between(first, day.plusDays(1));
+    }
+
+    private int countRows(final Connection connection, final DayRange range)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM "
+                + partitions.source(range)
+                + " WHERE date_time >= ? AND date_time < ?");
+        try {
+            statement.setTimestamp(1, new Timestamp(range.getStart().getTime()));
+            statement.setTimestamp(2, new Timestamp(range.getEnd().getTime()));
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void deleteDay(final DayRange range) throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            for (String table : partitions.tables(range)) {
+                PreparedStatement statement = connection.prepareStatement("DELETE FROM "
+                        + table + " WHERE date_time >= ? AND date_time < ?");
+                try {
+                    statement.setTimestamp(1, new Timestamp(range.getStart()
+                            .getTime()));
+                    statement.setTimestamp(2, new Timestamp(range.getEnd()
+                            .getTime()));
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Takes the lease if it is free or expired, or extends it if this node
+     * holds it.
+     */
+    private boolean holdLease() throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            boolean held = updateLease(connection, RENEW_LEASE, true)
+                    || updateLease(connection, INSERT_LEASE, false);
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            return held;
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    private boolean updateLease(final Connection connection,
+            final String sql, final boolean renew) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            statement.setString(1, node);
+            statement.setInt(2, LEASE_SECONDS);
+            if (renew) {
+                statement.setString(3, node);
+            }
+            return statement.executeUpdate() > 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void releaseLease() throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection
+                    .prepareStatement(RELEASE_LEASE);
+            try {
+                statement.setString(1, node);
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Picks up the days archived by the node holding the lease.
+     */
+    private void rescanIfDue() {
+        if (System.currentTimeMillis() - lastScan > RESCAN_MILLIS) {
+            rescan();
+        }
+    }
+
+    private void rescan() {
+        lastScan = System.currentTimeMillis();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                LocalDate day = parseDay(file.getName());
+                if (day != null) {
+                    days.add(day);
+                }
+            }
+        }
+    }
+
+    private LocalDate oldestLiveDay() throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement
+                        .executeQuery("SELECT MIN(date_time) FROM "
+                                + partitions.source());
+                Timestamp oldest = rs.next() ? rs.getTimestamp(1) : null;
+                return oldest == null ? null : oldest.toInstant().atZone(zone)
+                        .toLocalDate();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    private ArchiveFile header(final LocalDate day) throws IOException {
+        try {
+            return headers.get(day, new Callable<ArchiveFile>() {
+                @Override
+                public ArchiveFile call() throws IOException {
+                    return ArchiveFile.open(fileOf(day));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private File fileOf(final LocalDate day) {
+        return new File(directory, FILE_PREFIX + day + FILE_SUFFIX);
+    }
+
+    private static LocalDate parseDay(final String name) {
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.vaadin.demo.dashboard.data.auth;
+
+/**
+ * Limits password verifications per user name within a fixed time window.
+ * <p>
+ * Counters are kept in a fixed number of stripes that user names are hashed
+ * to, so memory stays constant no matter how many distinct names are tried,
+ * and names sharing a stripe share its limit.
+ */
+public final class LoginThrottle {
+
+    private final Stripe[] stripes;
+    private final int maxAttempts;
+    private final long windowMillis;
+
+    /**
+     * @param stripes
+     *            Number of counters, rounded up to a power of two.
+     * @param maxAttempts
+     *            Verifications allowed per stripe and window.
+     * @param windowMillis
+     *            Length of the window.
+     */
+    public LoginThrottle(final int stripes, final int maxAttempts,
+            final long windowMillis) {
+        this.stripes = new Stripe[Integer.highestOneBit(Math.max(1,
+                stripes - 1)) << 1];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.maxAttempts = maxAttempts;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Counts an attempt for the user name.
+     *
+     * @return false if the limit of the name's stripe is reached, the attempt
+     *         must then be rejected without verifying the password.
+     */
+    public boolean tryAcquire(final String userName) {
+        int h = userName.hashCode();
+        Stripe stripe = stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+        long now = System.currentTimeMillis();
+        synchronized (stripe) {
+            if (now - stripe.windowStart >= windowMillis) {
+                stripe.windowStart = now;
+                stripe.attempts = 0;
+            }
+            if (stripe.attempts >= maxAttempts) {
+                return false;
+            }
+            stripe.attempts++;
+            return true;
+        }
+    }
+
+    private static final class Stripe {
+        private long windowStart;
+        private int attempts;
+    }
+}
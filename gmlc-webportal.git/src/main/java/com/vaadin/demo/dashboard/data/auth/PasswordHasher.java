@@ -0,0 +1,78 @@
+package com.vaadin.demo.dashboard.data.auth;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Slow salted password hashes (PBKDF2 with HMAC-SHA256), stored as
+ * <code>pbkdf2$iterations$salt$hash</code> with Base64 salt and hash. The
+ * iteration count is part of the stored hash, so raising it only affects
+ * passwords set afterwards.
+ */
+public final class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    /**
+     * @param iterations
+     *            Iterations of new hashes. Each verification costs about
+     *            that many HMAC computations.
+     */
+    public PasswordHasher(final int iterations) {
+        this.iterations = iterations;
+    }
+
+    public String hash(final String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt)
+                + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * @return true if the password matches the stored hash. Malformed hashes
+     *         match no password.
+     */
+    public boolean verify(final String password, final String stored) {
+        String[] parts = stored == null ? new String[0] : stored.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return false;
+        }
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[3]);
+            return MessageDigest.isEqual(expected, derive(password,
+                    base64.decode(parts[2]), Integer.parseInt(parts[1])));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] derive(final String password, final byte[] salt,
+            final int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt,
+                iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec)
+                    .getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
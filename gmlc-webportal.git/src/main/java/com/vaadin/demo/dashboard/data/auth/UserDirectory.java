@@ -0,0 +1,267 @@
+package com.vaadin.demo.dashboard.data.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.domain.User;
+
+/**
+ * Portal users stored in the <code>app_user</code> table:
+ *
+ * <pre>
+ * CREATE TABLE app_user (user_name VARCHAR(64) PRIMARY KEY,
+ *     password_hash VARCHAR(128) NOT NULL, first_name VARCHAR(64),
+ *     last_name VARCHAR(64), role VARCHAR(32), email VARCHAR(128),
+ *     location VARCHAR(64), bio VARCHAR(1024))
+ * </pre>
+ *
+ * Passwords are verified against slow {@link PasswordHasher} hashes. A
+ * successful login is remembered for a while with a fast salted digest of
+ * the password, so that reconnects and further tabs of the same user don't
+ * pay for the slow hash again.
+ * <p>
+ * Slow verifications are rate limited per user name by a
+ * {@link LoginThrottle} and run on at most one thread per processor, so that
+ * a login storm (e.g. after a failover) queues up instead of saturating the
+ * CPU.
+ */
+public class UserDirectory {
+
+    private static final String SELECT = "SELECT password_hash, first_name, last_name, role, email, location, bio"
+            + " FROM app_user WHERE user_name = ?";
+    private static final String UPDATE = "UPDATE app_user SET password_hash = ? WHERE user_name = ?";
+    private static final String INSERT = "INSERT INTO app_user (user_name, password_hash,"
+            + " first_name, last_name, role, email, location, bio)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final long VERIFY_TIMEOUT = 2000;
+
+    private final JDBCConnectionPool connectionPool;
+    private final PasswordHasher hasher;
+
+    /* Verified against when the user doesn't exist, to hide that fact */
+    private final String unknownUserHash;
+
+    private LoginThrottle throttle = new LoginThrottle(1024, 10, 60000);
+    private final Semaphore verifications = new Semaphore(Runtime
+            .getRuntime().availableProcessors());
+
+    private final byte[] cacheSalt = new byte[16];
+    private final Cache<String, Verified> verified;
+
+    /**
+     * @param iterations
+     *            Iterations of new password hashes.
+     * @param cacheMinutes
+     *            How long a successful login is remembered. Password changes
+     *            made outside of this directory take effect after that.
+     */
+    public UserDirectory(final JDBCConnectionPool connectionPool,
+            final int iterations, final int cacheMinutes) {
+        this.connectionPool = connectionPool;
+        hasher = new PasswordHasher(iterations);
+        unknownUserHash = hasher.hash("");
+        new SecureRandom().nextBytes(cacheSalt);
+        verified = CacheBuilder.newBuilder().maximumSize(10000)
+                .expireAfterWrite(cacheMinutes, TimeUnit.MINUTES).build();
+    }
+
+    public void setThrottle(final LoginThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return The user, or null if the user name or the password is wrong or
+     *         the login was rejected by the rate limit.
+     */
+    public User authenticate(final String userName, final String password) {
+        if (userName == null || password == null) {
+            return null;
+        }
+        String name = userName.trim().toLowerCase(Locale.ROOT);
+        byte[] digest = digest(password);
+
+        Verified known = verified.getIfPresent(name);
+        if (known != null && MessageDigest.isEqual(known.digest, digest)) {
+            return known.toUser();
+        }
+
+        if (!throttle.tryAcquire(name)) {
+            return null;
+        }
+        try {
+            if (!verifications.tryAcquire(VERIFY_TIMEOUT,
+                    TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            String[] row = load(name);
+            if (row == null) {
+                hasher.verify(password, unknownUserHash);
+                return null;
+            } else if (!hasher.verify(password, row[0])) {
+                return null;
+            }
+            Verified user = new Verified(digest, row);
+            verified.put(name, user);
+            return user.toUser();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            verifications.release();
+        }
+    }
+
+    /**
+     * Adds a user.
+     */
+    public void addUser(final String userName, final String password,
+            final User user) throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            try {
+                statement.setString(1, userName.trim().toLowerCase(Locale.ROOT));
+                statement.setString(2, hasher.hash(password));
+                statement.setString(3, user.getFirstName());
+                statement.setString(4, user.getLastName());
+                statement.setString(5, user.getRole());
+                statement.setString(6, user.getEmail());
+                statement.setString(7, user.getLocation());
+                statement.setString(8, user.getBio());
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+            commit(connection);
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Changes the password of a user and forgets its remembered login.
+     *
+     * @return false if the user doesn't exist.
+     */
+    public boolean setPassword(final String userName, final String password)
+            throws SQLException {
+        String name = userName.trim().toLowerCase(Locale.ROOT);
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(UPDATE);
+            try {
+                statement.setString(1, hasher.hash(password));
+                statement.setString(2, name);
+                int rows = statement.executeUpdate();
+                commit(connection);
+                return rows > 0;
+            } finally {
+                statement.close();
+            }
+        } finally {
+            verified.invalidate(name);
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Prepares the statement of a login on the connection, so that it is
+     * planned before the first user logs in.
+     */
+    public void prepareStatements(final Connection connection)
+            throws SQLException {
+        connection.prepareStatement(SELECT).close();
+    }
+
+    /**
+     * @return The password hash and profile columns, null if there is no
+     *         such user.
+     */
+    private String[] load(final String name) throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(SELECT);
+            try {
+                statement.setString(1, name);
+                ResultSet rs = statement.executeQuery();
+                if (!rs.next()) {
+                    return null;
+                }
+                String[] row = new String[7];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getString(i + 1);
+                }
+                return row;
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Fast digest of the password, only ever compared with digests made with
+     * the same random salt by this instance.
+     */
+    private byte[] digest(final String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(cacheSalt);
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void commit(final Connection connection)
+            throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /*
+     * A remembered login. Sessions get their own User, as the profile window
+     * edits it in place.
+     */
+    private static final class Verified {
+
+        private final byte[] digest;
+        private final String[] row;
+
+        Verified(final byte[] digest, final String[] row) {
+            this.digest = digest;
+            this.row = row;
+        }
+
+        User toUser() {
+            User user = new User();
+            user.setFirstName(row[1]);
+            user.setLastName(row[2]);
+            user.setRole(row[3]);
+            user.setEmail(row[4]);
+            user.setLocation(row[5]);
+            user.setBio(row[6]);
+            return user;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.vaadin.demo.dashboard.data.dictionary;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of domain objects stored column by column in primitive
+ * arrays. Repeating strings are stored as {@link ValueDictionary} codes, and
+ * an object is only created when its element is read, so keeping a large
+ * result costs a few bytes per row instead of an object graph per row.
+ * <p>
+ * Elements are decoded anew on every read, so changes to them are not kept.
+ */
+public abstract class EncodedList<T> extends AbstractList<T> implements
+        RandomAccess {
+
+    private int size;
+    private int capacity;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Releases the unused capacity once the list is complete.
+     */
+    public void trimToSize() {
+        if (capacity > size) {
+            capacity = size;
+            resize(size);
+        }
+    }
+
+    /**
+     * Makes room for one more row.
+     *
+     * @return The index of the new row.
+     */
+    protected int addRow() {
+        if (size == capacity) {
+            capacity = Math.max(16, capacity * 2);
+            resize(capacity);
+        }
+        modCount++;
+        return size++;
+    }
+
+    protected void rangeCheck(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                    + size);
+        }
+    }
+
+    /**
+     * Resizes all column arrays to the given capacity.
+     */
+    protected abstract void resize(int capacity);
+}
@@ -0,0 +1,55 @@
+package com.vaadin.demo.dashboard.data.dictionary;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import com.vaadin.demo.dashboard.domain.Location;
+
+/**
+ * {@link Location} results stored by column.
+ */
+public final class EncodedLocationList extends EncodedList<Location> {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private int[] ids = new int[0];
+    private long[] times = new long[0];
+    /* One value per subscriber, too many distinct ones to encode */
+    private String[] msisdns = new String[0];
+    private final StringColumn serviceIds = new StringColumn(
+            ValueDictionary.SERVICE_ID);
+    private final StringColumn cellIds = new StringColumn(
+            ValueDictionary.CELL_ID);
+
+    public void add(final int id, final Date dateTime, final String msisdn,
+            final String serviceId, final String cellId) {
+        int row = addRow();
+        ids[row] = id;
+        times[row] = dateTime == null ? NO_TIME : dateTime.getTime();
+        msisdns[row] = msisdn;
+        serviceIds.set(row, serviceId);
+        cellIds.set(row, cellId);
+    }
+
+    @Override
+    public Location get(final int index) {
+        rangeCheck(index);
+        Location location = new Location();
+        location.setId(ids[index]);
+        location.setDateTime(times[index] == NO_TIME ? null : new Date(
+                times[index]));
+        location.setMsisdn(msisdns[index]);
+        location.setServiceId(serviceIds.get(index));
+        location.setCellId(cellIds.get(index));
+        return location;
+    }
+
+    @Override
+    protected void resize(final int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        times = Arrays.copyOf(times, capacity);
+        msisdns = Arrays.copyOf(msisdns, capacity);
+        serviceIds.resize(capacity);
+        cellIds.resize(capacity);
+    }
+}
@@ -0,0 +1,50 @@
+package com.vaadin.demo.dashboard.data.dictionary;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import com.vaadin.demo.dashboard.domain.Service;
+
+/**
+ * {@link Service} results stored by column.
+ */
+public final class EncodedServiceList extends EncodedList<Service> {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private int[] ids = new int[0];
+    private long[] times = new long[0];
+    /* One value per subscriber, too many distinct ones to encode */
+    private String[] msisdns = new String[0];
+    private final StringColumn cellIds = new StringColumn(
+            ValueDictionary.CELL_ID);
+
+    public void add(final int id, final Date dateTime, final String msisdn,
+            final String cellId) {
+        int row = addRow();
+        ids[row] = id;
+        times[row] = dateTime == null ? NO_TIME : dateTime.getTime();
+        msisdns[row] = msisdn;
+        cellIds.set(row, cellId);
+    }
+
+    @Override
+    public Service get(final int index) {
+        rangeCheck(index);
+        Service service = new Service();
+        service.setId(ids[index]);
+        service.setDateTime(times[index] == NO_TIME ? null : new Date(
+                times[index]));
+        service.setMsisdn(msisdns[index]);
+        service.setCellId(cellIds.get(index));
+        return service;
+    }
+
+    @Override
+    protected void resize(final int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        times = Arrays.copyOf(times, capacity);
+        msisdns = Arrays.copyOf(msisdns, capacity);
+        cellIds.resize(capacity);
+    }
+}
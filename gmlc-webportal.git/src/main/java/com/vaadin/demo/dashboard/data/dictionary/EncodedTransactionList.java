@@ -0,0 +1,56 @@
+package com.vaadin.demo.dashboard.data.dictionary;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import com.vaadin.demo.dashboard.domain.Transaction;
+
+/**
+ * {@link Transaction} hops stored by column. A ref_id is shared by the few
+ * hops of one request only, so ref_ids are not dictionary encoded, but
+ * adjacent hops of a request share one string.
+ */
+public final class EncodedTransactionList extends EncodedList<Transaction> {
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private int[] ids = new int[0];
+    private int[] sequenceIds = new int[0];
+    private long[] times = new long[0];
+    private String[] refIds = new String[0];
+    private final StringColumn moduleNames = new StringColumn(
+            ValueDictionary.MODULE_NAME);
+
+    public void add(final int id, final String refId, final String moduleName,
+            final Date dateTime, final int sequenceId) {
+        int row = addRow();
+        ids[row] = id;
+        sequenceIds[row] = sequenceId;
+        times[row] = dateTime == null ? NO_TIME : dateTime.getTime();
+        refIds[row] = row > 0 && refId != null
+                && refId.equals(refIds[row - 1]) ? refIds[row - 1] : refId;
+        moduleNames.set(row, moduleName);
+    }
+
+    @Override
+    public Transaction get(final int index) {
+        rangeCheck(index);
+        Transaction transaction = new Transaction();
+        transaction.setId(ids[index]);
+        transaction.setRefId(refIds[index]);
+        transaction.setModuleName(moduleNames.get(index));
+        transaction.setDateTime(times[index] == NO_TIME ? null : new Date(
+                times[index]));
+        transaction.setSequenceId(sequenceIds[index]);
+        return transaction;
+    }
+
+    @Override
+    protected void resize(final int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        sequenceIds = Arrays.copyOf(sequenceIds, capacity);
+        times = Arrays.copyOf(times, capacity);
+        refIds = Arrays.copyOf(refIds, capacity);
+        moduleNames.resize(capacity);
+    }
+}
@@ -0,0 +1,42 @@
+package com.vaadin.demo.dashboard.data.dictionary;
+
+import java.util.Arrays;
+
+/**
+ * A column of strings stored as dictionary codes. Values the dictionary
+ * could not take are kept by row, in an array created for the first one.
+ */
+public final class StringColumn {
+
+    private final ValueDictionary dictionary;
+    private int[] codes = new int[0];
+    private String[] unencoded;
+
+    public StringColumn(final ValueDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public void set(final int row, final String value) {
+        int code = dictionary.encode(value);
+        if (code == ValueDictionary.NOT_ENCODED) {
+            if (unencoded == null) {
+                unencoded = new String[codes.length];
+            }
+            unencoded[row] = value;
+        }
+        codes[row] = code;
+    }
+
+    public String get(final int row) {
+        int code = codes[row];
+        return code == ValueDictionary.NOT_ENCODED ? unencoded[row]
+                : dictionary.decode(code);
+    }
+
+    void resize(final int capacity) {
+        codes = Arrays.copyOf(codes, capacity);
+        if (unencoded != null) {
+            unencoded = Arrays.copyOf(unencoded, capacity);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.vaadin.demo.dashboard.data.dictionary;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.vaadin.demo.dashboard.data.SessionFootprint;
+
+/**
+ * Maps the values of a heavily repeating column to int codes, shared by all
+ * sessions. Code 0 stands for null, codes are never reused or removed.
+ * <p>
+ * A dictionary stops taking new values when it is full, so that a column
+ * with more distinct values than expected cannot exhaust the heap. Values it
+ * can't take are kept as strings by the {@link StringColumn}s. Columns with
+ * a value per subscriber, like msisdn, are not encoded at all, as their
+ * dictionary would only grow.
+ */
+public final class ValueDictionary {
+
+    /** Returned by {@link #encode(String)} if the dictionary is full. */
+    public static final int NOT_ENCODED = -1;
+
+    public static final ValueDictionary CELL_ID = new ValueDictionary(
+            "cellId", 1 << 20);
+    public static final ValueDictionary SERVICE_ID = new ValueDictionary(
+            "serviceId", 1 << 16);
+    public static final ValueDictionary MODULE_NAME = new ValueDictionary(
+            "moduleName", 1 << 10);
+
+    private final int maxSize;
+    private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+
+    /*
+     * Values by code. A value is stored before its code is published in the
+     * map, so a reader that got the code sees the value.
+     */
+    private volatile String[] values = new String[64];
+    private int size = 1;
+
+    private ValueDictionary(final String name, final int maxSize) {
+        this.maxSize = maxSize;
+        SessionFootprint.registerShared("dictionary." + name, this);
+    }
+
+    /**
+     * @return The code of the value, {@link #NOT_ENCODED} if the value is new
+     *         and the dictionary is full.
+     */
+    public int encode(final String value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            } else if (size == maxSize) {
+                return NOT_ENCODED;
+            }
+            String[] v = values;
+            if (size == v.length) {
+                v = Arrays.copyOf(v, Math.min(maxSize, size * 2));
+            }
+            v[size] = value;
+            values = v;
+            codes.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return The value of a code returned by {@link #encode(String)}.
+     */
+    public String decode(final int code) {
+        return code == 0 ? null : values[code];
+    }
+
+    /**
+     * @return The shared instance equal to the value, or the value itself if
+     *         the dictionary is full.
+     */
+    public String canonical(final String value) {
+        int code = encode(value);
+        return code == NOT_ENCODED ? value : decode(code);
+    }
+
+    /**
+     * @return Number of values, including null.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,64 @@
+package com.vaadin.demo.dashboard.data.dummy;
+
+import java.io.File;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Warms up the {@link DummyDataProvider} when the portal is deployed, so that
+ * the first user doesn't pay for loading the reference data, opening
+ * connections and the first statistics queries.
+ * <p>
+ * The deployment waits for the warm-up at most
+ * <code>dashboard.warmupMillis</code> (5000 by default, 0 disables the
+ * warm-up). A warm-up taking longer goes on in the background while the
+ * portal already serves requests. When the portal is undeployed the shared
+ * services are stopped.
+ */
+@WebListener
+public class DataWarmupListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(final ServletContextEvent sce) {
+        final ServletContext context = sce.getServletContext();
+        long budget = Long.getLong("dashboard.warmupMillis", 5000);
+        if (budget <= 0) {
+            return;
+        }
+        String realPath = context.getRealPath("/");
+        final File baseDirectory = realPath == null ? null : new File(
+                realPath);
+        final long start = System.currentTimeMillis();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DummyDataProvider.warmUp(baseDirectory);
+                    context.log("Data warm-up took "
+                            + (System.currentTimeMillis() - start) + " ms");
+                } catch (RuntimeException e) {
+                    context.log("Data warm-up failed", e);
+                }
+            }
+        }, "data-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(budget);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            context.log("Data warm-up exceeded " + budget
+                    + " ms, continuing in the background");
+        }
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent sce) {
+        DummyDataProvider.shutdown();
+    }
+}
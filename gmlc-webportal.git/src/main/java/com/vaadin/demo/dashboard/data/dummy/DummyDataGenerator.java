@@ -1,11 +1,7 @@
 package com.vaadin.demo.dashboard.data.dummy;
 
-import java.util.Arrays;
-import java.util.Collection;
-
 import com.vaadin.addon.charts.model.style.Color;
 import com.vaadin.addon.charts.model.style.SolidColor;
-import com.vaadin.demo.dashboard.domain.DashboardNotification;
 
 public abstract class DummyDataGenerator {
 
@@ -123,26 +119,6 @@ public abstract class DummyDataGenerator {
         return sb.toString();
     }
 
-    static Collection<DashboardNotification> randomNotifications() {
-        DashboardNotification n1 = new DashboardNotification();
-        n1.setId(1);
-        n1.setFirstName(randomFirstName());
-        n1.setLastName(randomLastName());
-        n1.setAction("created a new report");
-        n1.setPrettyTime("25 minutes ago");
-        n1.setContent(randomText(18));
-
-        DashboardNotification n2 = new DashboardNotification();
-        n2.setId(2);
-        n2.setFirstName(randomFirstName());
-        n2.setLastName(randomLastName());
-        n2.setAction("changed the schedule");
-        n2.setPrettyTime("2 days ago");
-        n2.setContent(randomText(10));
-
-        return Arrays.asList(n1, n2);
-    }
-
     public static int[] randomSparklineValues(int howMany, int min, int max) {
         int[] values = new int[howMany];
 
@@ -1,48 +1,86 @@
 package com.vaadin.demo.dashboard.data.dummy;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.vaadin.data.Property;
-import com.vaadin.data.util.filter.Between;
-import com.vaadin.data.util.filter.Compare.Equal;
-import com.vaadin.data.util.sqlcontainer.SQLContainer;
 import com.vaadin.data.util.sqlcontainer.connection.J2EEConnectionPool;
 import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import com.vaadin.data.util.sqlcontainer.query.FreeformQuery;
-import com.vaadin.data.util.sqlcontainer.query.OrderBy;
-import com.vaadin.data.util.sqlcontainer.query.TableQuery;
 import com.vaadin.demo.dashboard.data.DataProvider;
+import com.vaadin.demo.dashboard.data.DayRange;
+import com.vaadin.demo.dashboard.data.LocationTrail;
+import com.vaadin.demo.dashboard.data.SessionFootprint;
+import com.vaadin.demo.dashboard.data.StatisticsCache;
+import com.vaadin.demo.dashboard.data.TimeSeries;
+import com.vaadin.demo.dashboard.data.TopRanking;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.admission.QueryAdmission;
+import com.vaadin.demo.dashboard.data.admission.QueryGuard;
+import com.vaadin.demo.dashboard.data.alert.AlertRule;
+import com.vaadin.demo.dashboard.data.alert.FailureRateAlertEngine;
+import com.vaadin.demo.dashboard.data.archive.ArchiveFile;
+import com.vaadin.demo.dashboard.data.auth.UserDirectory;
+import com.vaadin.demo.dashboard.data.archive.TransactionArchive;
+import com.vaadin.demo.dashboard.data.dictionary.EncodedList;
+import com.vaadin.demo.dashboard.data.dictionary.EncodedLocationList;
+import com.vaadin.demo.dashboard.data.dictionary.EncodedServiceList;
+import com.vaadin.demo.dashboard.data.dictionary.EncodedTransactionList;
+import com.vaadin.demo.dashboard.data.geo.CellSiteDirectory;
+import com.vaadin.demo.dashboard.data.geo.GeoBounds;
+import com.vaadin.demo.dashboard.data.geo.HeatmapTile;
+import com.vaadin.demo.dashboard.data.geo.HeatmapTileAggregator;
+import com.vaadin.demo.dashboard.data.geo.TimeBucket;
+import com.vaadin.demo.dashboard.data.index.DayBloomIndex;
+import com.vaadin.demo.dashboard.data.ingest.TransactionIngestService;
+import com.vaadin.demo.dashboard.data.ingest.TransactionIngestServlet;
+import com.vaadin.demo.dashboard.data.invalidation.Invalidation;
+import com.vaadin.demo.dashboard.data.invalidation.InvalidationBus;
+import com.vaadin.demo.dashboard.data.invalidation.LateRowInvalidator;
+import com.vaadin.demo.dashboard.data.invalidation.LocalInvalidationBus;
+import com.vaadin.demo.dashboard.data.invalidation.TableInvalidationBus;
+import com.vaadin.demo.dashboard.data.notify.NotificationDispatcher;
+import com.vaadin.demo.dashboard.data.notify.NotificationStore;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+import com.vaadin.demo.dashboard.data.reference.ReferenceCatalog;
+import com.vaadin.demo.dashboard.data.reference.ReferenceData;
+import com.vaadin.demo.dashboard.data.reference.ReferenceDataLoader;
+import com.vaadin.demo.dashboard.data.replica.ReplicaRouter;
 import com.vaadin.demo.dashboard.domain.DashboardNotification;
 import com.vaadin.demo.dashboard.domain.Movie;
 import com.vaadin.demo.dashboard.domain.MovieRevenue;
@@ -51,6 +89,7 @@ import com.vaadin.demo.dashboard.domain.Statistics;
 import com.vaadin.demo.dashboard.domain.Detailed;
 import com.vaadin.demo.dashboard.domain.Service;
 import com.vaadin.demo.dashboard.domain.Location;
+import com.vaadin.demo.dashboard.domain.LocationVisit;
 import com.vaadin.demo.dashboard.domain.User;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.util.CurrentInstance;
@@ -63,177 +102,564 @@ public class DummyDataProvider implements DataProvider {
     // TODO: Get API key from http://developer.rottentomatoes.com
     private static final String ROTTEN_TOMATOES_API_KEY = null;
 
-    /* List of countries and cities for them */
-    private static Multimap<String, String> countryToCities;
+    /* Movies and the cities of each country, replaced as a whole */
+    private static volatile ReferenceCatalog catalog = ReferenceCatalog.EMPTY;
     private static Date lastDataUpdate;
-    private static Collection<Movie> movies;
     private static Multimap<Long, Transaction> transactions;
     private static Multimap<Long, MovieRevenue> revenue;
 
+    /* Total revenue of each movie, rebuilt whenever the movies change */
+    private static volatile TopRanking<MovieRevenue> revenueRanking = TopRanking
+            .empty();
+
     private static Random rand = new Random();
 
-    private final Collection<DashboardNotification> notifications = DummyDataGenerator
-            .randomNotifications();
+    /* Deepest zoom level the heatmap tiles are aggregated for */
+    private static final int HEATMAP_MAX_ZOOM = 16;
+    private static HeatmapTileAggregator heatmap;
+
+    /* Cold tier of transaction_tab, only if dashboard.archiveDir is set */
+    private static TransactionArchive archive;
+
+    /* Users of the portal, with their remembered logins */
+    private static UserDirectory users;
+
+    /* Per-day Bloom filters, only if dashboard.indexDir is set */
+    private static DayBloomIndex index;
+
+    /* Partitions of transaction_tab, maintained on a background thread */
+    private static PartitionManager partitions;
+    private static PartitionManager configuredPartitions;
+
+    /* Rows fetched per round-trip when streaming a location trail */
+    private static final int TRAIL_FETCH_SIZE = 1000;
+
+    /* Notifications of all users, pushed to their sessions */
+    private static NotificationDispatcher notificationDispatcher;
+
+    private static final int NOTIFICATIONS_SHOWN = 20;
+
+    /* Failure rate alerts over the ingested traffic */
+    private static FailureRateAlertEngine alerts;
+
+    /* Ingest service the index and the invalidations listen to */
+    private static TransactionIngestService listenedIngest;
+
+    /* Invalidations of the caches of all portal nodes */
+    private static InvalidationBus invalidations;
+    private static LateRowInvalidator lateRows;
+
+    /* Daily statistics of all sessions */
+    private static StatisticsCache statisticsCache;
+
+    /* Set by a successful login */
+    private String userName;
+
+    /* One JNDI backed pool for all sessions */
+    private static JDBCConnectionPool sharedConnectionPool;
+
+    /* Replicas for the analytics, only if dashboard.replicas is set */
+    private static ReplicaRouter replicas;
 
     private JDBCConnectionPool connectionPool;
+
+    /* Pool of the read-only analytics queries */
+    private JDBCConnectionPool analyticsPool;
+
+    /* Heavy queries of all sessions */
+    private static QueryAdmission admission;
+
+    /* Timeout and cancellation of the queries of this session */
+    private QueryGuard guard;
+
+    /* Connection pool of the queries of this session */
+    private JDBCConnectionPool queryPool;
     
     /**
      * Initialize the data for this application.
      * @throws SQLException 
      */
     public DummyDataProvider() {
-    	connectionPool = new J2EEConnectionPool("java:comp/env/jdbc/tldb");
-    	
-        Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.DAY_OF_YEAR, -1);
-        if (lastDataUpdate == null || lastDataUpdate.before(cal.getTime())) {
-            refreshStaticData();
-            lastDataUpdate = new Date();
+        this(getSharedConnectionPool());
+    }
+
+    private static synchronized JDBCConnectionPool getSharedConnectionPool() {
+        if (sharedConnectionPool == null) {
+            sharedConnectionPool = new J2EEConnectionPool(
+                    "java:comp/env/jdbc/tldb");
         }
+        return sharedConnectionPool;
     }
 
-    private void refreshStaticData() {
-        countryToCities = loadTheaterData();
-        movies = loadMoviesData();
+    /**
+     * Initialize the data for this application on top of the given
+     * connection pool, e.g. an embedded database outside the servlet
+     * container.
+     */
+    public DummyDataProvider(final JDBCConnectionPool connectionPool) {
+        this(connectionPool, null);
     }
 
     /**
-     * Get a list of movies currently playing in theaters.
+     * Initialize the data for this application on top of the given
+     * connection pools.
      *
-     * @return a list of Movie objects
+     * @param analyticsPool
+     *            Pool of the statistics and other read-only analytics, which
+     *            may lag behind the connection pool. If null, the read pool
+     *            of the replicas is used, or the connection pool without
+     *            them.
      */
-    @Override
-    public Collection<Movie> getMovies() {
-        return Collections.unmodifiableCollection(movies);
+    public DummyDataProvider(final JDBCConnectionPool connectionPool,
+            final JDBCConnectionPool analyticsPool) {
+        this.connectionPool = connectionPool;
+        initShared(connectionPool);
+        guard = new QueryGuard(admission, Integer.getInteger(
+                "dashboard.queryTimeoutSeconds", 30));
+        queryPool = guard.wrap(connectionPool);
+        if (analyticsPool != null) {
+            this.analyticsPool = guard.wrap(analyticsPool);
+        } else if (replicas != null) {
+            this.analyticsPool = guard.wrap(replicas.getReadPool());
+        } else {
+            this.analyticsPool = queryPool;
+        }
+
+        if (lastDataUpdate == null
+                || lastDataUpdate.before(Date.from(Instant.now().minus(1,
+                        ChronoUnit.DAYS)))) {
+            refreshStaticData(requestBaseDirectory());
+        }
     }
 
     /**
-     * Initialize the list of movies playing in theaters currently. Uses the
-     * Rotten Tomatoes API to get the list. The result is cached to a local file
-     * for 24h (daily limit of API calls is 10,000).
+     * Prepares the shared data before the first session: loads the reference
+     * data, opens connections of the pool and prepares the statements of a
+     * login on them, and caches the statistics of today and of the last week.
      *
-     * @return
+     * @param baseDirectory
+     *            Base directory of the servlet, or null to load no movies.
      */
-    private static Collection<Movie> loadMoviesData() {
+    public static void warmUp(final File baseDirectory) {
+        refreshStaticData(baseDirectory);
+        DummyDataProvider provider = new DummyDataProvider();
 
-        JsonObject json = null;
-        File cache;
-        VaadinRequest vaadinRequest = CurrentInstance.get(VaadinRequest.class);
+        // Held at the same time, so that the pool has to open them all
+        int count = Integer.getInteger("dashboard.warmupConnections", 4);
+        List<Connection> connections = new ArrayList<Connection>();
+        try {
+            for (int i = 0; i < count; i++) {
+                Connection connection = provider.connectionPool
+                        .reserveConnection();
+                connections.add(connection);
+                users.prepareStatements(connection);
+                notificationDispatcher.getStore().prepareStatements(
+                        connection);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            for (Connection connection : connections) {
+                provider.connectionPool.releaseConnection(connection);
+            }
+        }
 
-        File baseDirectory = vaadinRequest.getService().getBaseDirectory();
-        cache = new File(baseDirectory + "/movies.txt");
+        Date now = new Date();
+        provider.getStatistics(now, now);
+        provider.getStatistics(Date.from(now.toInstant().minus(7,
+                ChronoUnit.DAYS)), now);
+    }
 
-        try {
-            if (cache.exists()
-                    && System.currentTimeMillis() < cache.lastModified()
-                            + (1000 * 60 * 60 * 24)) {
-                // Use cache if it's under 24h old
-                json = readJsonFromFile(cache);
-            } else {
-                if (ROTTEN_TOMATOES_API_KEY != null) {
-                    try {
-                        json = readJsonFromUrl("http://api.rottentomatoes.com/api/public/v1.0/lists/movies/in_theaters.json?page_limit=30&apikey="
-                                + ROTTEN_TOMATOES_API_KEY);
-                        // Store in cache
-                        FileWriter fileWriter = new FileWriter(cache);
-                        fileWriter.write(json.toString());
-                        fileWriter.close();
-                    } catch (Exception e) {
-                        json = readJsonFromFile(new File(baseDirectory
-                                + "/movies-fallback.txt"));
-                    }
-                } else {
-                    json = readJsonFromFile(new File(baseDirectory
-                            + "/movies-fallback.txt"));
+    /*
+     * The user directory, the notifications and alerts, the invalidation
+     * bus, the partition manager, the archive, the index, the replicas, the
+     * query admission, the statistics and the tile cache are shared by all
+     * sessions, so they are created only once.
+     */
+    private static synchronized void initShared(
+            final JDBCConnectionPool connectionPool) {
+        if (users == null) {
+            users = new UserDirectory(connectionPool, Integer.getInteger(
+                    "dashboard.passwordIterations", 210000),
+                    Integer.getInteger("dashboard.loginCacheMinutes", 30));
+            SessionFootprint.registerShared("users", users);
+        }
+        if (notificationDispatcher == null) {
+            notificationDispatcher = new NotificationDispatcher(
+                    new NotificationStore(connectionPool));
+            SessionFootprint.registerShared("notifications",
+                    notificationDispatcher);
+        }
+        if (invalidations == null) {
+            invalidations = createInvalidationBus(connectionPool);
+            notificationDispatcher.getStore().setInvalidationBus(
+                    invalidations);
+            lateRows = new LateRowInvalidator(invalidations);
+            SessionFootprint.registerShared("invalidations", invalidations);
+        }
+        TransactionIngestService ingest = TransactionIngestServlet
+                .getService();
+        if (alerts == null && ingest != null) {
+            alerts = new FailureRateAlertEngine(AlertRule.parse(System
+                    .getProperty("dashboard.alertRules",
+                            FailureRateAlertEngine.DEFAULT_RULES)),
+                    notificationDispatcher);
+            ingest.addListener(alerts);
+            alerts.start();
+            SessionFootprint.registerShared("alerts", alerts);
+        }
+        initPartitions(connectionPool);
+        String indexDir = System.getProperty("dashboard.indexDir");
+        if (index == null && indexDir != null) {
+            index = new DayBloomIndex(new File(indexDir), connectionPool,
+                    partitions);
+            index.setIndexDays(Integer.getInteger("dashboard.indexDays", 31));
+            index.start();
+            SessionFootprint.registerShared("index", index);
+        }
+        // The ingest servlet may start after the warm-up created these
+        if (ingest != null && ingest != listenedIngest) {
+            if (index != null) {
+                ingest.addListener(index);
+            }
+            ingest.addListener(lateRows);
+            listenedIngest = ingest;
+        }
+        String replicaNames = System.getProperty("dashboard.replicas");
+        if (replicas == null && replicaNames != null) {
+            List<JDBCConnectionPool> replicaPools = new ArrayList<JDBCConnectionPool>();
+            for (String name : replicaNames.split(",")) {
+                replicaPools.add(new J2EEConnectionPool(name.trim()));
+            }
+            replicas = new ReplicaRouter(connectionPool, replicaPools,
+                    nodeName());
+            replicas.setMaxLagMillis(Long.getLong(
+                    "dashboard.replicaMaxLagMillis", 30000));
+            replicas.start();
+            SessionFootprint.registerShared("replicas", replicas);
+        }
+        if (admission == null) {
+            admission = new QueryAdmission(Integer.getInteger(
+                    "dashboard.maxHeavyQueries", 8), Integer.getInteger(
+                    "dashboard.maxHeavyQueriesPerUser", 2), Integer.getInteger(
+                    "dashboard.maxQueuedQueries", 32), Long.getLong(
+                    "dashboard.queryQueueMillis", 10000));
+            SessionFootprint.registerShared("admission", admission);
+        }
+        if (statisticsCache == null) {
+            statisticsCache = new StatisticsCache(Integer.getInteger(
+                    "dashboard.statisticsCacheSeconds", 60));
+            SessionFootprint.registerShared("statistics", statisticsCache);
+        }
+        if (heatmap == null) {
+            heatmap = new HeatmapTileAggregator(new CellSiteDirectory(
+                    connectionPool), partitions, HEATMAP_MAX_ZOOM);
+            SessionFootprint.registerShared("heatmap", heatmap);
+            subscribeCaches(invalidations);
+        }
+    }
+
+    /**
+     * Stops the shared services in the reverse order of their creation, so
+     * that none of them is fed by a service stopped before it. The index is
+     * saved and the archive lease released on the way.
+     */
+    public static synchronized void shutdown() {
+        heatmap = null;
+        statisticsCache = null;
+        admission = null;
+        if (replicas != null) {
+            replicas.stop();
+            replicas = null;
+        }
+        if (index != null) {
+            index.stop();
+            index = null;
+        }
+        if (archive != null) {
+            archive.stop();
+            archive = null;
+        }
+        if (partitions != null) {
+            partitions.stop();
+            partitions = null;
+        }
+        if (alerts != null) {
+            alerts.stop();
+            alerts = null;
+        }
+        if (invalidations instanceof TableInvalidationBus) {
+            ((TableInvalidationBus) invalidations).stop();
+        }
+        invalidations = null;
+        lateRows = null;
+        listenedIngest = null;
+        if (notificationDispatcher != null) {
+            notificationDispatcher.shutdown();
+            notificationDispatcher = null;
+        }
+        users = null;
+    }
+
+    /**
+     * @return The started partition manager of the portal's database, shared
+     *         by the sessions and the ingest of transaction rows.
+     */
+    public static synchronized PartitionManager getPartitions() {
+        initPartitions(getSharedConnectionPool());
+        return partitions;
+    }
+
+    /**
+     * Makes the portal use the given partition manager instead of one
+     * configured by the system properties, e.g. one for an embedded
+     * database. Only has an effect before the first provider is created.
+     */
+    public static synchronized void setPartitionManager(
+            final PartitionManager manager) {
+        configuredPartitions = manager;
+    }
+
+    private static synchronized void initPartitions(
+            final JDBCConnectionPool connectionPool) {
+        if (partitions == null) {
+            PartitionManager manager = configuredPartitions != null ? configuredPartitions
+                    : PartitionManager.forPool(connectionPool);
+            String archiveDir = System.getProperty("dashboard.archiveDir");
+            if (archive == null && archiveDir != null) {
+                int archiveAfterDays = Integer.getInteger(
+                        "dashboard.archiveAfterDays", 30);
+                if (archiveAfterDays >= manager.getRetentionDays()) {
+                    throw new IllegalStateException(
+                            "dashboard.archiveAfterDays must be below dashboard.retentionDays");
                 }
+                archive = new TransactionArchive(new File(archiveDir),
+                        connectionPool, manager, nodeName());
+                archive.setArchiveAfterDays(archiveAfterDays);
+                // Only once every node mounts the same archive directory
+                archive.setDeleteArchived(Boolean
+                        .getBoolean("dashboard.archiveShared"));
+                final TransactionArchive retainedArchive = archive;
+                manager.setRetainedAfter(new Supplier<Date>() {
+                    @Override
+                    public Date get() {
+                        // Days not archived yet are never dropped
+                        LocalDate horizon = retainedArchive.getHorizon();
+                        return horizon == null ? null : DayRange.between(
+                                horizon, horizon.plusDays(1)).getStart();
+                    }
+                });
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            // The archive bounds the retention from the first maintenance on
+            partitions = manager;
+            partitions.start();
+            SessionFootprint.registerShared("partitions", partitions);
+            if (archive != null) {
+                archive.start();
+                SessionFootprint.registerShared("archive", archive);
+            }
+        }
+    }
+
+    /*
+     * dashboard.invalidationBus=table shares the invalidations with the other
+     * nodes using the same database, by default they stay on this node.
+     */
+    private static InvalidationBus createInvalidationBus(
+            final JDBCConnectionPool connectionPool) {
+        String node = nodeName();
+        if ("table".equals(System.getProperty("dashboard.invalidationBus"))) {
+            TableInvalidationBus bus = new TableInvalidationBus(
+                    connectionPool, node);
+            bus.start();
+            return bus;
         }
+        return new LocalInvalidationBus(node);
+    }
 
-        Collection<Movie> result = new ArrayList<Movie>();
-        if (json != null) {
-            JsonArray moviesJson;
-
-            moviesJson = json.getAsJsonArray("movies");
-            for (int i = 0; i < moviesJson.size(); i++) {
-                JsonObject movieJson = moviesJson.get(i).getAsJsonObject();
-                JsonObject posters = movieJson.get("posters").getAsJsonObject();
-                if (!posters.get("profile").getAsString()
-                        .contains("poster_default")) {
-                    Movie movie = new Movie();
-                    movie.setId(i);
-                    movie.setTitle(movieJson.get("title").getAsString());
-                    try {
-                        movie.setDuration(movieJson.get("runtime").getAsInt());
-                    } catch (Exception e) {
-                        // No need to handle this exception
+    private static String nodeName() {
+        return System.getProperty("dashboard.nodeName", ManagementFactory
+                .getRuntimeMXBean().getName());
+    }
+
+    /*
+     * Drops what the statistics, the tiles and the index hold of a day that
+     * changed on any node, and the unread counts of users whose notifications
+     * changed, and shares the hit rates.
+     */
+    private static void subscribeCaches(final InvalidationBus bus) {
+        bus.addListener(new InvalidationBus.Listener() {
+            @Override
+            public void invalidated(final Invalidation invalidation) {
+                if (invalidation.getKind() == Invalidation.Kind.DAY) {
+                    LocalDate day = invalidation.getDay();
+                    DayRange range = DayRange.between(day, day.plusDays(1));
+                    statisticsCache.invalidate(day);
+                    heatmap.invalidate(range.getStart(), range.getEnd());
+                    if (index != null) {
+                        index.invalidate(day);
                     }
-                    movie.setSynopsis(movieJson.get("synopsis").getAsString());
-                    movie.setThumbUrl(posters.get("profile").getAsString()
-                            .replace("_tmb", "_320"));
-                    movie.setPosterUrl(posters.get("detailed").getAsString()
-                            .replace("_tmb", "_640"));
-
-                    try {
-                        JsonObject releaseDates = movieJson
-                                .get("release_dates").getAsJsonObject();
-                        String datestr = releaseDates.get("theater")
-                                .getAsString();
-                        DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-                        movie.setReleaseDate(df.parse(datestr));
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                } else if (invalidation.getKind() == Invalidation.Kind.ALL) {
+                    statisticsCache.invalidateAll();
+                    heatmap.invalidateAll();
+                    if (index != null) {
+                        index.invalidateAll();
                     }
+                    notificationDispatcher.getStore().invalidateUnread(null);
+                } else if (invalidation.getKind() == Invalidation.Kind.UNREAD) {
+                    notificationDispatcher.getStore().invalidateUnread(
+                            invalidation.getUserName());
+                }
+            }
+        });
+        bus.addHitCounter("statistics", new InvalidationBus.HitCounter() {
+            @Override
+            public long getHits() {
+                return statisticsCache.getStats().hitCount();
+            }
 
-                    try {
-                        movie.setScore(movieJson.get("ratings")
-                                .getAsJsonObject().get("critics_score")
-                                .getAsInt());
-                    } catch (Exception e) {
-                        // No need to handle this exception
-                    }
+            @Override
+            public long getMisses() {
+                return statisticsCache.getStats().missCount();
+            }
+        });
+        bus.addHitCounter("heatmap", new InvalidationBus.HitCounter() {
+            @Override
+            public long getHits() {
+                return heatmap.getStats().hitCount();
+            }
 
-                    result.add(movie);
+            @Override
+            public long getMisses() {
+                return heatmap.getStats().missCount();
+            }
+        });
+    }
 
+    /**
+     * @return The bus the caches of this node are invalidated through.
+     */
+    public static InvalidationBus getInvalidationBus() {
+        return invalidations;
+    }
+
+    /*
+     * Sessions created at the same time wait for the first one to load the
+     * data instead of all loading it.
+     */
+    private static synchronized void refreshStaticData(
+            final File baseDirectory) {
+        if (lastDataUpdate != null
+                && lastDataUpdate.after(Date.from(Instant.now().minus(1,
+                        ChronoUnit.DAYS)))) {
+            return;
+        }
+        ReferenceData data;
+        try {
+            data = loadReferenceData(baseDirectory);
+        } catch (IOException e) {
+            e.printStackTrace();
+            data = new ReferenceData(new ArrayList<Movie>(), MultimapBuilder
+                    .hashKeys().arrayListValues().<String, String> build());
+        }
+        catalog = ReferenceCatalog.of(data);
+        revenueRanking = rankRevenues(catalog);
+        SessionFootprint.registerShared("catalog", catalog);
+        SessionFootprint.registerShared("revenueRanking", revenueRanking);
+        lastDataUpdate = new Date();
+    }
+
+    /*
+     * The last daily revenue of a movie is its total. Movies without
+     * revenues are left out.
+     */
+    private static TopRanking<MovieRevenue> rankRevenues(
+            final ReferenceCatalog catalog) {
+        List<MovieRevenue> totals = new ArrayList<MovieRevenue>();
+        if (revenue != null) {
+            for (Movie movie : catalog.getMovies()) {
+                Collection<MovieRevenue> daily = revenue.get(movie.getId());
+                if (!daily.isEmpty()) {
+                    totals.add(Iterables.getLast(daily));
                 }
             }
         }
-        return result;
+        return TopRanking.of(totals, new Comparator<MovieRevenue>() {
+            @Override
+            public int compare(final MovieRevenue o1, final MovieRevenue o2) {
+                return o1.getRevenue().compareTo(o2.getRevenue());
+            }
+        }, totals.size());
+    }
+
+    /**
+     * Get a list of movies currently playing in theaters.
+     *
+     * @return a list of Movie objects
+     */
+    @Override
+    public Collection<Movie> getMovies() {
+        return catalog.getMovies();
     }
 
-    /* JSON utility method */
-    private static String readAll(Reader rd) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        int cp;
-        while ((cp = rd.read()) != -1) {
-            sb.append((char) cp);
+    /**
+     * Load the movies playing in theaters currently and the cities. Uses the
+     * Rotten Tomatoes API to get the list of movies. The list is cached to a
+     * local file for 24h (daily limit of API calls is 10,000), and the parsed
+     * data to a snapshot next to it.
+     *
+     * @param baseDirectory
+     *            Base directory of the servlet, or null to load no movies.
+     */
+    private static ReferenceData loadReferenceData(final File baseDirectory)
+            throws IOException {
+        URL cities = DummyDataProvider.class.getResource("cities.txt");
+        if (baseDirectory == null) {
+            // Not running in a servlet, e.g. in the load test
+            return ReferenceDataLoader.load(null, cities, new File(
+                    System.getProperty("java.io.tmpdir"),
+                    "dashboard-cities.bin"));
         }
-        return sb.toString();
+
+        File cache = new File(baseDirectory, "movies.txt");
+        File source = new File(baseDirectory, "movies-fallback.txt");
+        if (cache.exists()
+                && System.currentTimeMillis() < cache.lastModified()
+                        + (1000 * 60 * 60 * 24)) {
+            // Use cache if it's under 24h old
+            source = cache;
+        } else if (ROTTEN_TOMATOES_API_KEY != null) {
+            try {
+                download("http://api.rottentomatoes.com/api/public/v1.0/lists/movies/in_theaters.json?page_limit=30&apikey="
+                        + ROTTEN_TOMATOES_API_KEY, cache);
+                source = cache;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ReferenceDataLoader.load(source, cities, new File(
+                baseDirectory, "reference.bin"));
+    }
+
+    /* Base directory of the servlet, null outside of a request */
+    private static File requestBaseDirectory() {
+        VaadinRequest vaadinRequest = CurrentInstance.get(VaadinRequest.class);
+        return vaadinRequest == null ? null : vaadinRequest.getService()
+                .getBaseDirectory();
     }
 
-    /* JSON utility method */
-    private static JsonObject readJsonFromUrl(String url) throws IOException {
-        InputStream is = new URL(url).openStream();
+    /* Stores the response as is, it is parsed from the file */
+    private static void download(final String url, final File target)
+            throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        InputStream in = new URL(url).openStream();
         try {
-            BufferedReader rd = new BufferedReader(new InputStreamReader(is,
-                    Charset.forName("UTF-8")));
-            String jsonText = readAll(rd);
-            JsonElement jelement = new JsonParser().parse(jsonText);
-            JsonObject jobject = jelement.getAsJsonObject();
-            return jobject;
+            Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
         } finally {
-            is.close();
+            in.close();
         }
-    }
-
-    /* JSON utility method */
-    private static JsonObject readJsonFromFile(File path) throws IOException {
-        BufferedReader rd = new BufferedReader(new FileReader(path));
-        String jsonText = readAll(rd);
-        JsonElement jelement = new JsonParser().parse(jsonText);
-        JsonObject jobject = jelement.getAsJsonObject();
-        return jobject;
+        Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
     }
 
     /**
@@ -266,120 +692,115 @@ public class DummyDataProvider implements DataProvider {
         }
     };
 
-    /**
-     * Parse the list of countries and cities
-     */
-    private static Multimap<String, String> loadTheaterData() {
-
-        /* First, read the text file into a string */
-        StringBuffer fileData = new StringBuffer(2000);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-                DummyDataProvider.class.getResourceAsStream("cities.txt")));
+    public static Movie getMovieForTitle(String title) {
+        return catalog.getMovieForTitle(title);
+    }
 
-        char[] buf = new char[1024];
-        int numRead = 0;
-        try {
-            while ((numRead = reader.read(buf)) != -1) {
-                String readData = String.valueOf(buf, 0, numRead);
-                fileData.append(readData);
-                buf = new char[1024];
-            }
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        String list = fileData.toString();
-
-        /*
-         * The list has rows with tab delimited values. We want the second (city
-         * name) and last (country name) values, and build a Map from that.
-         */
-        Multimap<String, String> countryToCities = MultimapBuilder.hashKeys()
-                .arrayListValues().build();
-        for (String line : list.split("\n")) {
-            String[] tabs = line.split("\t");
-            String city = tabs[1];
-            String country = tabs[tabs.length - 2];
-
-            if (!countryToCities.containsKey(country)) {
-                countryToCities.putAll(country, new ArrayList<String>());
-            }
-            countryToCities.get(country).add(city);
+    @Override
+    public User authenticate(String userName, String password) {
+        User user = users.authenticate(userName, password);
+        if (user != null) {
+            this.userName = userName.trim().toLowerCase(Locale.ROOT);
         }
+        return user;
+    }
 
-        return countryToCities;
-
+    /**
+     * @return The dispatcher that notifications are published with and
+     *         sessions register for them.
+     */
+    public static NotificationDispatcher getNotificationDispatcher() {
+        return notificationDispatcher;
     }
 
-    public static Movie getMovieForTitle(String title) {
-        for (Movie movie : movies) {
-            if (movie.getTitle().equals(title)) {
-                return movie;
-            }
-        }
-        return null;
+    /**
+     * @return The user name of the logged in user, null before the login.
+     */
+    public String getUserName() {
+        return userName;
     }
 
     @Override
-    public User authenticate(String userName, String password) {
-        User user = new User();
-        user.setFirstName(DummyDataGenerator.randomFirstName());
-        user.setLastName(DummyDataGenerator.randomLastName());
-        user.setRole("admin");
-        String email = user.getFirstName().toLowerCase() + "."
-                + user.getLastName().toLowerCase() + "@"
-                + DummyDataGenerator.randomCompanyName().toLowerCase() + ".com";
-        user.setEmail(email.replaceAll(" ", ""));
-        user.setLocation(DummyDataGenerator.randomWord(5, true));
-        user.setBio("Quis aute iure reprehenderit in voluptate velit esse."
-                + "Cras mattis iudicium purus sit amet fermentum.");
-        return user;
+    public void cancelQueries() {
+        guard.cancel();
+    }
+
+    /*
+     * Heavy queries of the session wait for their turn, see QueryAdmission.
+     */
+    private QueryGuard.Query startQuery() {
+        return guard.start(userName != null ? userName : "");
     }
 
     @Override
     public Collection<MovieRevenue> getDailyRevenuesByMovie(long id) {
+        if (revenue == null) {
+            return Collections.emptyList();
+        }
         return Collections.unmodifiableCollection(revenue.get(id));
     }
 
     private Date getDay(Date time) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(time);
-        cal.set(Calendar.MILLISECOND, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        return cal.getTime();
+        return DayRange.day(time).getStart();
     }
 
     @Override
     public Collection<MovieRevenue> getTotalMovieRevenues() {
-        return Collections2.transform(movies,
-                new Function<Movie, MovieRevenue>() {
-                    @Override
-                    public MovieRevenue apply(Movie input) {
-                        return Iterables.getLast(getDailyRevenuesByMovie(input
-                                .getId()));
-                    }
-                });
+        return revenueRanking.getItems();
+    }
+
+    @Override
+    public Collection<MovieRevenue> getTopMovieRevenues(final int count) {
+        return revenueRanking.getTop(count);
     }
 
     @Override
     public int getUnreadNotificationsCount() {
-        Predicate<DashboardNotification> unreadPredicate = new Predicate<DashboardNotification>() {
-            @Override
-            public boolean apply(DashboardNotification input) {
-                return !input.isRead();
-            }
-        };
-        return Collections2.filter(notifications, unreadPredicate).size();
+        if (userName == null) {
+            return 0;
+        }
+        try {
+            return notificationDispatcher.getStore().getUnreadCount(userName);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
     }
 
+    /*
+     * Shows the newest notifications and marks all of them read.
+     */
     @Override
     public Collection<DashboardNotification> getNotifications() {
-        for (DashboardNotification notification : notifications) {
-            notification.setRead(true);
+        if (userName == null) {
+            return Collections.emptyList();
+        }
+        NotificationStore store = notificationDispatcher.getStore();
+        try {
+            List<DashboardNotification> latest = store.getLatest(userName,
+                    NOTIFICATIONS_SHOWN);
+            store.markAllRead(userName);
+            for (DashboardNotification notification : latest) {
+                notification.setRead(true);
+            }
+            return Collections.unmodifiableCollection(latest);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    /*
+     * In lean session mode results are copied into exactly sized immutable
+     * lists, dropping the spare capacity of the ArrayList they were built in.
+     * Encoded results are already compact and only lose their spare capacity.
+     */
+    private static <T> List<T> compact(final List<T> list) {
+        if (list instanceof EncodedList) {
+            ((EncodedList<?>) list).trimToSize();
+            return list;
         }
-        return Collections.unmodifiableCollection(notifications);
+        return SessionFootprint.isLean() ? ImmutableList.copyOf(list) : list;
     }
 
     @Override
@@ -390,12 +811,11 @@ public class DummyDataProvider implements DataProvider {
 
     @Override
     public Movie getMovie(final long movieId) {
-        return Iterables.find(movies, new Predicate<Movie>() {
-            @Override
-            public boolean apply(Movie input) {
-                return input.getId() == movieId;
-            }
-        });
+        Movie movie = catalog.getMovie(movieId);
+        if (movie == null) {
+            throw new NoSuchElementException("No movie " + movieId);
+        }
+        return movie;
     }
 
     @Override
@@ -414,61 +834,73 @@ public class DummyDataProvider implements DataProvider {
 		return null;
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public Collection<Transaction> getTransactions(String refId, Date startDate, Date endDate) {
-		TableQuery query = new TableQuery("transaction_tab", this.connectionPool);
-		
-		//FreeformQuery query = new FreeformQuery(
-		//		String.format("select * from transaction_tab where ref_id = '%s'", refId), this.connectionPool, "id");
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(loadTransactions(refId, startDate, endDate));
+		} finally {
+			query.end();
+		}
+	}
+
+	private Collection<Transaction> loadTransactions(String refId, Date startDate, Date endDate) {
+		// Only the partitions overlapping the range are read, so the range
+		// and the ordering go into the query itself
+		String source = partitions.source();
+		List<String> conditions = new ArrayList<String>();
+		List<Object> parameters = new ArrayList<Object>();
+		if(refId != null && refId.trim().length() > 0) {
+			conditions.add("ref_id = ?");
+			parameters.add(refId);
+		}
 		
-		SQLContainer container;
-		List<Transaction> list = new ArrayList<Transaction>();
+		DayRange range = null;
+		if(startDate != null && endDate != null) {
+			range = DayRange.of(startDate, endDate);
+			DayRange live = liveRange(range);
+			if (live == null) {
+				return compact(addArchivedTransactions(new EncodedTransactionList(), range, refId));
+			}
+			source = partitions.source(live);
+			conditions.add(rangeCondition(live, parameters));
+			if (index != null && refId != null && refId.trim().length() > 0) {
+				List<LocalDate> days = index.daysWithRefId(live, refId);
+				if (days.isEmpty()) {
+					return compact(addArchivedTransactions(new EncodedTransactionList(), range, refId));
+				}
+				source = partitions.source(days);
+				conditions.add(daysCondition(days, parameters));
+			}
+		}
 		
+		EncodedTransactionList list = new EncodedTransactionList();
+		Connection connection = null;
 		try {
-			
-			container = new SQLContainer(query);
-			if(refId != null && refId.trim().length() > 0)
-				container.addContainerFilter(new Equal("ref_id", refId));
-			
-			if(startDate != null && endDate != null) {
-				Calendar calEndDate = Calendar.getInstance();
-				calEndDate.setTime(endDate);
-				calEndDate.add(Calendar.DAY_OF_MONTH, 1);
-				container.addContainerFilter(new Between("date_time", startDate, calEndDate.getTime()));
-			}
-			
-			container.addOrderBy(new OrderBy("id", false));
-			container.addOrderBy(new OrderBy("seq_id", false));
-			
-			Transaction transaction = null;
-			
-			Collection<?> itemIDS = container.getItemIds();
-			for (Object itemID : itemIDS) {
-				transaction = new Transaction();
-				
-				Property<String> pRefId = container.getContainerProperty(itemID, "ref_id");
-				transaction.setRefId(pRefId.getValue());
-				
-				Property<String> pModule = container.getContainerProperty(itemID, "module_name");
-				transaction.setModuleName(pModule.getValue());
-				
-				Property<Date> pDate = container.getContainerProperty(itemID, "date_time");
-				transaction.setDateTime(pDate.getValue());
-				
-				Property<Integer> pSeqId = container.getContainerProperty(itemID, "seq_id");
-				transaction.setSequenceId(pSeqId.getValue());
-				
-				Property<Integer> pId = container.getContainerProperty(itemID, "id");
-				transaction.setId(pId.getValue());
-				
-				list.add(transaction);
+			connection = queryPool.reserveConnection();
+			PreparedStatement statement = connection.prepareStatement(
+					"SELECT id, ref_id, module_name, date_time, seq_id FROM " + source
+					+ (conditions.isEmpty() ? "" : " WHERE " + Joiner.on(" AND ").join(conditions))
+					+ " ORDER BY id DESC, seq_id DESC");
+			try {
+				setParameters(statement, parameters);
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					list.add(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getTimestamp(4), rs.getInt(5));
+				}
+			} finally {
+				statement.close();
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			if (connection != null) {
+				queryPool.releaseConnection(connection);
+			}
 		}
 		
-		return list;
+		// Archived rows are older than all rows in the database
+		return compact(addArchivedTransactions(list, range, refId));
 	}
 
 	@Override
@@ -492,64 +924,68 @@ public class DummyDataProvider implements DataProvider {
 			
 			return null;
 		}
-	@SuppressWarnings("unchecked")
 	@Override
 	public Collection<Statistics> getStatistics(Date startDate, Date endDate) {
+		final DayRange range = DayRange.of(startDate, endDate);
+		return statisticsCache.get(range, new Callable<Collection<Statistics>>() {
+			@Override
+			public Collection<Statistics> call() {
+				// A stopped query throws, so that it is not cached
+				QueryGuard.Query query = startQuery();
+				try {
+					return query.check(loadStatistics(range));
+				} finally {
+					query.end();
+				}
+			}
+		});
+	}
+	
+	private Collection<Statistics> loadStatistics(DayRange range) {
 //		TableQuery query = new TableQuery("transaction_tab", this.connectionPool);
 		
-		SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd");
-		Calendar c = Calendar.getInstance();
-		c.setTime(endDate); // Now use today date.
-		c.add(Calendar.DATE, 1); // Adding 1 day
-		
+		DayRange live = liveRange(range);
 		
-		FreeformQuery query = new FreeformQuery("SELECT date_time, COUNT(*) AllRequests, SUM(case when cell_id IS NULL OR cell_id = '' then 1 else 0 end) Failed, SUM(case when cell_id IS NOT NULL AND cell_id <> '' then 1 else 0 end) Success FROM transaction_tab  WHERE (date_time BETWEEN  '"+ dt.format(startDate)+"' AND '"+dt.format(c.getTime())+"') group by DATE(date_time)", this.connectionPool, "date_time");
-		
-				
-		SQLContainer container;
+		// Archived days are counted in the headers of their files
 		List<Statistics> list = new ArrayList<Statistics>();
+		for (ArchiveFile day : archivedDays(range)) {
+			Statistics statistics = new Statistics();
+			statistics.setTime(new Date(day.getDayStart()));
+			statistics.setTotalRequests((long) day.getRows());
+			statistics.setSuccessfulRequests(BigDecimal.valueOf(day.getRows() - day.getFailedRows()));
+			statistics.setFailedRequest(BigDecimal.valueOf(day.getFailedRows()));
+			list.add(statistics);
+		}
+		if (live == null) {
+			return compact(list);
+		}
 		
 		try {
-			
-			container = new SQLContainer(query);
-			
-			if(startDate != null && endDate != null) {
-				Calendar calEndDate = Calendar.getInstance();
-				calEndDate.setTime(endDate);
-				calEndDate.add(Calendar.DAY_OF_MONTH, 1);
-				container.addContainerFilter(new Between("date_time", startDate, calEndDate.getTime()));
+			// Days split by a change of the offset are counted in two spans
+			Map<Long, long[]> days = new TreeMap<Long, long[]>();
+			for (DayCount count : countDays(live, null)) {
+				long[] counts = days.get(count.day);
+				if (counts == null) {
+					counts = new long[2];
+					days.put(count.day, counts);
+				}
+				counts[0] += count.requests;
+				counts[1] += count.failed;
 			}
-			
-			
-			//container.addOrderBy(new OrderBy("date_time", false));
-			//container.addOrderBy(new OrderBy("seq_id", false));
-			
-			Statistics statistics = null;
-			
-			Collection<?> itemIDS = container.getItemIds();
-			for (Object itemID : itemIDS) {
-				statistics = new Statistics();
-				
-				Property<Date> pDate = container.getContainerProperty(itemID, "date_time");
-				statistics.setTime(pDate.getValue());
-				
-				Property<Long> pTotalReq = container.getContainerProperty(itemID, "AllRequests");
-				statistics.setTotalRequests(pTotalReq.getValue());
-				
-				Property<BigDecimal> pSuccessReq = container.getContainerProperty(itemID, "Success");				
-				statistics.setSuccessfulRequests(pSuccessReq.getValue());
-											
-				Property<BigDecimal> pFailedReq = container.getContainerProperty(itemID, "Failed");
-				statistics.setFailedRequest(pFailedReq.getValue());
-				
-				
+			for (Map.Entry<Long, long[]> day : days.entrySet()) {
+				long[] counts = day.getValue();
+				Statistics statistics = new Statistics();
+				statistics.setTime(DayRange.startOfEpochDay(day.getKey()));
+				statistics.setTotalRequests(counts[0]);
+				statistics.setSuccessfulRequests(BigDecimal.valueOf(counts[0] - counts[1]));
+				statistics.setFailedRequest(BigDecimal.valueOf(counts[1]));
 				list.add(statistics);
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 		
-		return list;
+		return compact(list);
 	}
 	
 	//Statictics
@@ -567,191 +1003,605 @@ public class DummyDataProvider implements DataProvider {
 				
 				return null;
 			}
-	@SuppressWarnings("unchecked")
 	@Override
 	public Collection<Detailed> getDetailed(Date startDate, Date endDate) {
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(loadDetailed(startDate, endDate));
+		} finally {
+			query.end();
+		}
+	}
+
+	private Collection<Detailed> loadDetailed(Date startDate, Date endDate) {
 //		TableQuery query = new TableQuery("transaction_tab", this.connectionPool);
 		
-		SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd");
-		Calendar c = Calendar.getInstance();
-		c.setTime(endDate); // Now use today date.
-		c.add(Calendar.DATE, 1); // Adding 1 day
-		
-		
-		FreeformQuery query = new FreeformQuery("SELECT date_time, service_id, COUNT(*) AllRequests, SUM(case when cell_id IS NULL OR cell_id = '' then 1 else 0 end) Failed, SUM(case when cell_id IS NOT NULL AND cell_id <> '' then 1 else 0 end) Success FROM transaction_tab  WHERE (date_time BETWEEN  '"+ dt.format(startDate)+"' AND '"+dt.format(c.getTime())+"') group by DATE(date_time)", this.connectionPool, "date_time");
+		DayRange range = DayRange.of(startDate, endDate);
+		DayRange live = liveRange(range);
 		
-		SQLContainer container;
+		// Archived days are counted in the headers of their files
 		List<Detailed> list = new ArrayList<Detailed>();
+		for (ArchiveFile day : archivedDays(range)) {
+			Detailed detailed = new Detailed();
+			detailed.setTime(new Date(day.getDayStart()));
+			detailed.setServiceID(topService(day));
+			detailed.setTotalRequests(day.getRows());
+			detailed.setSuccessfulRequests(BigDecimal.valueOf(day.getRows() - day.getFailedRows()));
+			detailed.setFailedRequest(BigDecimal.valueOf(day.getFailedRows()));
+			list.add(detailed);
+		}
+		if (live == null) {
+			return compact(list);
+		}
 		
 		try {
-			
-			container = new SQLContainer(query);
-			
-			if(startDate != null && endDate != null) {
-				Calendar calEndDate = Calendar.getInstance();
-				calEndDate.setTime(endDate);
-				calEndDate.add(Calendar.DAY_OF_MONTH, 1);
-				container.addContainerFilter(new Between("date_time", startDate, calEndDate.getTime()));
+			// Like an archived day, a day shows the service with the most
+			// requests along with the requests of all services
+			Map<Long, Map<String, long[]>> days = new TreeMap<Long, Map<String, long[]>>();
+			for (DayCount count : countDays(live, "service_id")) {
+				Map<String, long[]> services = days.get(count.day);
+				if (services == null) {
+					services = new HashMap<String, long[]>();
+					days.put(count.day, services);
+				}
+				long[] counts = services.get(count.value);
+				if (counts == null) {
+					counts = new long[2];
+					services.put(count.value, counts);
+				}
+				counts[0] += count.requests;
+				counts[1] += count.failed;
 			}
-			
-			
-			//container.addOrderBy(new OrderBy("date_time", false));
-			//container.addOrderBy(new OrderBy("seq_id", false));
-			
-			Detailed detailed = null;
-			
-			Collection<?> itemIDS = container.getItemIds();
-			for (Object itemID : itemIDS) {
-				detailed = new Detailed();
-				
-				Property<Date> pDate = container.getContainerProperty(itemID, "date_time");
-				detailed.setTime(pDate.getValue());
-				
-				Property<String> pServerID = container.getContainerProperty(itemID, "service_id");
-				detailed.setServiceID(pServerID.getValue());
-				
-				Property<Long> pTotalReq = container.getContainerProperty(itemID, "AllRequests");
-				detailed.setTotalRequests(pTotalReq.getValue());
-				
-				Property<BigDecimal> pSuccessReq = container.getContainerProperty(itemID, "Success");				
-				detailed.setSuccessfulRequests(pSuccessReq.getValue());
-											
-				Property<BigDecimal> pFailedReq = container.getContainerProperty(itemID, "Failed");
-				detailed.setFailedRequest(pFailedReq.getValue());
-				
-				
+			for (Map.Entry<Long, Map<String, long[]>> day : days.entrySet()) {
+				String top = null;
+				long topRequests = -1;
+				long requests = 0;
+				long failed = 0;
+				for (Map.Entry<String, long[]> service : day.getValue().entrySet()) {
+					long[] counts = service.getValue();
+					if (counts[0] > topRequests) {
+						top = service.getKey();
+						topRequests = counts[0];
+					}
+					requests += counts[0];
+					failed += counts[1];
+				}
+				Detailed detailed = new Detailed();
+				detailed.setTime(DayRange.startOfEpochDay(day.getKey()));
+				detailed.setServiceID(top);
+				detailed.setTotalRequests(requests);
+				detailed.setSuccessfulRequests(BigDecimal.valueOf(requests - failed));
+				detailed.setFailedRequest(BigDecimal.valueOf(failed));
 				list.add(detailed);
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 		
-		return list;
+		return compact(list);
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public Collection<Service> getService(String serviceID, Date startDate, Date endDate) {
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(loadService(serviceID, startDate, endDate));
+		} finally {
+			query.end();
+		}
+	}
+
+	private Collection<Service> loadService(String serviceID, Date startDate, Date endDate) {
 //		TableQuery query = new TableQuery("transaction_tab", this.connectionPool);
 		
-		SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd");
-		Calendar c = Calendar.getInstance();
-		c.setTime(endDate); // Now use today date.
-		c.add(Calendar.DATE, 1); // Adding 1 day
+		DayRange range = DayRange.of(startDate, endDate);
+		DayRange live = liveRange(range);
 		
-		FreeformQuery query = new FreeformQuery("SELECT seq_id,date_time,msisdn,cell_id from transaction_tab  WHERE service_id='"+serviceID+"' OR (date_time BETWEEN  '"+ dt.format(startDate)+"' AND '"+dt.format(c.getTime())+"')", this.connectionPool, "date_time");		
+		EncodedServiceList list = new EncodedServiceList();
+		for (TransactionRow row : archivedRows(range, null, serviceID, null)) {
+			list.add(row.getSeqId(), new Date(row.getDateTime()),
+					row.getMsisdn(), row.getCellId());
+		}
+		if (live == null) {
+			return compact(list);
+		}
 		
-		SQLContainer container;
-		List<Service> list = new ArrayList<Service>();
+		List<String> conditions = new ArrayList<String>();
+		List<Object> parameters = new ArrayList<Object>();
+		if(serviceID != null && serviceID.trim().length() > 0) {
+			conditions.add("service_id = ?");
+			parameters.add(serviceID);
+		}
+		conditions.add(rangeCondition(live, parameters));
 		
+		Connection connection = null;
 		try {
-			
-			container = new SQLContainer(query);
-			if(serviceID != null && serviceID.trim().length() > 0)
-				container.addContainerFilter(new Equal("service_id", serviceID));
-			
-			if(startDate != null && endDate != null) {
-				Calendar calEndDate = Calendar.getInstance();
-				calEndDate.setTime(endDate);
-				calEndDate.add(Calendar.DAY_OF_MONTH, 1);
-				container.addContainerFilter(new Between("date_time", startDate, calEndDate.getTime()));
-			}
-			
-			
-			//container.addOrderBy(new OrderBy("date_time", false));
-			//container.addOrderBy(new OrderBy("seq_id", false));
-			
-			Service service = null;
-			
-			Collection<?> itemIDS = container.getItemIds();
-			for (Object itemID : itemIDS) {
-				service = new Service();
-				
-				Property<Integer> pId = container.getContainerProperty(itemID, "seq_id");
-				service.setId(pId.getValue());
-				
-				Property<Date> pDate = container.getContainerProperty(itemID, "date_time");
-				service.setDateTime(pDate.getValue());
-				
-				Property<String> msisdn = container.getContainerProperty(itemID, "msisdn");
-				service.setMsisdn(msisdn.getValue());
-				
-				Property<String> pcell_id = container.getContainerProperty(itemID, "cell_id");
-				service.setCellId(pcell_id.getValue());
-				
-				
-				list.add(service);
+			connection = queryPool.reserveConnection();
+			PreparedStatement statement = connection.prepareStatement(
+					"SELECT seq_id, date_time, msisdn, cell_id FROM "+partitions.source(live)+" WHERE "+Joiner.on(" AND ").join(conditions));
+			try {
+				setParameters(statement, parameters);
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					list.add(rs.getInt(1), rs.getTimestamp(2), rs.getString(3), rs.getString(4));
+				}
+			} finally {
+				statement.close();
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			if (connection != null) {
+				queryPool.releaseConnection(connection);
+			}
 		}
 		
-		return list;
+		return compact(list);
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public Collection<Location> getLocation(String msisdn, Date startDate, Date endDate) {
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(loadLocation(msisdn, startDate, endDate));
+		} finally {
+			query.end();
+		}
+	}
+
+	private Collection<Location> loadLocation(String msisdn, Date startDate, Date endDate) {
 //		TableQuery query = new TableQuery("transaction_tab", this.connectionPool);
 		
-		SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd");
-		Calendar c = Calendar.getInstance();
-		c.setTime(endDate); // Now use today date.
-		c.add(Calendar.DATE, 1); // Adding 1 day
+		DayRange range = DayRange.of(startDate, endDate);
+		DayRange live = liveRange(range);
 		
-		FreeformQuery query = new FreeformQuery("SELECT seq_id,msisdn,service_id,date_time,cell_id from transaction_tab WHERE msisdn='"+msisdn+"' OR (date_time BETWEEN  '"+ dt.format(startDate)+"' AND '"+dt.format(c.getTime())+"')", this.connectionPool, "date_time");		
+		EncodedLocationList list = new EncodedLocationList();
+		for (TransactionRow row : archivedRows(range, msisdn, null, null)) {
+			list.add(row.getSeqId(), new Date(row.getDateTime()),
+					row.getMsisdn(), row.getServiceId(), row.getCellId());
+		}
+		if (live == null) {
+			return compact(list);
+		}
 		
-		SQLContainer container;
-		List<Location> list = new ArrayList<Location>();
+		// Only days whose Bloom filter may contain the subscriber are read
+		String source = partitions.source(live);
+		List<String> conditions = new ArrayList<String>();
+		List<Object> parameters = new ArrayList<Object>();
+		conditions.add(rangeCondition(live, parameters));
+		if(msisdn != null && msisdn.trim().length() > 0) {
+			conditions.add("msisdn = ?");
+			parameters.add(msisdn);
+			if (index != null) {
+				List<LocalDate> days = index.daysWithMsisdn(live, msisdn);
+				if (days.isEmpty()) {
+					return compact(list);
+				}
+				source = partitions.source(days);
+				conditions.add(daysCondition(days, parameters));
+			}
+		}
 		
+		Connection connection = null;
 		try {
-			
-			container = new SQLContainer(query);
-			if(msisdn != null && msisdn.trim().length() > 0)
-				container.addContainerFilter(new Equal("msisdn", msisdn));
-			
-			if(startDate != null && endDate != null) {
-				Calendar calEndDate = Calendar.getInstance();
-				calEndDate.setTime(endDate);
-				calEndDate.add(Calendar.DAY_OF_MONTH, 1);
-				container.addContainerFilter(new Between("date_time", startDate, calEndDate.getTime()));
+			connection = queryPool.reserveConnection();
+			PreparedStatement statement = connection.prepareStatement(
+					"SELECT seq_id, msisdn, service_id, date_time, cell_id FROM "+source+" WHERE "+Joiner.on(" AND ").join(conditions));
+			try {
+				setParameters(statement, parameters);
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					list.add(rs.getInt(1), rs.getTimestamp(4), rs.getString(2), rs.getString(3), rs.getString(5));
+				}
+			} finally {
+				statement.close();
 			}
-			
-			
-			//container.addOrderBy(new OrderBy("date_time", false));
-			//container.addOrderBy(new OrderBy("seq_id", false));
-			
-			Location location = null;
-			
-			Collection<?> itemIDS = container.getItemIds();
-			for (Object itemID : itemIDS) {
-				location = new Location();
-				
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			if (connection != null) {
+				queryPool.releaseConnection(connection);
+			}
+		}
+		
+		return compact(list);
+	}
 
-				Property<Integer> pId = container.getContainerProperty(itemID, "seq_id");
-				location.setId(pId.getValue());
-				
-				Property<String> pmsisdn = container.getContainerProperty(itemID, "msisdn");
-				location.setMsisdn(pmsisdn.getValue());
-				
-				Property<String> pserviceId = container.getContainerProperty(itemID, "service_id");
-				location.setServiceId(pserviceId.getValue());
-				
-				Property<Date> pDate = container.getContainerProperty(itemID, "date_time");
-				location.setDateTime(pDate.getValue());
-				
-								
-				Property<String> pcell_id = container.getContainerProperty(itemID, "cell_id");
-				location.setCellId(pcell_id.getValue());
-				
-				
-				list.add(location);
+	/*
+	 * Rows are streamed in time order and compressed on the fly, so only the
+	 * visits are kept in memory no matter how many rows the range holds.
+	 */
+	@Override
+	public Collection<LocationVisit> getLocationTrail(String msisdn,
+			Date startDate, Date endDate) {
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(loadLocationTrail(msisdn, startDate, endDate));
+		} finally {
+			query.end();
+		}
+	}
+
+	private Collection<LocationVisit> loadLocationTrail(String msisdn,
+			Date startDate, Date endDate) {
+		// A trail is always of one subscriber
+		msisdn = blankToNull(msisdn);
+		if (msisdn == null) {
+			return Collections.emptyList();
+		}
+		DayRange range = DayRange.of(startDate, endDate);
+		DayRange live = liveRange(range);
+
+		// Archived days are older, so they come first in the trail
+		LocationTrail trail = new LocationTrail();
+		for (TransactionRow row : archivedRows(range, msisdn, null, null)) {
+			trail.add(row.getCellId(), new Date(row.getDateTime()));
+		}
+		if (live == null) {
+			return compact(trail.getVisits());
+		}
+		String source = partitions.source(live);
+		List<Object> parameters = new ArrayList<Object>();
+		parameters.add(msisdn);
+		String condition = rangeCondition(live, parameters);
+		if (index != null) {
+			List<LocalDate> candidates = index.daysWithMsisdn(live, msisdn);
+			if (candidates.isEmpty()) {
+				return compact(trail.getVisits());
+			}
+			source = partitions.source(candidates);
+			condition += " AND " + daysCondition(candidates, parameters);
+		}
+		Connection connection = null;
+		try {
+			connection = queryPool.reserveConnection();
+			PreparedStatement statement = connection.prepareStatement(
+					"SELECT cell_id, date_time FROM "+source+" WHERE msisdn = ? AND "+condition+" ORDER BY date_time, seq_id",
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			try {
+				statement.setFetchSize(TRAIL_FETCH_SIZE);
+				setParameters(statement, parameters);
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					trail.add(rs.getString(1), rs.getTimestamp(2));
+				}
+			} finally {
+				statement.close();
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			if (connection != null) {
+				queryPool.releaseConnection(connection);
+			}
+		}
+		return compact(trail.getVisits());
+	}
+
+	@Override
+	public TimeSeries getRequestTimeSeries(Date startDate, Date endDate,
+			long bucketMillis) {
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(loadRequestTimeSeries(startDate, endDate, bucketMillis));
+		} finally {
+			query.end();
+		}
+	}
+
+	private TimeSeries loadRequestTimeSeries(Date startDate, Date endDate,
+			long bucketMillis) {
+		long bucketSeconds = Math.max(1, bucketMillis / 1000);
+		long[] times = new long[64];
+		double[] values = new double[64];
+		int count = 0;
+
+		// Archived days are counted per minute in the headers of their files
+		Date liveStart = startDate;
+		LocalDate horizon = archive == null ? null : archive.getHorizon();
+		if (horizon != null) {
+			for (ArchiveFile day : archive.files(DayRange.of(startDate, endDate))) {
+				int[] minutes = day.getMinuteRows();
+				for (int m = 0; m < minutes.length; m++) {
+					long time = day.getDayStart() + m * 60000L;
+					if (minutes[m] == 0 || time < startDate.getTime()
+							|| time >= endDate.getTime()) {
+						continue;
+					}
+					long bucket = time / 1000 / bucketSeconds * bucketSeconds * 1000;
+					if (count > 0 && times[count - 1] == bucket) {
+						values[count - 1] += minutes[m];
+						continue;
+					}
+					if (count == times.length) {
+						times = Arrays.copyOf(times, count * 2);
+						values = Arrays.copyOf(values, count * 2);
+					}
+					times[count] = bucket;
+					values[count++] = minutes[m];
+				}
+			}
+			Date horizonStart = DayRange.between(horizon, horizon.plusDays(1))
+					.getStart();
+			if (horizonStart.after(liveStart)) {
+				liveStart = horizonStart;
+			}
+		}
+		if (!liveStart.before(endDate)) {
+			return zeroFilled(times, values, count, startDate, endDate,
+					bucketSeconds);
+		}
+
+		// As in countDays, the seconds are counted from the start of each
+		// span, in which they match the seconds of the epoch
+		String source = partitions.source(liveStart, endDate);
+		List<String> spans = new ArrayList<String>();
+		List<Object> parameters = new ArrayList<Object>();
+		for (DayRange.OffsetSpan span : DayRange.of(liveStart, endDate)
+				.getOffsetSpans(ZoneId.systemDefault())) {
+			long from = Math.max(span.getStart().getTime(), liveStart.getTime());
+			long to = Math.min(span.getEnd().getTime(), endDate.getTime());
+			if (from >= to) {
+				continue;
+			}
+			spans.add("SELECT FLOOR((TIMESTAMPDIFF(SECOND, ?, date_time) + ?) / ?) bucket, COUNT(*) requests FROM "
+					+ source + " WHERE date_time >= ? AND date_time < ? GROUP BY bucket");
+			parameters.add(new Timestamp(from / 1000 * 1000));
+			parameters.add(from / 1000);
+			parameters.add(bucketSeconds);
+			parameters.add(new Timestamp(from));
+			parameters.add(new Timestamp(to));
+		}
+
+		Connection connection = null;
+		try {
+			connection = analyticsPool.reserveConnection();
+			PreparedStatement statement = connection.prepareStatement(
+					"SELECT bucket, SUM(requests) FROM (" + Joiner.on(" UNION ALL ").join(spans)
+					+ ") spans GROUP BY bucket ORDER BY bucket");
+			try {
+				setParameters(statement, parameters);
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					long bucket = rs.getLong(1) * bucketSeconds * 1000;
+					if (count > 0 && times[count - 1] == bucket) {
+						// The bucket spans the archive horizon
+						values[count - 1] += rs.getLong(2);
+						continue;
+					}
+					if (count == times.length) {
+						times = Arrays.copyOf(times, count * 2);
+						values = Arrays.copyOf(values, count * 2);
+					}
+					times[count] = bucket;
+					values[count++] = rs.getLong(2);
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			if (connection != null) {
+				analyticsPool.releaseConnection(connection);
+			}
+		}
+		return zeroFilled(times, values, count, startDate, endDate,
+				bucketSeconds);
+	}
+
+	/*
+	 * The counted buckets with a zero point for every bucket between the
+	 * start and the end without requests, so that a chart draws no line
+	 * across a gap.
+	 */
+	private static TimeSeries zeroFilled(long[] times, double[] values,
+			int count, Date startDate, Date endDate, long bucketSeconds) {
+		long bucketMillis = bucketSeconds * 1000;
+		long first = Math.floorDiv(startDate.getTime(), bucketMillis) * bucketMillis;
+		long last = Math.floorDiv(endDate.getTime() - 1, bucketMillis) * bucketMillis;
+		if (last < first) {
+			return new TimeSeries(new long[0], new double[0]);
+		}
+		int buckets = (int) ((last - first) / bucketMillis + 1);
+		long[] filledTimes = new long[buckets];
+		double[] filledValues = new double[buckets];
+		for (int i = 0; i < buckets; i++) {
+			filledTimes[i] = first + i * bucketMillis;
+		}
+		for (int i = 0; i < count; i++) {
+			long index = (times[i] - first) / bucketMillis;
+			if (index >= 0 && index < buckets) {
+				filledValues[(int) index] += values[i];
+			}
+		}
+		return new TimeSeries(filledTimes, filledValues);
+	}
+
+	/*
+	 * The part of the range still in the database, null if all of it is
+	 * archived.
+	 */
+	private static DayRange liveRange(DayRange range) {
+		return archive == null ? range : archive.live(range);
+	}
+
+	/*
+	 * Condition matching the half-open range of the days, its timestamps
+	 * added to the parameters.
+	 */
+	private static String rangeCondition(DayRange range, List<Object> parameters) {
+		parameters.add(new Timestamp(range.getStart().getTime()));
+		parameters.add(new Timestamp(range.getEnd().getTime()));
+		return "date_time >= ? AND date_time < ?";
+	}
+
+	/*
+	 * Condition matching only the given days, adjacent days merged into one
+	 * range.
+	 */
+	private static String daysCondition(List<LocalDate> days, List<Object> parameters) {
+		List<String> ranges = new ArrayList<String>();
+		int i = 0;
+		while (i < days.size()) {
+			LocalDate first = days.get(i);
+			LocalDate end = first.plusDays(1);
+			while (++i < days.size() && days.get(i).equals(end)) {
+				end = end.plusDays(1);
+			}
+			ranges.add("(" + rangeCondition(DayRange.between(first, end), parameters) + ")");
+		}
+		return "(" + Joiner.on(" OR ").join(ranges) + ")";
+	}
+
+	private static void setParameters(PreparedStatement statement,
+			List<Object> parameters) throws SQLException {
+		for (int i = 0; i < parameters.size(); i++) {
+			statement.setObject(i + 1, parameters.get(i));
+		}
+	}
+
+	/*
+	 * Requests and failed requests per operator day of the range, and per
+	 * value of the column unless it is null. The day is computed in SQL with
+	 * the offset of the operator zone, which is fixed within each span.
+	 */
+	private List<DayCount> countDays(DayRange range, String column)
+			throws SQLException {
+		String select = column == null ? "day_key" : "day_key, " + column;
+		String source = partitions.source(range);
+		List<String> spans = new ArrayList<String>();
+		List<Object> parameters = new ArrayList<Object>();
+		// The seconds are counted from the bound start of each span, as
+		// UNIX_TIMESTAMP would depend on the zone of the session
+		for (DayRange.OffsetSpan span : range.getOffsetSpans(ZoneId.systemDefault())) {
+			Timestamp start = new Timestamp(span.getStart().getTime());
+			spans.add("SELECT FLOOR((TIMESTAMPDIFF(SECOND, ?, date_time) + ?) / 86400) " + select
+					+ ", COUNT(*), SUM(CASE WHEN cell_id IS NULL OR cell_id = '' THEN 1 ELSE 0 END) FROM " + source
+					+ " WHERE date_time >= ? AND date_time < ? GROUP BY " + select);
+			parameters.add(start);
+			parameters.add(span.getStart().getTime() / 1000 + span.getOffsetSeconds());
+			parameters.add(start);
+			parameters.add(new Timestamp(span.getEnd().getTime()));
+		}
+		List<DayCount> counts = new ArrayList<DayCount>();
+		if (spans.isEmpty()) {
+			return counts;
+		}
+		int first = column == null ? 2 : 3;
+		Connection connection = analyticsPool.reserveConnection();
+		try {
+			PreparedStatement statement = connection.prepareStatement(Joiner
+					.on(" UNION ALL ").join(spans));
+			try {
+				setParameters(statement, parameters);
+				ResultSet rs = statement.executeQuery();
+				while (rs.next()) {
+					counts.add(new DayCount(rs.getLong(1), column == null ? null
+							: rs.getString(2), rs.getLong(first), rs.getLong(first + 1)));
+				}
+			} finally {
+				statement.close();
+			}
+		} finally {
+			analyticsPool.releaseConnection(connection);
+		}
+		return counts;
+	}
+
+	private static final class DayCount {
+
+		private final long day;
+		private final String value;
+		private final long requests;
+		private final long failed;
+
+		DayCount(long day, String value, long requests, long failed) {
+			this.day = day;
+			this.value = value;
+			this.requests = requests;
+			this.failed = failed;
+		}
+	}
+
+	private static List<ArchiveFile> archivedDays(DayRange range) {
+		if (archive == null) {
+			return Collections.emptyList();
+		}
+		List<ArchiveFile> days = new ArrayList<ArchiveFile>();
+		for (ArchiveFile day : archive.files(range)) {
+			if (day.getRows() > 0) {
+				days.add(day);
+			}
+		}
+		return days;
+	}
+
+	/*
+	 * Archived rows matching the given values, blank values match any.
+	 */
+	private static List<TransactionRow> archivedRows(DayRange range,
+			String msisdn, String serviceId, String refId) {
+		if (archive == null || range == null) {
+			return Collections.emptyList();
+		}
+		return archive.scan(range, blankToNull(msisdn), blankToNull(serviceId),
+				blankToNull(refId));
+	}
+
+	private static String blankToNull(String value) {
+		return value == null || value.trim().isEmpty() ? null : value.trim();
+	}
+
+	/*
+	 * Archived hops, newest first. Without a range the whole archive is
+	 * searched, but only for a single request.
+	 */
+	private static EncodedTransactionList addArchivedTransactions(
+			EncodedTransactionList list, DayRange range, String refId) {
+		if (archive == null
+				|| (range == null && blankToNull(refId) == null)) {
+			return list;
+		}
+		List<TransactionRow> rows = new ArrayList<TransactionRow>(
+				archivedRows(range == null ? archive.all() : range, null,
+						null, refId));
+		Collections.sort(rows, new Comparator<TransactionRow>() {
+			@Override
+			public int compare(TransactionRow o1, TransactionRow o2) {
+				int c = Long.compare(o2.getDateTime(), o1.getDateTime());
+				return c != 0 ? c : Integer.compare(o2.getSeqId(), o1.getSeqId());
+			}
+		});
+		for (TransactionRow row : rows) {
+			list.add(0, row.getRefId(), row.getModuleName(),
+					new Date(row.getDateTime()), row.getSeqId());
 		}
-		
 		return list;
 	}
 
+	private static String topService(ArchiveFile day) {
+		String top = null;
+		int topRows = -1;
+		for (Map.Entry<String, Integer> e : day.getServiceRows().entrySet()) {
+			if (e.getValue() > topRows) {
+				top = e.getKey();
+				topRows = e.getValue();
+			}
+		}
+		return top;
+	}
+
+	@Override
+	public Collection<HeatmapTile> getHeatmapTiles(Date time,
+			TimeBucket bucket, int zoom, GeoBounds bounds) {
+		QueryGuard.Query query = startQuery();
+		try {
+			return query.check(heatmap.getTiles(time, bucket, zoom, bounds,
+					analyticsPool));
+		} finally {
+			query.end();
+		}
+	}
+
 }
@@ -0,0 +1,202 @@
+package com.vaadin.demo.dashboard.data.dummy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+
+/**
+ * Bulk loads synthetic traffic from {@link TransactionGenerator} into
+ * <code>transaction_tab</code> with JDBC batching. The time range is split
+ * between loader threads, each of them writing over its own connection.
+ * <p>
+ * With MySQL, add <code>rewriteBatchedStatements=true</code> to the JDBC URL
+ * so that the driver sends each batch as multi-row inserts.
+ */
+public class TransactionBulkLoader {
+
+    private static final String INSERT = "INSERT INTO %s ("
+            + TransactionRow.COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JDBCConnectionPool connectionPool;
+
+    private int batchSize = 1000;
+    private int batchesPerCommit = 10;
+    private int subscribers = 1000000;
+    private int cells = 5000;
+    private PartitionManager partitions;
+
+    public TransactionBulkLoader(final JDBCConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchesPerCommit(final int batchesPerCommit) {
+        this.batchesPerCommit = batchesPerCommit;
+    }
+
+    public void setSubscribers(final int subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    public void setCells(final int cells) {
+        this.cells = cells;
+    }
+
+    /**
+     * @param partitions
+     *            Routes rows to their partition, null to load into
+     *            transaction_tab.
+     */
+    public void setPartitions(final PartitionManager partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Generates and loads about the given number of requests between the
+     * given times.
+     *
+     * @return The number of rows loaded.
+     */
+    public long load(final long startMillis, final long endMillis,
+            final long requests, final int threads) throws SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            long slice = (endMillis - startMillis) / threads;
+            for (int i = 0; i < threads; i++) {
+                final long sliceStart = startMillis + i * slice;
+                final long sliceEnd = i == threads - 1 ? endMillis
+                        : sliceStart + slice;
+                final long seed = i + 1;
+                results.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws SQLException {
+                        return loadSlice(new TransactionGenerator(seed,
+                                subscribers, cells), sliceStart, sliceEnd,
+                                requests / threads);
+                    }
+                }));
+            }
+            long rows = 0;
+            for (Future<Long> result : results) {
+                try {
+                    rows += result.get();
+                } catch (Exception e) {
+                    throw new SQLException("Loading transactions failed", e);
+                }
+            }
+            return rows;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long loadSlice(final TransactionGenerator generator,
+            final long startMillis, final long endMillis, final long requests)
+            throws SQLException {
+        final Connection connection = connectionPool.reserveConnection();
+        try {
+            connection.setAutoCommit(false);
+            // One statement per target table, all of them executed per batch
+            final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+            try {
+                final int[] pending = new int[2];
+                long rows = generator.generate(startMillis, endMillis,
+                        requests, new TransactionGenerator.RowSink() {
+                            @Override
+                            public void accept(final TransactionRow row)
+                                    throws SQLException {
+                                String table = partitions == null ? "transaction_tab"
+                                        : partitions.tableFor(row
+                                                .getDateTime());
+                                PreparedStatement statement = statements
+                                        .get(table);
+                                if (statement == null) {
+                                    statement = connection
+                                            .prepareStatement(String.format(
+                                                    INSERT, table));
+                                    statements.put(table, statement);
+                                }
+                                row.bind(statement, 1);
+                                statement.addBatch();
+                                if (++pending[0] == batchSize) {
+                                    executeBatches(statements.values());
+                                    pending[0] = 0;
+                                    if (++pending[1] == batchesPerCommit) {
+                                        connection.commit();
+                                        pending[1] = 0;
+                                    }
+                                }
+                            }
+                        });
+                executeBatches(statements.values());
+                connection.commit();
+                return rows;
+            } finally {
+                for (PreparedStatement statement : statements.values()) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    private static void executeBatches(
+            final Collection<PreparedStatement> statements)
+            throws SQLException {
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Loads synthetic traffic for the last days into a database.
+     * <p>
+     * Arguments: driver class, JDBC URL, user, password, days, requests per
+     * day and number of threads.
+     */
+    public static void main(final String[] args) throws Exception {
+        int days = Integer.parseInt(args[4]);
+        long requestsPerDay = Long.parseLong(args[5]);
+        int threads = Integer.parseInt(args[6]);
+
+        JDBCConnectionPool pool = new SimpleJDBCConnectionPool(args[0],
+                args[1], args[2], args[3], threads, threads);
+        try {
+            long end = System.currentTimeMillis();
+            long start = end - days * 1000L * 60 * 60 * 24;
+            long began = System.nanoTime();
+            TransactionBulkLoader loader = new TransactionBulkLoader(pool);
+            loader.setPartitions(PartitionManager.forPool(pool));
+            long rows = loader.load(start, end, days * requestsPerDay, threads);
+            double seconds = (System.nanoTime() - began) / 1e9;
+            System.out.println(String.format(
+                    "Loaded %d rows in %.1f s (%.0f rows/min)", rows, seconds,
+                    rows / seconds * 60));
+        } finally {
+            pool.destroy();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.vaadin.demo.dashboard.data.dummy;
+
+import java.sql.SQLException;
+import java.util.SplittableRandom;
+
+import com.vaadin.demo.dashboard.data.TransactionRow;
+
+/**
+ * Generates synthetic GMLC traffic that looks like production data:
+ * <ul>
+ * <li>a few subscribers are located far more often than the rest,</li>
+ * <li>services are used in a fixed mix,</li>
+ * <li>a subscriber is mostly located in or near its home cell,</li>
+ * <li>requests follow a daily load curve,</li>
+ * <li>every request is a sequence of hops sharing a ref_id.</li>
+ * </ul>
+ * A generator is not thread-safe, use one per thread with different seeds.
+ */
+public class TransactionGenerator {
+
+    /** Receives the generated rows. */
+    public interface RowSink {
+        void accept(TransactionRow row) throws SQLException;
+    }
+
+    private static final String MSISDN_PREFIX = "9715";
+
+    /* Service ids and their share of the requests */
+    private static final String[] SERVICES = { "LBS001", "LBS002", "LBS003",
+            "LBS004", "LBS005", "LBS006" };
+    private static final int[] SERVICE_WEIGHTS = { 20, 10, 15, 9, 20, 5 };
+
+    /* Hops of a successful request, in order */
+    private static final String[] HOPS = { "MLP_REQ", "SRI_LCS", "PSL",
+            "MLP_RES" };
+
+    /* Relative load per hour of the day */
+    private static final double[] HOURLY_LOAD = { 0.2, 0.15, 0.1, 0.1, 0.15,
+            0.3, 0.6, 0.9, 1.0, 0.95, 0.9, 0.9, 0.95, 0.9, 0.85, 0.85, 0.9,
+            1.0, 1.0, 0.95, 0.85, 0.7, 0.5, 0.3 };
+    private static final double AVERAGE_LOAD;
+    static {
+        double sum = 0;
+        for (double load : HOURLY_LOAD) {
+            sum += load;
+        }
+        AVERAGE_LOAD = sum / HOURLY_LOAD.length;
+    }
+
+    private static final long HOUR = 1000L * 60 * 60;
+
+    private final SplittableRandom random;
+    private final int subscribers;
+    private final int cells;
+    private final int serviceWeightTotal;
+
+    private double failureRate = 0.03;
+    private double popularitySkew = 3.0;
+    private long requestCounter;
+
+    /**
+     * @param seed
+     *            Random seed, the same seed produces the same traffic.
+     * @param subscribers
+     *            Size of the subscriber population.
+     * @param cells
+     *            Number of cells in the network.
+     */
+    public TransactionGenerator(final long seed, final int subscribers,
+            final int cells) {
+        random = new SplittableRandom(seed);
+        this.subscribers = subscribers;
+        this.cells = cells;
+        int total = 0;
+        for (int weight : SERVICE_WEIGHTS) {
+            total += weight;
+        }
+        serviceWeightTotal = total;
+        requestCounter = seed << 32;
+    }
+
+    /**
+     * @param failureRate
+     *            Share of requests that end without a cell, 0..1.
+     */
+    public void setFailureRate(final double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param popularitySkew
+     *            1 for uniformly located subscribers, larger values
+     *            concentrate requests on fewer subscribers.
+     */
+    public void setPopularitySkew(final double popularitySkew) {
+        this.popularitySkew = popularitySkew;
+    }
+
+    /**
+     * Generates about the given number of requests spread over the time range
+     * following the daily load curve, in time order.
+     *
+     * @return The number of rows generated.
+     */
+    public long generate(final long startMillis, final long endMillis,
+            final long requests, final RowSink sink) throws SQLException {
+        double meanGap = (endMillis - startMillis) / (double) requests;
+        long rows = 0;
+        double time = startMillis;
+        while (time < endMillis) {
+            rows += generateRequest((long) time, sink);
+            double load = HOURLY_LOAD[(int) ((((long) time) / HOUR) % 24)];
+            time += -Math.log(1.0 - random.nextDouble()) * meanGap
+                    * AVERAGE_LOAD / load;
+        }
+        return rows;
+    }
+
+    /**
+     * Generates the hops of a single request.
+     *
+     * @return The number of rows generated.
+     */
+    public int generateRequest(final long time, final RowSink sink)
+            throws SQLException {
+        int subscriber = nextSubscriber();
+        String msisdn = msisdn(subscriber);
+        String serviceId = nextService();
+        String refId = Long.toHexString(requestCounter++);
+        boolean failed = random.nextDouble() < failureRate;
+        String cellId = failed ? "" : cellId(nextCell(subscriber));
+
+        /* Failed requests usually stop after the network query */
+        int hops = failed ? 2 + random.nextInt(HOPS.length - 1) : HOPS.length;
+        long hopTime = time;
+        for (int seq = 0; seq < hops; seq++) {
+            sink.accept(new TransactionRow(refId, seq + 1, HOPS[seq], hopTime,
+                    msisdn, serviceId, cellId));
+            hopTime += 5 + random.nextInt(200);
+        }
+        return hops;
+    }
+
+    private int nextSubscriber() {
+        return (int) (subscribers * Math.pow(random.nextDouble(),
+                popularitySkew));
+    }
+
+    private String nextService() {
+        int pick = random.nextInt(serviceWeightTotal);
+        for (int i = 0; i < SERVICES.length; i++) {
+            pick -= SERVICE_WEIGHTS[i];
+            if (pick < 0) {
+                return SERVICES[i];
+            }
+        }
+        return SERVICES[0];
+    }
+
+    /*
+     * Mostly the home cell, sometimes a neighbouring one and rarely anywhere.
+     */
+    private int nextCell(final int subscriber) {
+        int home = (int) ((subscriber * 2654435761L) % cells);
+        double p = random.nextDouble();
+        if (p < 0.8) {
+            return home;
+        } else if (p < 0.95) {
+            return Math.floorMod(home + random.nextInt(9) - 4, cells);
+        }
+        return random.nextInt(cells);
+    }
+
+    /*
+     * Spreads the ranks over the number space so popular subscribers don't
+     * have consecutive numbers.
+     */
+    private String msisdn(final int subscriber) {
+        long number = (subscriber * 48271L) % 100000000L;
+        String digits = Long.toString(number);
+        StringBuilder sb = new StringBuilder(MSISDN_PREFIX.length() + 8);
+        sb.append(MSISDN_PREFIX);
+        for (int i = digits.length(); i < 8; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    private static String cellId(final int cell) {
+        return Integer.toString(10000 + cell);
+    }
+}
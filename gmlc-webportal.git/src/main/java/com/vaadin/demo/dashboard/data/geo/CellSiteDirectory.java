@@ -0,0 +1,79 @@
+package com.vaadin.demo.dashboard.data.geo;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+
+/**
+ * Maps GMLC cell identifiers to the coordinates of their cell site. The
+ * mapping is read from the <code>cell_site</code> table and kept in memory,
+ * it is reloaded at most once a day.
+ */
+public class CellSiteDirectory {
+
+    private static final long RELOAD_INTERVAL = 1000 * 60 * 60 * 24;
+
+    private final JDBCConnectionPool connectionPool;
+
+    private volatile Map<String, double[]> sites;
+    private volatile long loadedAt;
+
+    public CellSiteDirectory(final JDBCConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * @param cellId
+     * @return latitude and longitude of the cell site, or null if the cell is
+     *         not known.
+     */
+    public double[] locate(final String cellId) {
+        return getSites().get(cellId);
+    }
+
+    private Map<String, double[]> getSites() {
+        Map<String, double[]> current = sites;
+        if (current == null
+                || System.currentTimeMillis() > loadedAt + RELOAD_INTERVAL) {
+            synchronized (this) {
+                if (sites == current) {
+                    sites = current = load();
+                    loadedAt = System.currentTimeMillis();
+                }
+                current = sites;
+            }
+        }
+        return current;
+    }
+
+    private Map<String, double[]> load() {
+        Map<String, double[]> result = new HashMap<String, double[]>();
+        Connection connection = null;
+        try {
+            connection = connectionPool.reserveConnection();
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement
+                        .executeQuery("SELECT cell_id, latitude, longitude FROM cell_site");
+                while (rs.next()) {
+                    result.put(rs.getString(1),
+                            new double[] { rs.getDouble(2), rs.getDouble(3) });
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (connection != null) {
+                connectionPool.releaseConnection(connection);
+            }
+        }
+        return result;
+    }
+}
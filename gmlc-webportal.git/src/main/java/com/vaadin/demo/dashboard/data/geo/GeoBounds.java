@@ -0,0 +1,62 @@
+package com.vaadin.demo.dashboard.data.geo;
+
+/**
+ * The visible area of a map, in degrees.
+ */
+public final class GeoBounds {
+
+    public static final GeoBounds WORLD = new GeoBounds(85, -180, -85, 180);
+
+    private final double north;
+    private final double west;
+    private final double south;
+    private final double east;
+
+    public GeoBounds(final double north, final double west,
+            final double south, final double east) {
+        this.north = north;
+        this.west = west;
+        this.south = south;
+        this.east = east;
+    }
+
+    /**
+     * @return The area covered by the given range of tiles (inclusive).
+     */
+    public static GeoBounds ofTiles(final int zoom, final int minX,
+            final int minY, final int maxX, final int maxY) {
+        return new GeoBounds(TileKey.latitude(minY, zoom), TileKey.longitude(
+                minX, zoom), TileKey.latitude(maxY + 1, zoom),
+                TileKey.longitude(maxX + 1, zoom));
+    }
+
+    public double getNorth() {
+        return north;
+    }
+
+    public double getWest() {
+        return west;
+    }
+
+    public double getSouth() {
+        return south;
+    }
+
+    public double getEast() {
+        return east;
+    }
+
+    /**
+     * @return The top left tile covered by these bounds at the given zoom.
+     */
+    public TileKey topLeft(final int zoom) {
+        return TileKey.forPoint(north, west, zoom);
+    }
+
+    /**
+     * @return The bottom right tile covered by these bounds at the given zoom.
+     */
+    public TileKey bottomRight(final int zoom) {
+        return TileKey.forPoint(south, east, zoom);
+    }
+}
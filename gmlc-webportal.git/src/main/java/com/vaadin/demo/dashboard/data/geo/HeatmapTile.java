@@ -0,0 +1,24 @@
+package com.vaadin.demo.dashboard.data.geo;
+
+/**
+ * Number of location requests that landed inside one map tile during one time
+ * bucket.
+ */
+public final class HeatmapTile {
+
+    private final TileKey key;
+    private final long requests;
+
+    public HeatmapTile(final TileKey key, final long requests) {
+        this.key = key;
+        this.requests = requests;
+    }
+
+    public TileKey getKey() {
+        return key;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+}
@@ -0,0 +1,257 @@
+package com.vaadin.demo.dashboard.data.geo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+
+/**
+ * Bins location requests into map tiles on the server so that only per-tile
+ * counts of the visible area are ever sent to the browser.
+ * <p>
+ * For every time bucket the requests are counted per cell in the database,
+ * the cells are placed on the tile grid of the deepest zoom level and the
+ * counts are rolled up the quad-tree to zoom level 0. The resulting pyramid
+ * is cached, closed buckets for a day and the still open bucket for a minute.
+ * <p>
+ * The requests are counted with the connections of the pool of the session
+ * asking for a bucket, so that the aggregate is bounded by its query guard.
+ * If the guard of that session stops the query, sessions waiting for the
+ * same bucket count it again with their own pool. Only the database is
+ * counted: days moved to the archive have no requests on the map.
+ */
+public class HeatmapTileAggregator {
+
+    private static final String CELL_COUNTS = "SELECT cell_id, COUNT(*) FROM %s"
+            + " WHERE date_time >= ? AND date_time < ?"
+            + " AND cell_id IS NOT NULL AND cell_id <> '' GROUP BY cell_id";
+
+    private final CellSiteDirectory cellSites;
+    private final PartitionManager partitions;
+    private final int maxZoom;
+
+    private final Cache<BucketKey, TilePyramid> closedBuckets = CacheBuilder
+            .newBuilder().maximumSize(500).expireAfterAccess(1, TimeUnit.DAYS)
+            .recordStats().build();
+    private final Cache<BucketKey, TilePyramid> openBuckets = CacheBuilder
+            .newBuilder().maximumSize(10)
+            .expireAfterWrite(1, TimeUnit.MINUTES).recordStats().build();
+
+    public HeatmapTileAggregator(final CellSiteDirectory cellSites,
+            final PartitionManager partitions, final int maxZoom) {
+        this.cellSites = cellSites;
+        this.partitions = partitions;
+        this.maxZoom = maxZoom;
+    }
+
+    /**
+     * @param time
+     *            Any time inside the wanted bucket.
+     * @param bucket
+     *            Bucket granularity.
+     * @param zoom
+     *            Map zoom level, capped to the deepest aggregated level.
+     * @param bounds
+     *            Visible area of the map.
+     * @param pool
+     *            Pool the requests are counted with if the bucket is not
+     *            cached.
+     * @return Non-empty tiles of the visible area, none if they could not be
+     *         counted.
+     */
+    public Collection<HeatmapTile> getTiles(final Date time,
+            final TimeBucket bucket, final int zoom, final GeoBounds bounds,
+            final JDBCConnectionPool pool) {
+        final Date start = bucket.start(time);
+        final Date end = bucket.end(start);
+        final BucketKey key = new BucketKey(bucket, start.getTime());
+        Cache<BucketKey, TilePyramid> cache = end.after(new Date()) ? openBuckets
+                : closedBuckets;
+        TilePyramid pyramid = null;
+        while (pyramid == null) {
+            final boolean[] loaded = new boolean[1];
+            try {
+                pyramid = cache.get(key, new Callable<TilePyramid>() {
+                    @Override
+                    public TilePyramid call() throws SQLException {
+                        loaded[0] = true;
+                        return aggregate(pool, start, end);
+                    }
+                });
+            } catch (ExecutionException e) {
+                if (!loaded[0]) {
+                    // Failed in another session, maybe stopped by its guard
+                    continue;
+                }
+                e.printStackTrace();
+                return new ArrayList<HeatmapTile>();
+            }
+        }
+        return pyramid.visible(Math.max(0, Math.min(zoom, maxZoom)), bounds);
+    }
+
+    /**
+     * Forgets the tiles of the buckets overlapping the given time range.
+     */
+    public void invalidate(final Date start, final Date end) {
+        invalidate(openBuckets, start, end);
+        invalidate(closedBuckets, start, end);
+    }
+
+    /**
+     * Forgets all tiles.
+     */
+    public void invalidateAll() {
+        openBuckets.invalidateAll();
+        closedBuckets.invalidateAll();
+    }
+
+    /**
+     * @return Hits and misses of all buckets since the aggregator was
+     *         created.
+     */
+    public CacheStats getStats() {
+        return openBuckets.stats().plus(closedBuckets.stats());
+    }
+
+    private static void invalidate(final Cache<BucketKey, TilePyramid> cache,
+            final Date start, final Date end) {
+        for (Iterator<BucketKey> i = cache.asMap().keySet().iterator(); i
+                .hasNext();) {
+            BucketKey key = i.next();
+            Date bucketStart = new Date(key.start);
+            if (bucketStart.before(end)
+                    && key.bucket.end(bucketStart).after(start)) {
+                i.remove();
+            }
+        }
+    }
+
+    private TilePyramid aggregate(final JDBCConnectionPool pool,
+            final Date start, final Date end) throws SQLException {
+        TilePyramid pyramid = new TilePyramid(maxZoom);
+        Connection connection = pool.reserveConnection();
+        try {
+            PreparedStatement statement = connection
+                    .prepareStatement(String.format(CELL_COUNTS,
+                            partitions.source(start, end)));
+            try {
+                statement.setTimestamp(1, new Timestamp(start.getTime()));
+                statement.setTimestamp(2, new Timestamp(end.getTime()));
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    double[] site = cellSites.locate(rs.getString(1));
+                    if (site != null) {
+                        pyramid.add(TileKey.forPoint(site[0], site[1],
+                                maxZoom), rs.getLong(2));
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            pool.releaseConnection(connection);
+        }
+        pyramid.rollUp();
+        return pyramid;
+    }
+
+    /**
+     * Request counts per tile for every zoom level of one time bucket.
+     */
+    private static final class TilePyramid {
+
+        private final List<Map<Long, long[]>> levels = new ArrayList<Map<Long, long[]>>();
+
+        TilePyramid(final int maxZoom) {
+            for (int z = 0; z <= maxZoom; z++) {
+                levels.add(new HashMap<Long, long[]>());
+            }
+        }
+
+        void add(final TileKey tile, final long requests) {
+            increment(levels.get(tile.getZoom()), tile.getX(), tile.getY(),
+                    requests);
+        }
+
+        void rollUp() {
+            for (int z = levels.size() - 1; z > 0; z--) {
+                Map<Long, long[]> parent = levels.get(z - 1);
+                for (Map.Entry<Long, long[]> e : levels.get(z).entrySet()) {
+                    long packed = e.getKey();
+                    increment(parent, (int) (packed >>> 32) >> 1,
+                            (int) packed >> 1, e.getValue()[0]);
+                }
+            }
+        }
+
+        Collection<HeatmapTile> visible(final int zoom, final GeoBounds bounds) {
+            TileKey topLeft = bounds.topLeft(zoom);
+            TileKey bottomRight = bounds.bottomRight(zoom);
+            List<HeatmapTile> result = new ArrayList<HeatmapTile>();
+            for (Map.Entry<Long, long[]> e : levels.get(zoom).entrySet()) {
+                long packed = e.getKey();
+                int x = (int) (packed >>> 32);
+                int y = (int) packed;
+                if (x >= topLeft.getX() && x <= bottomRight.getX()
+                        && y >= topLeft.getY() && y <= bottomRight.getY()) {
+                    result.add(new HeatmapTile(new TileKey(zoom, x, y), e
+                            .getValue()[0]));
+                }
+            }
+            return result;
+        }
+
+        private static void increment(final Map<Long, long[]> level,
+                final int x, final int y, final long requests) {
+            Long packed = ((long) x << 32) | (y & 0xffffffffL);
+            long[] count = level.get(packed);
+            if (count == null) {
+                level.put(packed, new long[] { requests });
+            } else {
+                count[0] += requests;
+            }
+        }
+    }
+
+    private static final class BucketKey {
+        private final TimeBucket bucket;
+        private final long start;
+
+        BucketKey(final TimeBucket bucket, final long start) {
+            this.bucket = bucket;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey other = (BucketKey) obj;
+            return bucket == other.bucket && start == other.start;
+        }
+
+        @Override
+        public int hashCode() {
+            return bucket.hashCode() * 31 + (int) (start ^ (start >>> 32));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.vaadin.demo.dashboard.data.geo;
+
+/**
+ * Address of a Web Mercator (slippy map) tile. Tiles form a quad-tree: the
+ * parent of tile (x, y) at zoom z is (x / 2, y / 2) at zoom z - 1.
+ */
+public final class TileKey {
+
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    private final int zoom;
+    private final int x;
+    private final int y;
+
+    public TileKey(final int zoom, final int x, final int y) {
+        this.zoom = zoom;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * @return The tile containing the given coordinate at the given zoom.
+     */
+    public static TileKey forPoint(final double latitude,
+            final double longitude, final int zoom) {
+        return new TileKey(zoom, tileX(longitude, zoom), tileY(latitude, zoom));
+    }
+
+    static int tileX(final double longitude, final int zoom) {
+        int n = 1 << zoom;
+        int x = (int) Math.floor((longitude + 180.0) / 360.0 * n);
+        return Math.min(Math.max(x, 0), n - 1);
+    }
+
+    static int tileY(final double latitude, final int zoom) {
+        int n = 1 << zoom;
+        double lat = Math.toRadians(Math.max(-MAX_LATITUDE,
+                Math.min(MAX_LATITUDE, latitude)));
+        int y = (int) Math.floor((1.0 - Math.log(Math.tan(lat) + 1.0
+                / Math.cos(lat))
+                / Math.PI)
+                / 2.0 * n);
+        return Math.min(Math.max(y, 0), n - 1);
+    }
+
+    static double longitude(final int x, final int zoom) {
+        return x / (double) (1 << zoom) * 360.0 - 180.0;
+    }
+
+    static double latitude(final int y, final int zoom) {
+        double n = Math.PI - 2.0 * Math.PI * y / (1 << zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    public TileKey parent() {
+        return new TileKey(zoom - 1, x >> 1, y >> 1);
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return The tile as a Bing-style quadkey string, e.g. "0231".
+     */
+    public String toQuadKey() {
+        StringBuilder sb = new StringBuilder(zoom);
+        for (int i = zoom; i > 0; i--) {
+            int digit = 0;
+            int mask = 1 << (i - 1);
+            if ((x & mask) != 0) {
+                digit += 1;
+            }
+            if ((y & mask) != 0) {
+                digit += 2;
+            }
+            sb.append(digit);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof TileKey)) {
+            return false;
+        }
+        TileKey other = (TileKey) obj;
+        return zoom == other.zoom && x == other.x && y == other.y;
+    }
+
+    @Override
+    public int hashCode() {
+        return (zoom * 31 + x) * 31 + y;
+    }
+
+    @Override
+    public String toString() {
+        return zoom + "/" + x + "/" + y;
+    }
+}
@@ -0,0 +1,39 @@
+package com.vaadin.demo.dashboard.data.geo;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import com.vaadin.demo.dashboard.data.DayRange;
+
+/**
+ * Granularity at which heatmap tiles are aggregated over time, in the zone of
+ * the operators.
+ */
+public enum TimeBucket {
+    HOUR(ChronoUnit.HOURS), DAY(ChronoUnit.DAYS);
+
+    private final ChronoUnit unit;
+
+    private TimeBucket(final ChronoUnit unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * @return The start of the bucket the given time falls into.
+     */
+    public Date start(final Date time) {
+        return Date.from(Instant.ofEpochMilli(time.getTime())
+                .atZone(DayRange.getZone()).truncatedTo(unit).toInstant());
+    }
+
+    /**
+     * @return The (exclusive) end of the bucket starting at bucketStart.
+     */
+    public Date end(final Date bucketStart) {
+        ZonedDateTime start = Instant.ofEpochMilli(bucketStart.getTime())
+                .atZone(DayRange.getZone());
+        return Date.from(start.plus(1, unit).toInstant());
+    }
+}
@@ -0,0 +1,563 @@
+package com.vaadin.demo.dashboard.data.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.DayRange;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.ingest.IngestListener;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+
+/**
+ * Per-day Bloom filters of the msisdns and ref_ids in
+ * <code>transaction_tab</code>, so that lookups of a single subscriber or
+ * request only query the days that may contain it.
+ * <p>
+ * Each day is built from the database and saved to a file of its own. The
+ * filters are kept up to date from the rows committed by the ingest service.
+ * Rows written by other means (the bulk loader, other nodes, backfills) are
+ * found by the refresh, which rebuilds every past day whose number of rows
+ * in the database differs from the rows in its filters, and every day
+ * {@link #invalidate(LocalDate) invalidated} since. Such days, the current
+ * day, days without a filter and closed days not checked by a refresh since
+ * they ended are always reported as possible matches.
+ */
+public class DayBloomIndex implements IngestListener {
+
+    private static final int MAGIC = 0x54434232;
+    private static final String FILE_PREFIX = "blooms-";
+    private static final String FILE_SUFFIX = ".tcb";
+
+    private static final double FPP = 0.01;
+    private static final int MIN_EXPECTED = 1000;
+
+    private static final String DAY_KEYS = "SELECT msisdn, ref_id FROM %s"
+            + " WHERE date_time >= ? AND date_time < ?";
+    private static final String DAY_COUNT = "SELECT COUNT(*) FROM %s"
+            + " WHERE date_time >= ? AND date_time < ?";
+    private static final int FETCH_SIZE = 5000;
+
+    private final File directory;
+    private final JDBCConnectionPool connectionPool;
+    private final PartitionManager partitions;
+    private final ZoneId zone = DayRange.getZone();
+
+    private int indexDays = 31;
+    private int expectedRowsPerDay = 1000000;
+
+    /* Days with a saved or open filter */
+    private final Set<LocalDate> indexed = ConcurrentHashMap.newKeySet();
+
+    /* Past days found complete by a refresh after they ended */
+    private final Set<LocalDate> checked = ConcurrentHashMap.newKeySet();
+
+    /* Days that may have rows missing from their filters, by invalidation */
+    private final ConcurrentMap<LocalDate, Long> stale = new ConcurrentHashMap<LocalDate, Long>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /* Filters of the current day and filters changed since they were saved */
+    private final ConcurrentMap<LocalDate, DayFilters> open = new ConcurrentHashMap<LocalDate, DayFilters>();
+
+    private final Cache<LocalDate, DayFilters> saved = CacheBuilder
+            .newBuilder().maximumSize(32).build();
+
+    private ScheduledExecutorService scheduler;
+
+    public DayBloomIndex(final File directory,
+            final JDBCConnectionPool connectionPool,
+            final PartitionManager partitions) {
+        this.directory = directory;
+        this.connectionPool = connectionPool;
+        this.partitions = partitions;
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                LocalDate day = parseDay(file.getName());
+                if (day != null) {
+                    indexed.add(day);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param indexDays
+     *            Number of past days indexed besides the current one.
+     */
+    public void setIndexDays(final int indexDays) {
+        this.indexDays = indexDays;
+    }
+
+    /**
+     * @param expectedRowsPerDay
+     *            Sizes the filters of the current day, whose final number of
+     *            rows is not known yet.
+     */
+    public void setExpectedRowsPerDay(final int expectedRowsPerDay) {
+        this.expectedRowsPerDay = expectedRowsPerDay;
+    }
+
+    /**
+     * Refreshes the index now and then every hour on a background thread.
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r, "transaction-index");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, 0, 1, TimeUnit.HOURS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        save();
+    }
+
+    /**
+     * @return The days of the range that may contain the msisdn.
+     */
+    public List<LocalDate> daysWithMsisdn(final DayRange range,
+            final String msisdn) {
+        return candidates(range, msisdn, true);
+    }
+
+    /**
+     * @return The days of the range that may contain the ref_id.
+     */
+    public List<LocalDate> daysWithRefId(final DayRange range,
+            final String refId) {
+        return candidates(range, refId, false);
+    }
+
+    /**
+     * Marks a day as possibly holding rows missing from its filters, e.g.
+     * because rows were added to it on another node. The day is reported as
+     * a possible match until the next refresh rebuilds it.
+     */
+    public void invalidate(final LocalDate day) {
+        stale.put(day, invalidations.incrementAndGet());
+    }
+
+    /**
+     * Marks all indexed days as possibly holding rows missing from their
+     * filters.
+     */
+    public void invalidateAll() {
+        for (LocalDate day : new ArrayList<LocalDate>(indexed)) {
+            invalidate(day);
+        }
+    }
+
+    /**
+     * Builds the missing days, rebuilds the past days that changed, saves
+     * changed filters and deletes the files of days no longer indexed.
+     */
+    public synchronized void refresh() {
+        LocalDate today = LocalDate.now(zone);
+        LocalDate first = today.minusDays(indexDays);
+        for (LocalDate day : new ArrayList<LocalDate>(indexed)) {
+            if (day.isBefore(first)) {
+                indexed.remove(day);
+                checked.remove(day);
+                open.remove(day);
+                saved.invalidate(day);
+                fileOf(day).delete();
+            }
+        }
+        for (LocalDate day : new ArrayList<LocalDate>(stale.keySet())) {
+            if (day.isBefore(first)) {
+                stale.remove(day);
+            }
+        }
+        try {
+            for (LocalDate day = first; !day.isAfter(today); day = day
+                    .plusDays(1)) {
+                boolean current = day.equals(today);
+                if (!indexed.contains(day)) {
+                    build(day, current);
+                } else if (!current && !isUpToDate(day)) {
+                    build(day, false);
+                } else if (!current) {
+                    checked.add(day);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        save();
+    }
+
+    @Override
+    public void rowsCommitted(final List<TransactionRow> rows) {
+        LocalDate day = null;
+        DayFilters filters = null;
+        for (TransactionRow row : rows) {
+            LocalDate rowDay = toLocalDate(row.getDateTime());
+            if (!rowDay.equals(day)) {
+                day = rowDay;
+                filters = filtersForUpdate(day);
+            }
+            if (filters != null) {
+                filters.put(row.getMsisdn(), row.getRefId());
+            }
+        }
+    }
+
+    /*
+     * Filters of a day to add rows to, pinned in memory until saved. Null if
+     * the day is not indexed yet, it is then built with all of its rows.
+     */
+    private DayFilters filtersForUpdate(final LocalDate day) {
+        DayFilters filters = open.get(day);
+        if (filters == null && indexed.contains(day)) {
+            try {
+                filters = load(day);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            DayFilters previous = open.putIfAbsent(day, filters);
+            if (previous != null) {
+                filters = previous;
+            }
+        }
+        return filters;
+    }
+
+    /*
+     * The current day may get rows from writers the index doesn't see at
+     * any time, so it is never ruled out, and neither is a day that ended
+     * before a refresh compared it with the database.
+     */
+    private List<LocalDate> candidates(final DayRange range,
+            final String key, final boolean msisdn) {
+        LocalDate today = LocalDate.now(zone);
+        List<LocalDate> days = new ArrayList<LocalDate>();
+        for (LocalDate day = range.getFirstDay(); day.isBefore(range
+                .getEndDay()); day = day.plusDays(1)) {
+            DayFilters filters = null;
+            if (indexed.contains(day) && day.isBefore(today)
+                    && checked.contains(day) && !stale.containsKey(day)) {
+                filters = open.get(day);
+                if (filters == null) {
+                    try {
+                        filters = load(day);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            if (filters == null || filters.mightContain(key, msisdn)) {
+                days.add(day);
+            }
+        }
+        return days;
+    }
+
+    /*
+     * The filters of the past day hold as many rows as the database, and
+     * the day wasn't invalidated since they were built.
+     */
+    private boolean isUpToDate(final LocalDate day) throws SQLException {
+        if (stale.containsKey(day)) {
+            return false;
+        }
+        DayFilters filters = open.get(day);
+        if (filters == null) {
+            try {
+                filters = load(day);
+            } catch (IOException e) {
+                // E.g. written by an older version, rebuilt
+                return false;
+            }
+        }
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            return filters.getRows() == countRows(connection,
+                    DayRange.between(day, day.plusDays(1)));
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Reads the keys of a day from the database. The filters of the current
+     * day are opened before reading, so that rows committed meanwhile are
+     * not missed. An invalidation of the day before the read is resolved by
+     * the build.
+     */
+    private void build(final LocalDate day, final boolean current)
+            throws SQLException {
+        DayRange range = DayRange.between(day, day.plusDays(1));
+        Long invalidation = stale.get(day);
+        boolean complete = false;
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            DayFilters filters;
+            if (current) {
+                filters = new DayFilters(expectedRowsPerDay);
+                open.put(day, filters);
+                indexed.add(day);
+            } else {
+                filters = new DayFilters(Math.max(MIN_EXPECTED,
+                        countRows(connection, range)));
+            }
+            PreparedStatement statement = connection.prepareStatement(
+                    String.format(DAY_KEYS, partitions.source(range)),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                statement.setFetchSize(FETCH_SIZE);
+                setRange(statement, range);
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    filters.put(rs.getString(1), rs.getString(2));
+                }
+            } finally {
+                statement.close();
+            }
+            if (!current) {
+                open.put(day, filters);
+                saved.invalidate(day);
+                indexed.add(day);
+                checked.add(day);
+            }
+            if (invalidation != null) {
+                stale.remove(day, invalidation);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                // Incomplete filters would rule out days wrongly
+                open.remove(day);
+                indexed.remove(day);
+                checked.remove(day);
+            }
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Writes the changed filters. Filters of past days are released
+     * afterwards, they are read back from their file when needed.
+     */
+    private void save() {
+        LocalDate today = LocalDate.now(zone);
+        for (Map.Entry<LocalDate, DayFilters> e : open.entrySet()) {
+            LocalDate day = e.getKey();
+            DayFilters filters = e.getValue();
+            try {
+                filters.writeIfChanged(fileOf(day));
+                if (day.isBefore(today)) {
+                    saved.put(day, filters);
+                    open.remove(day, filters);
+                    // Rows added since writing pin the filters again
+                    if (filters.isChanged()) {
+                        open.putIfAbsent(day, filters);
+                    }
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private DayFilters load(final LocalDate day) throws IOException {
+        try {
+            return saved.get(day, new Callable<DayFilters>() {
+                @Override
+                public DayFilters call() throws IOException {
+                    return DayFilters.read(fileOf(day));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private int countRows(final Connection connection, final DayRange range)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(String
+                .format(DAY_COUNT, partitions.source(range)));
+        try {
+            setRange(statement, range);
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void setRange(final PreparedStatement statement,
+            final DayRange range) throws SQLException {
+        statement.setTimestamp(1, new Timestamp(range.getStart().getTime()));
+        statement.setTimestamp(2, new Timestamp(range.getEnd().getTime()));
+    }
+
+    private File fileOf(final LocalDate day) {
+        return new File(directory, FILE_PREFIX + day + FILE_SUFFIX);
+    }
+
+    private LocalDate toLocalDate(final long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+    }
+
+    private static LocalDate parseDay(final String name) {
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /*
+     * The two filters of one day. Bloom filters are not thread-safe for
+     * writes, so all access is synchronized.
+     */
+    private static final class DayFilters {
+
+        private final BloomFilter<CharSequence> msisdns;
+        private final BloomFilter<CharSequence> refIds;
+        /* Rows put, compared with the rows of the day in the database */
+        private long rows;
+        private boolean changed;
+
+        DayFilters(final int expectedRows) {
+            this(BloomFilter.create(
+                    Funnels.stringFunnel(StandardCharsets.UTF_8),
+                    expectedRows, FPP), BloomFilter.create(
+                    Funnels.stringFunnel(StandardCharsets.UTF_8),
+                    expectedRows, FPP), 0);
+        }
+
+        private DayFilters(final BloomFilter<CharSequence> msisdns,
+                final BloomFilter<CharSequence> refIds, final long rows) {
+            this.msisdns = msisdns;
+            this.refIds = refIds;
+            this.rows = rows;
+        }
+
+        synchronized void put(final String msisdn, final String refId) {
+            if (msisdn != null) {
+                msisdns.put(msisdn);
+            }
+            if (refId != null) {
+                refIds.put(refId);
+            }
+            rows++;
+            changed = true;
+        }
+
+        synchronized boolean mightContain(final String key,
+                final boolean msisdn) {
+            return (msisdn ? msisdns : refIds).mightContain(key);
+        }
+
+        synchronized long getRows() {
+            return rows;
+        }
+
+        synchronized boolean isChanged() {
+            return changed;
+        }
+
+        /*
+         * Writes to a temporary file first, so that a crash never leaves a
+         * truncated file behind.
+         */
+        synchronized void writeIfChanged(final File file) throws IOException {
+            if (!changed) {
+                return;
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeLong(rows);
+                msisdns.writeTo(out);
+                refIds.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Cannot write " + file);
+                }
+            }
+            changed = false;
+        }
+
+        static DayFilters read(final File file) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not an index file: " + file);
+                }
+                long rows = in.readLong();
+                return new DayFilters(BloomFilter.readFrom(in,
+                        Funnels.stringFunnel(StandardCharsets.UTF_8)),
+                        BloomFilter.readFrom(in,
+                                Funnels.stringFunnel(StandardCharsets.UTF_8)),
+                        rows);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
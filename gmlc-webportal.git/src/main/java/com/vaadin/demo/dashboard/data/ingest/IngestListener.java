@@ -0,0 +1,24 @@
+package com.vaadin.demo.dashboard.data.ingest;
+
+import java.util.List;
+
+import com.vaadin.demo.dashboard.data.TransactionRow;
+
+/**
+ * Receives the rows of <code>transaction_tab</code> written by a
+ * {@link TransactionIngestService}, e.g. to update caches and rollups without
+ * reading the rows back from the database.
+ * <p>
+ * Listeners are called on the writer thread after each commit, so they must
+ * return quickly. Exceptions thrown by a listener are logged and do not
+ * affect other listeners or the written rows.
+ */
+public interface IngestListener {
+
+    /**
+     * @param rows
+     *            Rows of one committed group, in the order they were
+     *            submitted. The list must not be modified.
+     */
+    void rowsCommitted(List<TransactionRow> rows);
+}
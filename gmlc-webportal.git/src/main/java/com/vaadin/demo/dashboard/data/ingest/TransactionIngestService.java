@@ -0,0 +1,396 @@
+package com.vaadin.demo.dashboard.data.ingest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+
+/**
+ * The write path of <code>transaction_tab</code>. Rows submitted by the GMLC
+ * nodes are queued in memory and written by a single writer thread over one
+ * connection at a time, as multi-row inserts that are committed in groups.
+ * <p>
+ * A group is committed when it reaches the group size or when its oldest row
+ * has waited for the maximum delay, whichever comes first. The queue is
+ * bounded: when the database can't keep up, {@link #submit} waits for room
+ * and finally rejects the row, so that the caller can back off instead of
+ * the portal running out of memory.
+ * <p>
+ * A group that still fails after the retries is written row by row, so that
+ * a single bad row costs only itself.
+ * <p>
+ * Committed rows are handed to the registered {@link IngestListener}s.
+ * <p>
+ * With a {@link PartitionManager} set, each row is inserted into the table of
+ * its partition.
+ */
+public class TransactionIngestService {
+
+    private static final String TABLE = "transaction_tab";
+
+    /* Times a failed group is retried before it is written row by row */
+    private static final int RETRIES = 3;
+    private static final long RETRY_DELAY = 1000;
+
+    private final JDBCConnectionPool connectionPool;
+    private final List<IngestListener> listeners = new CopyOnWriteArrayList<IngestListener>();
+
+    private int queueCapacity = 50000;
+    private int groupSize = 2000;
+    private long maxDelayMillis = 200;
+    private int rowsPerStatement = 100;
+    private PartitionManager partitions;
+
+    private BlockingQueue<TransactionRow> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+
+    public TransactionIngestService(final JDBCConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * @param queueCapacity
+     *            Maximum number of rows waiting to be written.
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param groupSize
+     *            Maximum number of rows committed together.
+     */
+    public void setGroupSize(final int groupSize) {
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * @param maxDelayMillis
+     *            Maximum time a row waits for its group to fill up.
+     */
+    public void setMaxDelayMillis(final long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param rowsPerStatement
+     *            Number of rows in one multi-row INSERT statement.
+     */
+    public void setRowsPerStatement(final int rowsPerStatement) {
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    /**
+     * @param partitions
+     *            Routes rows to their partition, null to insert into
+     *            transaction_tab.
+     */
+    public void setPartitions(final PartitionManager partitions) {
+        this.partitions = partitions;
+    }
+
+    public void addListener(final IngestListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final IngestListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<TransactionRow>(queueCapacity);
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "transaction-ingest");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting rows, writes the rows still queued and stops the writer
+     * thread.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        writer.join();
+        writer = null;
+    }
+
+    /**
+     * Queues a row for writing, waiting at most the given time for room in
+     * the queue.
+     *
+     * @return true if the row was queued, false if the queue stayed full or
+     *         the service is not running.
+     */
+    public boolean submit(final TransactionRow row, final long timeout,
+            final TimeUnit unit) throws InterruptedException {
+        if (!running || !queue.offer(row, timeout, unit)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of rows waiting to be written.
+     */
+    public int getQueued() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return Number of rows not queued because the queue was full.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Number of queued rows that could not be written.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getGroups() {
+        return groups.get();
+    }
+
+    private void writeLoop() {
+        List<TransactionRow> group = new ArrayList<TransactionRow>(groupSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                fill(group);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!group.isEmpty()) {
+                write(group);
+                group = new ArrayList<TransactionRow>(groupSize);
+            }
+        }
+    }
+
+    /*
+     * Waits for the first row of a group, then collects rows until the group
+     * is full or the first row has waited for the maximum delay.
+     */
+    private void fill(final List<TransactionRow> group)
+            throws InterruptedException {
+        TransactionRow first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        group.add(first);
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        while (group.size() < groupSize) {
+            queue.drainTo(group, groupSize - group.size());
+            long wait = deadline - System.nanoTime();
+            if (group.size() >= groupSize || wait <= 0 || !running) {
+                break;
+            }
+            TransactionRow next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+        }
+    }
+
+    private void write(final List<TransactionRow> group) {
+        List<TransactionRow> rows = group;
+        for (int attempt = 0;; attempt++) {
+            try {
+                insert(group);
+                break;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                if (attempt == RETRIES) {
+                    rows = writeRows(group);
+                    break;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException ie) {
+                    running = false;
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        written.addAndGet(rows.size());
+        groups.incrementAndGet();
+        List<TransactionRow> committed = Collections.unmodifiableList(rows);
+        for (IngestListener listener : listeners) {
+            try {
+                listener.rowsCommitted(committed);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * Writes each row of the group in its own transaction, dropping the rows
+     * that fail.
+     *
+     * @return The rows written.
+     */
+    private List<TransactionRow> writeRows(final List<TransactionRow> group) {
+        List<TransactionRow> rows = new ArrayList<TransactionRow>(group.size());
+        boolean failing = false;
+        for (TransactionRow row : group) {
+            try {
+                insert(Collections.singletonList(row));
+                rows.add(row);
+            } catch (SQLException e) {
+                // Logged once per group, the group failure is logged already
+                if (!failing) {
+                    e.printStackTrace();
+                    failing = true;
+                }
+                dropped.incrementAndGet();
+            }
+        }
+        return rows;
+    }
+
+    /*
+     * Writes the group in one transaction.
+     */
+    private void insert(final List<TransactionRow> group) throws SQLException {
+        Map<String, List<TransactionRow>> byTable = new LinkedHashMap<String, List<TransactionRow>>();
+        for (TransactionRow row : group) {
+            String table = partitions == null ? TABLE : partitions
+                    .tableFor(row.getDateTime());
+            List<TransactionRow> rows = byTable.get(table);
+            if (rows == null) {
+                rows = new ArrayList<TransactionRow>();
+                byTable.put(table, rows);
+            }
+            rows.add(row);
+        }
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            try {
+                connection.setAutoCommit(false);
+                for (Map.Entry<String, List<TransactionRow>> e : byTable
+                        .entrySet()) {
+                    insert(connection, e.getKey(), e.getValue());
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                // The failure of the insert is the one to report
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw e;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // The group is committed or rolled back already
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Full statements of rowsPerStatement rows as one JDBC batch, then the
+     * remaining rows.
+     */
+    private void insert(final Connection connection, final String table,
+            final List<TransactionRow> group) throws SQLException {
+        int fullRows = group.size() - group.size() % rowsPerStatement;
+        if (fullRows > 0) {
+            PreparedStatement statement = connection
+                    .prepareStatement(insertSql(table, rowsPerStatement));
+            try {
+                for (int i = 0; i < fullRows; i += rowsPerStatement) {
+                    bind(statement, group.subList(i, i + rowsPerStatement));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } finally {
+                statement.close();
+            }
+        }
+        if (fullRows < group.size()) {
+            PreparedStatement statement = connection
+                    .prepareStatement(insertSql(table, group.size()
+                            - fullRows));
+            try {
+                bind(statement, group.subList(fullRows, group.size()));
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    private static void bind(final PreparedStatement statement,
+            final List<TransactionRow> rows) throws SQLException {
+        int index = 1;
+        for (TransactionRow row : rows) {
+            index = row.bind(statement, index);
+        }
+    }
+
+    static String insertSql(final String table, final int rows) {
+        StringBuilder sb = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(TransactionRow.COLUMNS)
+                .append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sb.append(i == 0 ? "(" : ", (");
+            for (int c = 0; c < TransactionRow.COLUMN_COUNT; c++) {
+                sb.append(c == 0 ? "?" : ", ?");
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
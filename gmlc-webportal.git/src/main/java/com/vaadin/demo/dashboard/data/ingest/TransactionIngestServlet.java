@@ -0,0 +1,169 @@
+package com.vaadin.demo.dashboard.data.ingest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.vaadin.data.util.sqlcontainer.connection.J2EEConnectionPool;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.dummy.DummyDataProvider;
+
+/**
+ * HTTP endpoint the GMLC nodes post their transaction rows to, instead of
+ * inserting them over their own connections.
+ * <p>
+ * The request body holds one row per line with the tab separated columns
+ * ref_id, seq_id, module_name, date_time (epoch milliseconds), msisdn,
+ * service_id and cell_id. The response is 202 once all rows are queued, or
+ * 503 with a Retry-After header when the queue stays full; the rows before
+ * the one rejected are queued, their count is in the response body.
+ * <p>
+ * A request has to carry the secret shared with the GMLC nodes,
+ * <code>dashboard.ingestSecret</code>, as <code>Authorization: Bearer
+ * &lt;secret&gt;</code>; without a configured secret all requests are
+ * refused. <code>dashboard.ingestHosts</code> optionally limits the requests
+ * to a comma separated list of client addresses.
+ */
+@SuppressWarnings("serial")
+@WebServlet(urlPatterns = "/ingest/transactions", loadOnStartup = 1)
+public class TransactionIngestServlet extends HttpServlet {
+
+    /* How long a request may wait for room in the queue per row */
+    private static final long SUBMIT_TIMEOUT = 500;
+
+    private static final String BEARER = "Bearer ";
+
+    private static volatile TransactionIngestService service;
+
+    private byte[] secret;
+    private Set<String> hosts;
+
+    /**
+     * @return The ingest service of the portal, or null if the servlet has
+     *         not been initialized.
+     */
+    public static TransactionIngestService getService() {
+        return service;
+    }
+
+    @Override
+    public void init() throws ServletException {
+        JDBCConnectionPool pool = new J2EEConnectionPool(
+                "java:comp/env/jdbc/tldb");
+        TransactionIngestService s = new TransactionIngestService(pool);
+        // Inserts go to the partitions the portal creates and reads
+        s.setPartitions(DummyDataProvider.getPartitions());
+        s.start();
+        service = s;
+
+        String configured = System.getProperty("dashboard.ingestSecret");
+        if (configured == null || configured.isEmpty()) {
+            log("dashboard.ingestSecret is not set, refusing all rows");
+        } else {
+            secret = configured.getBytes(StandardCharsets.UTF_8);
+        }
+        String allowed = System.getProperty("dashboard.ingestHosts");
+        if (allowed != null) {
+            hosts = new HashSet<String>();
+            for (String host : allowed.split(",")) {
+                hosts.add(host.trim());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            service.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        service = null;
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req,
+            final HttpServletResponse resp) throws ServletException,
+            IOException {
+        if (hosts != null && !hosts.contains(req.getRemoteAddr())) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        if (!authorized(req.getHeader("Authorization"))) {
+            resp.setHeader("WWW-Authenticate", "Bearer");
+            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        BufferedReader reader = req.getReader();
+        int queued = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            TransactionRow row = parse(line);
+            if (row == null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Malformed row on line " + lineNumber + ", " + queued
+                                + " rows queued");
+                return;
+            }
+            try {
+                if (!service.submit(row, SUBMIT_TIMEOUT,
+                        TimeUnit.MILLISECONDS)) {
+                    resp.setHeader("Retry-After", "1");
+                    resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    resp.getWriter().print(queued);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(e);
+            }
+            queued++;
+        }
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        resp.getWriter().print(queued);
+    }
+
+    /*
+     * Compares in constant time, so that the secret can't be guessed from
+     * the response times.
+     */
+    private boolean authorized(final String header) {
+        if (secret == null || header == null || !header.startsWith(BEARER)) {
+            return false;
+        }
+        return MessageDigest.isEqual(secret,
+                header.substring(BEARER.length()).getBytes(
+                        StandardCharsets.UTF_8));
+    }
+
+    private static TransactionRow parse(final String line) {
+        String[] columns = line.split("\t", -1);
+        if (columns.length != TransactionRow.COLUMN_COUNT) {
+            return null;
+        }
+        try {
+            return new TransactionRow(columns[0],
+                    Integer.parseInt(columns[1]), columns[2],
+                    Long.parseLong(columns[3]), columns[4], columns[5],
+                    columns[6]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.vaadin.demo.dashboard.data.invalidation;
+
+/**
+ * Hit and miss counts of one cache of one portal node, as last shared over
+ * the {@link InvalidationBus}.
+ */
+public final class CacheHitRate {
+
+    private final String node;
+    private final String cacheName;
+    private final long hits;
+    private final long misses;
+
+    public CacheHitRate(final String node, final String cacheName,
+            final long hits, final long misses) {
+        this.node = node;
+        this.cacheName = cacheName;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Hits per request, 1 if there were no requests.
+     */
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+}
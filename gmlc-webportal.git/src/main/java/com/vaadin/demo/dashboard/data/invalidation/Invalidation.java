@@ -0,0 +1,93 @@
+package com.vaadin.demo.dashboard.data.invalidation;
+
+import java.time.LocalDate;
+
+/**
+ * Tells the caches of all portal nodes that data they may hold has changed.
+ */
+public final class Invalidation {
+
+    public enum Kind {
+        /** The rows of a day changed, the key is the day (yyyy-MM-dd). */
+        DAY,
+        /** The rows of a subscriber changed, the key is the msisdn. */
+        MSISDN,
+        /** Any rows may have changed, the key is empty. */
+        ALL,
+        /**
+         * The unread notifications of a user changed, the key is the user
+         * name, empty for all users.
+         */
+        UNREAD
+    }
+
+    private final Kind kind;
+    private final String key;
+
+    public Invalidation(final Kind kind, final String key) {
+        this.kind = kind;
+        this.key = key;
+    }
+
+    public static Invalidation day(final LocalDate day) {
+        return new Invalidation(Kind.DAY, day.toString());
+    }
+
+    public static Invalidation msisdn(final String msisdn) {
+        return new Invalidation(Kind.MSISDN, msisdn);
+    }
+
+    public static Invalidation all() {
+        return new Invalidation(Kind.ALL, "");
+    }
+
+    /**
+     * @param userName
+     *            User name, or null for all users.
+     */
+    public static Invalidation unread(final String userName) {
+        return new Invalidation(Kind.UNREAD, userName == null ? "" : userName);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The day of a {@link Kind#DAY} invalidation.
+     */
+    public LocalDate getDay() {
+        return LocalDate.parse(key);
+    }
+
+    /**
+     * @return The user of an {@link Kind#UNREAD} invalidation, null for all
+     *         users.
+     */
+    public String getUserName() {
+        return key.isEmpty() ? null : key;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof Invalidation)) {
+            return false;
+        }
+        Invalidation other = (Invalidation) obj;
+        return kind == other.kind && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return kind.hashCode() * 31 + key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + key;
+    }
+}
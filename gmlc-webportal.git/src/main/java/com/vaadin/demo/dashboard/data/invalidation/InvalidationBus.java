@@ -0,0 +1,46 @@
+package com.vaadin.demo.dashboard.data.invalidation;
+
+import java.util.Collection;
+
+/**
+ * Carries {@link Invalidation}s between the portal nodes behind a load
+ * balancer, so that each node can cache statistics and locations without
+ * serving data another node has already seen change. The nodes also share
+ * the hit rates of their caches over the bus.
+ */
+public interface InvalidationBus {
+
+    /**
+     * Receives the invalidations of all nodes, including the own ones.
+     * Listeners must return quickly and may be called on any thread.
+     */
+    interface Listener {
+        void invalidated(Invalidation invalidation);
+    }
+
+    /**
+     * Counts of a cache of this node, read whenever the node shares them.
+     */
+    interface HitCounter {
+        long getHits();
+
+        long getMisses();
+    }
+
+    /**
+     * Delivers the invalidation to the listeners of this node right away and
+     * to those of the other nodes as soon as the bus allows.
+     */
+    void publish(Invalidation invalidation);
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+
+    void addHitCounter(String cacheName, HitCounter counter);
+
+    /**
+     * @return The latest hit rates of the caches of all nodes.
+     */
+    Collection<CacheHitRate> getHitRates();
+}
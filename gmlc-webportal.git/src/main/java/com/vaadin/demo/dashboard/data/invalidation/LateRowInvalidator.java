@@ -0,0 +1,46 @@
+package com.vaadin.demo.dashboard.data.invalidation;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.vaadin.demo.dashboard.data.DayRange;
+import com.vaadin.demo.dashboard.data.TransactionRow;
+import com.vaadin.demo.dashboard.data.ingest.IngestListener;
+
+/**
+ * Publishes a {@link Invalidation.Kind#DAY} invalidation for every past day
+ * that ingested rows were added to.
+ * <p>
+ * Rows of today are not published, the caches reload ranges including
+ * today on their own after a short while, and invalidating them on every
+ * commit would leave nothing cached.
+ */
+public class LateRowInvalidator implements IngestListener {
+
+    private final InvalidationBus bus;
+
+    public LateRowInvalidator(final InvalidationBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public void rowsCommitted(final List<TransactionRow> rows) {
+        ZoneId zone = DayRange.getZone();
+        LocalDate today = LocalDate.now(zone);
+        Set<LocalDate> days = new HashSet<LocalDate>();
+        for (TransactionRow row : rows) {
+            LocalDate day = Instant.ofEpochMilli(row.getDateTime())
+                    .atZone(zone).toLocalDate();
+            if (day.isBefore(today)) {
+                days.add(day);
+            }
+        }
+        for (LocalDate day : days) {
+            bus.publish(Invalidation.day(day));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.vaadin.demo.dashboard.data.invalidation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An {@link InvalidationBus} of a single node, e.g. for a stand-alone portal
+ * or tests. Invalidations are delivered on the publishing thread.
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+
+    private final String node;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Map<String, HitCounter> counters = new ConcurrentHashMap<String, HitCounter>();
+
+    public LocalInvalidationBus(final String node) {
+        this.node = node;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    @Override
+    public void publish(final Invalidation invalidation) {
+        deliver(invalidation);
+    }
+
+    /**
+     * Delivers an invalidation to the listeners of this node only.
+     */
+    void deliver(final Invalidation invalidation) {
+        for (Listener listener : listeners) {
+            try {
+                listener.invalidated(invalidation);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void addHitCounter(final String cacheName, final HitCounter counter) {
+        counters.put(cacheName, counter);
+    }
+
+    @Override
+    public Collection<CacheHitRate> getHitRates() {
+        List<CacheHitRate> result = new ArrayList<CacheHitRate>();
+        for (Map.Entry<String, HitCounter> e : counters.entrySet()) {
+            result.add(new CacheHitRate(node, e.getKey(), e.getValue()
+                    .getHits(), e.getValue().getMisses()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,358 @@
+package com.vaadin.demo.dashboard.data.invalidation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+
+/**
+ * An {@link InvalidationBus} between the nodes sharing a database, through
+ * the tables:
+ *
+ * <pre>
+ * CREATE TABLE cache_invalidation (id BIGINT AUTO_INCREMENT PRIMARY KEY,
+ *     node VARCHAR(64), created TIMESTAMP, kind VARCHAR(16),
+ *     cache_key VARCHAR(64));
+ * CREATE INDEX cache_invalidation_created ON cache_invalidation (created);
+ * CREATE TABLE cache_stats (node VARCHAR(64), cache_name VARCHAR(64),
+ *     hits BIGINT, misses BIGINT, updated TIMESTAMP,
+ *     PRIMARY KEY (node, cache_name));
+ * </pre>
+ *
+ * Published invalidations are inserted on a background thread, which also
+ * polls for the invalidations of the other nodes. Each poll reads from a few
+ * seconds before the last successful one, so that rows committed late are
+ * not missed, and delivers every row once. If the polls failed for so long
+ * that the rows since the last one may have been purged, an
+ * {@link Invalidation#all()} is delivered instead. All times are taken from
+ * the database, so clock differences between the nodes don't matter.
+ */
+public class TableInvalidationBus implements InvalidationBus {
+
+    private static final String INSERT = "INSERT INTO cache_invalidation (node, created, kind, cache_key)"
+            + " VALUES (?, CURRENT_TIMESTAMP, ?, ?)";
+    private static final String NOW = "SELECT CURRENT_TIMESTAMP";
+    private static final String POLL = "SELECT id, node, created, kind, cache_key FROM cache_invalidation"
+            + " WHERE created >= ? ORDER BY id";
+    private static final int PURGE_MINUTES = 10;
+    private static final String PURGE = "DELETE FROM cache_invalidation"
+            + " WHERE created < TIMESTAMPADD(MINUTE, -" + PURGE_MINUTES
+            + ", CURRENT_TIMESTAMP)";
+    private static final String UPDATE_STATS = "UPDATE cache_stats SET hits = ?, misses = ?, updated = CURRENT_TIMESTAMP"
+            + " WHERE node = ? AND cache_name = ?";
+    private static final String INSERT_STATS = "INSERT INTO cache_stats (node, cache_name, hits, misses, updated)"
+            + " VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+    private static final String SELECT_STATS = "SELECT node, cache_name, hits, misses FROM cache_stats"
+            + " WHERE updated >= TIMESTAMPADD(MINUTE, -1, CURRENT_TIMESTAMP) ORDER BY node, cache_name";
+
+    /* Seconds every poll reads back beyond the previous one */
+    private static final int OVERLAP_SECONDS = 10;
+
+    private static final long STATS_SECONDS = 10;
+    private static final long PURGE_SECONDS = 60;
+
+    private final JDBCConnectionPool connectionPool;
+    private final LocalInvalidationBus local;
+    private final Map<String, HitCounter> counters = new HashMap<String, HitCounter>();
+
+    /* Rows of the overlap already delivered, by id, with their creation time */
+    private final Map<Long, Long> delivered = new HashMap<Long, Long>();
+
+    /* Database time of the last successful poll, null before the first */
+    private Timestamp lastPoll;
+
+    private long pollMillis = 1000;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param node
+     *            Name of this node, unique among the nodes.
+     */
+    public TableInvalidationBus(final JDBCConnectionPool connectionPool,
+            final String node) {
+        this.connectionPool = connectionPool;
+        local = new LocalInvalidationBus(node);
+    }
+
+    public void setPollMillis(final long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, "cache-invalidation");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        scheduler.scheduleWithFixedDelay(new Task() {
+            @Override
+            void runTask() throws SQLException {
+                poll();
+            }
+        }, 0, pollMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(new Task() {
+            @Override
+            void runTask() throws SQLException {
+                shareHitRates();
+            }
+        }, STATS_SECONDS, STATS_SECONDS, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(new Task() {
+            @Override
+            void runTask() throws SQLException {
+                execute(PURGE);
+            }
+        }, PURGE_SECONDS, PURGE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /*
+     * Called on the writer thread of the ingest service, so only the local
+     * delivery happens right away.
+     */
+    @Override
+    public synchronized void publish(final Invalidation invalidation) {
+        local.deliver(invalidation);
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.execute(new Task() {
+            @Override
+            void runTask() throws SQLException {
+                insert(invalidation);
+            }
+        });
+    }
+
+    @Override
+    public void addListener(final Listener listener) {
+        local.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(final Listener listener) {
+        local.removeListener(listener);
+    }
+
+    @Override
+    public void addHitCounter(final String cacheName, final HitCounter counter) {
+        synchronized (counters) {
+            counters.put(cacheName, counter);
+        }
+    }
+
+    @Override
+    public Collection<CacheHitRate> getHitRates() {
+        List<CacheHitRate> result = new ArrayList<CacheHitRate>();
+        try {
+            Connection connection = connectionPool.reserveConnection();
+            try {
+                PreparedStatement statement = connection
+                        .prepareStatement(SELECT_STATS);
+                try {
+                    ResultSet rs = statement.executeQuery();
+                    while (rs.next()) {
+                        result.add(new CacheHitRate(rs.getString(1), rs
+                                .getString(2), rs.getLong(3), rs.getLong(4)));
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                connectionPool.releaseConnection(connection);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private void insert(final Invalidation invalidation) throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            try {
+                statement.setString(1, local.getNode());
+                statement.setString(2, invalidation.getKind().name());
+                statement.setString(3, invalidation.getKey());
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+            commit(connection);
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Only called on the scheduler thread.
+     */
+    private void poll() throws SQLException {
+        List<Invalidation> received = new ArrayList<Invalidation>();
+        Timestamp now;
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            now = databaseTime(connection);
+            long from = (lastPoll != null ? lastPoll : now).getTime()
+                    - OVERLAP_SECONDS * 1000L;
+            if (now.getTime() - from >= TimeUnit.MINUTES
+                    .toMillis(PURGE_MINUTES)) {
+                // Rows since the last poll may have been purged
+                received.add(Invalidation.all());
+                from = now.getTime() - OVERLAP_SECONDS * 1000L;
+            }
+            PreparedStatement statement = connection.prepareStatement(POLL);
+            try {
+                statement.setTimestamp(1, new Timestamp(from));
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    long created = rs.getTimestamp(3).getTime();
+                    if (delivered.put(rs.getLong(1), created) != null
+                            || local.getNode().equals(rs.getString(2))) {
+                        continue;
+                    }
+                    try {
+                        received.add(new Invalidation(Invalidation.Kind
+                                .valueOf(rs.getString(4)), rs.getString(5)));
+                    } catch (IllegalArgumentException e) {
+                        // Published by a newer version of the portal
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+
+        // Rows before the next poll's overlap are not read again
+        lastPoll = now;
+        long oldest = now.getTime() - OVERLAP_SECONDS * 1000L;
+        for (Iterator<Long> i = delivered.values().iterator(); i.hasNext();) {
+            if (i.next() < oldest) {
+                i.remove();
+            }
+        }
+        for (Invalidation invalidation : received) {
+            local.deliver(invalidation);
+        }
+    }
+
+    private static Timestamp databaseTime(final Connection connection)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(NOW);
+        try {
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getTimestamp(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void shareHitRates() throws SQLException {
+        Map<String, HitCounter> current;
+        synchronized (counters) {
+            current = new HashMap<String, HitCounter>(counters);
+        }
+        if (current.isEmpty()) {
+            return;
+        }
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            for (Map.Entry<String, HitCounter> e : current.entrySet()) {
+                long hits = e.getValue().getHits();
+                long misses = e.getValue().getMisses();
+                PreparedStatement statement = connection
+                        .prepareStatement(UPDATE_STATS);
+                try {
+                    statement.setLong(1, hits);
+                    statement.setLong(2, misses);
+                    statement.setString(3, local.getNode());
+                    statement.setString(4, e.getKey());
+                    if (statement.executeUpdate() == 0) {
+                        statement.close();
+                        statement = connection.prepareStatement(INSERT_STATS);
+                        statement.setString(1, local.getNode());
+                        statement.setString(2, e.getKey());
+                        statement.setLong(3, hits);
+                        statement.setLong(4, misses);
+                        statement.executeUpdate();
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+            commit(connection);
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    private void execute(final String sql) throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            try {
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+            commit(connection);
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+    }
+
+    private static void commit(final Connection connection)
+            throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /*
+     * Keeps the schedule alive when the database is unavailable for a while.
+     */
+    private abstract static class Task implements Runnable {
+
+        abstract void runTask() throws SQLException;
+
+        @Override
+        public void run() {
+            try {
+                runTask();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
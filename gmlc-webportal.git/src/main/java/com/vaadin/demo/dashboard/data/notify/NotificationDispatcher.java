@@ -0,0 +1,159 @@
+package com.vaadin.demo.dashboard.data.notify;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.vaadin.demo.dashboard.domain.DashboardNotification;
+import com.vaadin.server.ClientConnector.DetachEvent;
+import com.vaadin.server.ClientConnector.DetachListener;
+import com.vaadin.ui.UI;
+
+/**
+ * Publishes notifications to the {@link NotificationStore} and pushes them to
+ * the connected sessions of their recipients. One dispatcher serves all
+ * sessions, so an alert for hundreds of sessions is stored once and fanned
+ * out on a single background thread, and no session has to poll.
+ */
+public class NotificationDispatcher {
+
+    /**
+     * Receives the notifications of one user.
+     */
+    public interface Listener {
+
+        /**
+         * @param notification
+         *            Shared by all recipients, must not be modified.
+         * @param unreadCount
+         *            Unread notifications of the user, including this one.
+         */
+        void notificationReceived(DashboardNotification notification,
+                int unreadCount);
+    }
+
+    /**
+     * Handle of a registered listener.
+     */
+    public interface Registration {
+        void remove();
+    }
+
+    private final NotificationStore store;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    private final ExecutorService executor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(r, "notification-dispatch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    public NotificationDispatcher(final NotificationStore store) {
+        this.store = store;
+    }
+
+    public NotificationStore getStore() {
+        return store;
+    }
+
+    /**
+     * Stores the notification and then delivers it asynchronously.
+     *
+     * @param recipient
+     *            User name, or null for all users.
+     */
+    public void publish(final String recipient,
+            final DashboardNotification notification) throws SQLException {
+        store.append(recipient, notification);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(recipient, notification);
+            }
+        });
+    }
+
+    /**
+     * Registers a listener for the notifications of a user. It is called on
+     * the dispatcher thread.
+     */
+    public Registration register(final String userName,
+            final Listener listener) {
+        final Subscriber subscriber = new Subscriber(userName, listener);
+        subscribers.add(subscriber);
+        return new Registration() {
+            @Override
+            public void remove() {
+                subscribers.remove(subscriber);
+            }
+        };
+    }
+
+    /**
+     * Registers a listener of a UI that is called with the session lock held
+     * through {@link UI#access(Runnable)}, so that changes it makes are
+     * pushed if the UI uses server push. The listener is removed when the UI
+     * is detached.
+     */
+    public Registration register(final UI ui, final String userName,
+            final Listener listener) {
+        final Registration registration = register(userName, new Listener() {
+            @Override
+            public void notificationReceived(
+                    final DashboardNotification notification,
+                    final int unreadCount) {
+                ui.access(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.notificationReceived(notification,
+                                unreadCount);
+                    }
+                });
+            }
+        });
+        ui.addDetachListener(new DetachListener() {
+            @Override
+            public void detach(final DetachEvent event) {
+                registration.remove();
+            }
+        });
+        return registration;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void deliver(final String recipient,
+            final DashboardNotification notification) {
+        for (Subscriber subscriber : subscribers) {
+            if (recipient != null && !recipient.equals(subscriber.userName)) {
+                continue;
+            }
+            try {
+                subscriber.listener.notificationReceived(notification,
+                        store.getUnreadCount(subscriber.userName));
+            } catch (SQLException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class Subscriber {
+        private final String userName;
+        private final Listener listener;
+
+        Subscriber(final String userName, final Listener listener) {
+            this.userName = userName;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.vaadin.demo.dashboard.data.notify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.invalidation.Invalidation;
+import com.vaadin.demo.dashboard.data.invalidation.InvalidationBus;
+import com.vaadin.demo.dashboard.domain.DashboardNotification;
+
+/**
+ * Append-only store of {@link DashboardNotification}s, addressed to one user
+ * or to all users:
+ *
+ * <pre>
+ * CREATE TABLE notification (id BIGINT AUTO_INCREMENT PRIMARY KEY,
+ *     recipient VARCHAR(64), created TIMESTAMP, first_name VARCHAR(64),
+ *     last_name VARCHAR(64), action VARCHAR(128), content VARCHAR(1024));
+ * CREATE INDEX notification_recipient ON notification (recipient, id);
+ * CREATE TABLE notification_read (user_name VARCHAR(64) PRIMARY KEY,
+ *     last_read_id BIGINT);
+ * </pre>
+ *
+ * Notifications are never changed. What a user has read is kept as the id of
+ * the newest notification seen, and the number of unread notifications of
+ * each user is counted in memory once it has been asked for, so reading it
+ * costs no query.
+ * <p>
+ * With an {@link #setInvalidationBus(InvalidationBus) invalidation bus} set,
+ * appends and reads are published instead, and every node, this one
+ * included, counts the users concerned again when next asked, see
+ * {@link #invalidateUnread(String)}.
+ */
+public class NotificationStore {
+
+    private static final String INSERT = "INSERT INTO notification"
+            + " (recipient, created, first_name, last_name, action, content)"
+            + " VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String VISIBLE = " FROM notification WHERE (recipient = ? OR recipient IS NULL)";
+    private static final String LATEST = "SELECT id, created, first_name, last_name, action, content"
+            + VISIBLE + " ORDER BY id DESC";
+    private static final String COUNT_AFTER = "SELECT COUNT(*)" + VISIBLE
+            + " AND id > ?";
+    private static final String MAX_ID = "SELECT MAX(id)" + VISIBLE;
+    private static final String LAST_READ = "SELECT last_read_id FROM notification_read WHERE user_name = ?";
+    private static final String UPDATE_READ = "UPDATE notification_read SET last_read_id = ? WHERE user_name = ?";
+    private static final String INSERT_READ = "INSERT INTO notification_read (user_name, last_read_id) VALUES (?, ?)";
+
+    private final JDBCConnectionPool connectionPool;
+
+    /* Unread counts of the users asked for so far */
+    private final ConcurrentMap<String, AtomicInteger> unread = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private InvalidationBus bus;
+
+    public NotificationStore(final JDBCConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * @param bus
+     *            Bus shared with the other nodes using the database, whose
+     *            {@link Invalidation.Kind#UNREAD} invalidations are passed to
+     *            {@link #invalidateUnread(String)}.
+     */
+    public synchronized void setInvalidationBus(final InvalidationBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Stores a notification and sets its id.
+     *
+     * @param recipient
+     *            User name, or null for all users.
+     */
+    public synchronized void append(final String recipient,
+            final DashboardNotification notification) throws SQLException {
+        long now = System.currentTimeMillis();
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(INSERT,
+                    Statement.RETURN_GENERATED_KEYS);
+            try {
+                statement.setString(1, recipient);
+                statement.setTimestamp(2, new Timestamp(now));
+                statement.setString(3, notification.getFirstName());
+                statement.setString(4, notification.getLastName());
+                statement.setString(5, notification.getAction());
+                statement.setString(6, notification.getContent());
+                statement.executeUpdate();
+                ResultSet keys = statement.getGeneratedKeys();
+                if (keys.next()) {
+                    notification.setId(keys.getLong(1));
+                }
+            } finally {
+                statement.close();
+            }
+            commit(connection);
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+        notification.setRead(false);
+        notification.setPrettyTime(prettyTime(now, now));
+
+        if (bus != null) {
+            bus.publish(Invalidation.unread(recipient));
+        } else if (recipient == null) {
+            for (AtomicInteger count : unread.values()) {
+                count.incrementAndGet();
+            }
+        } else {
+            AtomicInteger count = unread.get(recipient);
+            if (count != null) {
+                count.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The number of notifications the user has not read yet.
+     */
+    public int getUnreadCount(final String userName) throws SQLException {
+        AtomicInteger count = unread.get(userName);
+        if (count == null) {
+            count = loadUnreadCount(userName);
+        }
+        return count.get();
+    }
+
+    /**
+     * @return The newest notifications of the user, newest first, flagged
+     *         read if they were read before.
+     */
+    public List<DashboardNotification> getLatest(final String userName,
+            final int limit) throws SQLException {
+        List<DashboardNotification> result = new ArrayList<DashboardNotification>();
+        long now = System.currentTimeMillis();
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            long lastRead = lastRead(connection, userName);
+            PreparedStatement statement = connection.prepareStatement(LATEST);
+            try {
+                statement.setMaxRows(limit);
+                statement.setString(1, userName);
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    DashboardNotification notification = new DashboardNotification();
+                    notification.setId(rs.getLong(1));
+                    notification.setRead(notification.getId() <= lastRead);
+                    notification.setPrettyTime(prettyTime(rs.getTimestamp(2)
+                            .getTime(), now));
+                    notification.setFirstName(rs.getString(3));
+                    notification.setLastName(rs.getString(4));
+                    notification.setAction(rs.getString(5));
+                    notification.setContent(rs.getString(6));
+                    result.add(notification);
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+        return result;
+    }
+
+    /**
+     * Marks all notifications of the user as read.
+     */
+    public synchronized void markAllRead(final String userName)
+            throws SQLException {
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            long newest = 0;
+            PreparedStatement statement = connection.prepareStatement(MAX_ID);
+            try {
+                statement.setString(1, userName);
+                ResultSet rs = statement.executeQuery();
+                if (rs.next()) {
+                    newest = rs.getLong(1);
+                }
+            } finally {
+                statement.close();
+            }
+            statement = connection.prepareStatement(UPDATE_READ);
+            try {
+                statement.setLong(1, newest);
+                statement.setString(2, userName);
+                if (statement.executeUpdate() == 0) {
+                    statement.close();
+                    statement = connection.prepareStatement(INSERT_READ);
+                    statement.setString(1, userName);
+                    statement.setLong(2, newest);
+                    statement.executeUpdate();
+                }
+            } finally {
+                statement.close();
+            }
+            commit(connection);
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+        if (bus != null) {
+            bus.publish(Invalidation.unread(userName));
+            return;
+        }
+        AtomicInteger count = unread.get(userName);
+        if (count != null) {
+            count.set(0);
+        }
+    }
+
+    /**
+     * Forgets the unread count of the user, so that it is counted in the
+     * database when next asked for, e.g. because another node changed it.
+     * Waits for a count being loaded, so that it can't bring back the old
+     * count.
+     *
+     * @param userName
+     *            User name, or null for all users.
+     */
+    public synchronized void invalidateUnread(final String userName) {
+        if (userName == null) {
+            unread.clear();
+        } else {
+            unread.remove(userName);
+        }
+    }
+
+    /**
+     * Prepares the statements of a session's first view on the connection,
+     * so that they are planned before the first user logs in.
+     */
+    public void prepareStatements(final Connection connection)
+            throws SQLException {
+        connection.prepareStatement(LAST_READ).close();
+        connection.prepareStatement(COUNT_AFTER).close();
+        connection.prepareStatement(LATEST).close();
+    }
+
+    /*
+     * Counts in the database once per user. Appends wait meanwhile, so that
+     * no notification is missed or counted twice.
+     */
+    private synchronized AtomicInteger loadUnreadCount(final String userName)
+            throws SQLException {
+        AtomicInteger count = unread.get(userName);
+        if (count != null) {
+            return count;
+        }
+        Connection connection = connectionPool.reserveConnection();
+        try {
+            PreparedStatement statement = connection
+                    .prepareStatement(COUNT_AFTER);
+            try {
+                statement.setString(1, userName);
+                statement.setLong(2, lastRead(connection, userName));
+                ResultSet rs = statement.executeQuery();
+                rs.next();
+                count = new AtomicInteger(rs.getInt(1));
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connectionPool.releaseConnection(connection);
+        }
+        unread.put(userName, count);
+        return count;
+    }
+
+    private static long lastRead(final Connection connection,
+            final String userName) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(LAST_READ);
+        try {
+            statement.setString(1, userName);
+            ResultSet rs = statement.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void commit(final Connection connection)
+            throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    private static String prettyTime(final long time, final long now) {
+        long minutes = Math.max(0, now - time) / 60000;
+        if (minutes < 1) {
+            return "just now";
+        } else if (minutes < 60) {
+            return minutes + (minutes == 1 ? " minute ago" : " minutes ago");
+        }
+        long hours = minutes / 60;
+        if (hours < 24) {
+            return hours + (hours == 1 ? " hour ago" : " hours ago");
+        }
+        long days = hours / 24;
+        return days + (days == 1 ? " day ago" : " days ago");
+    }
+}
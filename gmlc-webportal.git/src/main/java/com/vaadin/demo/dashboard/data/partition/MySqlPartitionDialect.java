@@ -0,0 +1,115 @@
+package com.vaadin.demo.dashboard.data.partition;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Native MySQL range partitions. The table has to be converted once, the
+ * partition key must be part of every unique key:
+ *
+ * <pre>
+ * ALTER TABLE transaction_tab DROP PRIMARY KEY, ADD PRIMARY KEY (id, date_time);
+ * ALTER TABLE transaction_tab PARTITION BY RANGE (TO_DAYS(date_time))
+ *     (PARTITION pmax VALUES LESS THAN MAXVALUE);
+ * </pre>
+ *
+ * New partitions are split off the empty catch-all partition
+ * <code>pmax</code>, so they can only be added after the newest one. Rows
+ * are routed by MySQL itself, rows older than the first partition end up in
+ * the first partition.
+ */
+public class MySqlPartitionDialect implements PartitionDialect {
+
+    private static final String TABLE = "transaction_tab";
+    private static final String CATCH_ALL = "pmax";
+
+    private static final String PARTITIONS = "SELECT partition_name FROM information_schema.partitions"
+            + " WHERE table_schema = DATABASE() AND table_name = ?"
+            + " AND partition_name IS NOT NULL ORDER BY partition_ordinal_position";
+
+    @Override
+    public boolean isPartitioned(final Connection connection)
+            throws SQLException {
+        return queryPartitions(connection).contains(CATCH_ALL);
+    }
+
+    @Override
+    public List<String> listPartitions(final Connection connection)
+            throws SQLException {
+        List<String> names = queryPartitions(connection);
+        names.remove(CATCH_ALL);
+        return names;
+    }
+
+    @Override
+    public void createPartition(final Connection connection,
+            final String name, final LocalDate start, final LocalDate end)
+            throws SQLException {
+        execute(connection, "ALTER TABLE " + TABLE + " REORGANIZE PARTITION "
+                + CATCH_ALL + " INTO (PARTITION " + name
+                + " VALUES LESS THAN (TO_DAYS('" + end + "')), PARTITION "
+                + CATCH_ALL + " VALUES LESS THAN MAXVALUE)");
+    }
+
+    @Override
+    public void dropPartition(final Connection connection, final String name)
+            throws SQLException {
+        execute(connection, "ALTER TABLE " + TABLE + " DROP PARTITION " + name);
+    }
+
+    @Override
+    public boolean requiresPartitionForInsert() {
+        return false;
+    }
+
+    @Override
+    public String select(final List<String> names) {
+        if (names.isEmpty()) {
+            return TABLE;
+        }
+        // The catch-all partition is empty as long as maintenance runs, but
+        // reading it keeps rows found there visible if it didn't
+        StringBuilder sb = new StringBuilder(TABLE).append(" PARTITION (");
+        for (String name : names) {
+            sb.append(name).append(", ");
+        }
+        return sb.append(CATCH_ALL).append(')').toString();
+    }
+
+    @Override
+    public String insertTable(final String name) {
+        return TABLE;
+    }
+
+    private static List<String> queryPartitions(final Connection connection)
+            throws SQLException {
+        List<String> names = new ArrayList<String>();
+        PreparedStatement statement = connection.prepareStatement(PARTITIONS);
+        try {
+            statement.setString(1, TABLE);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        } finally {
+            statement.close();
+        }
+        return names;
+    }
+
+    private static void execute(final Connection connection, final String sql)
+            throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.vaadin.demo.dashboard.data.partition;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * How the partitions of <code>transaction_tab</code> are stored in a
+ * particular database.
+ */
+public interface PartitionDialect {
+
+    /**
+     * @return true if the table is set up for partitioning. If not, queries
+     *         go to the plain table and no partitions are managed.
+     */
+    boolean isPartitioned(Connection connection) throws SQLException;
+
+    /**
+     * @return Names of the existing partitions.
+     */
+    List<String> listPartitions(Connection connection) throws SQLException;
+
+    /**
+     * Creates a partition for the rows from the start day up to (but not
+     * including) the end day.
+     */
+    void createPartition(Connection connection, String name, LocalDate start,
+            LocalDate end) throws SQLException;
+
+    void dropPartition(Connection connection, String name) throws SQLException;
+
+    /**
+     * @return true if partitions must be created before rows of their time
+     *         range can be inserted, false if the database routes inserts by
+     *         itself.
+     */
+    boolean requiresPartitionForInsert();
+
+    /**
+     * @param names
+     *            Partitions to read, may be empty.
+     * @return A table expression for the FROM clause reading only the given
+     *         partitions, aliased as transaction_tab.
+     */
+    String select(List<String> names);
+
+    /**
+     * @return Table to insert the rows of the given partition into.
+     */
+    String insertTable(String name);
+}
@@ -0,0 +1,91 @@
+package com.vaadin.demo.dashboard.data.partition;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Time span covered by one partition of <code>transaction_tab</code>.
+ * Partitions are named after the first day they cover, e.g.
+ * <code>p20150131</code> for a daily and <code>p201501</code> for a monthly
+ * partition.
+ */
+public enum PartitionGranularity {
+
+    DAY("yyyyMMdd") {
+        @Override
+        public LocalDate start(final LocalDate day) {
+            return day;
+        }
+
+        @Override
+        public LocalDate next(final LocalDate start) {
+            return start.plusDays(1);
+        }
+
+        @Override
+        LocalDate parseSuffix(final String suffix) {
+            return LocalDate.parse(suffix, format);
+        }
+    },
+    MONTH("yyyyMM") {
+        @Override
+        public LocalDate start(final LocalDate day) {
+            return day.withDayOfMonth(1);
+        }
+
+        @Override
+        public LocalDate next(final LocalDate start) {
+            return start(start).plusMonths(1);
+        }
+
+        @Override
+        LocalDate parseSuffix(final String suffix) {
+            return YearMonth.parse(suffix, format).atDay(1);
+        }
+    };
+
+    final DateTimeFormatter format;
+    private final int digits;
+
+    private PartitionGranularity(final String pattern) {
+        format = DateTimeFormatter.ofPattern(pattern);
+        digits = pattern.length();
+    }
+
+    /**
+     * @return First day of the partition the given day falls in.
+     */
+    public abstract LocalDate start(LocalDate day);
+
+    /**
+     * @return First day of the partition after the one starting on the given
+     *         day.
+     */
+    public abstract LocalDate next(LocalDate start);
+
+    abstract LocalDate parseSuffix(String suffix);
+
+    /**
+     * @return Name of the partition starting on the given day.
+     */
+    public String name(final LocalDate start) {
+        return "p" + format.format(start);
+    }
+
+    /**
+     * @return First day of the partition with the given name, or null if the
+     *         name is not a partition name of this granularity.
+     */
+    public LocalDate parse(final String name) {
+        if (name.length() != digits + 1
+                || Character.toLowerCase(name.charAt(0)) != 'p') {
+            return null;
+        }
+        try {
+            return parseSuffix(name.substring(1));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.vaadin.demo.dashboard.data.partition;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.DayRange;
+
+/**
+ * Keeps <code>transaction_tab</code> split into daily or monthly partitions
+ * and tells queries which partitions a time range touches.
+ * <p>
+ * Maintenance runs when started and then every hour: partitions are created
+ * for the current and the next periods ahead of time, and partitions older
+ * than the retention are dropped as a whole instead of deleting their rows.
+ */
+public class PartitionManager {
+
+    private static final int PERIODS_AHEAD = 2;
+
+    private final JDBCConnectionPool connectionPool;
+    private final PartitionDialect dialect;
+    private final PartitionGranularity granularity;
+    /* Zone of the database, which the partitions are split in */
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private int retentionDays = 90;
+    private Supplier<Date> retainedAfter;
+
+    private volatile boolean partitioned;
+    private volatile NavigableSet<LocalDate> partitions = new TreeSet<LocalDate>();
+    private ScheduledExecutorService scheduler;
+
+    public PartitionManager(final JDBCConnectionPool connectionPool,
+            final PartitionDialect dialect,
+            final PartitionGranularity granularity) {
+        this.connectionPool = connectionPool;
+        this.dialect = dialect;
+        this.granularity = granularity;
+    }
+
+    /**
+     * Creates a manager configured by the system properties
+     * <code>dashboard.partitions</code> (DAY or MONTH, default DAY),
+     * <code>dashboard.retentionDays</code> (default 90) and
+     * <code>dashboard.partitionTables</code> (see
+     * {@link #forPool(JDBCConnectionPool, PartitionGranularity)}).
+     */
+    public static PartitionManager forPool(
+            final JDBCConnectionPool connectionPool) {
+        PartitionManager manager = forPool(connectionPool,
+                PartitionGranularity.valueOf(System.getProperty(
+                        "dashboard.partitions", "DAY")));
+        manager.setRetentionDays(Integer.getInteger("dashboard.retentionDays",
+                90));
+        return manager;
+    }
+
+    /**
+     * Creates a manager with native MySQL partitions. The partitions are
+     * kept as a table each only if <code>dashboard.partitionTables</code> is
+     * true, as the rows in transaction_tab itself are not read then. A table
+     * that isn't set up for partitions, or whose partitions can't be
+     * queried, is read as a whole.
+     */
+    public static PartitionManager forPool(
+            final JDBCConnectionPool connectionPool,
+            final PartitionGranularity granularity) {
+        PartitionDialect dialect = Boolean.getBoolean("dashboard.partitionTables") ? new TablePerPartitionDialect()
+                : new MySqlPartitionDialect();
+        return new PartitionManager(connectionPool, dialect, granularity);
+    }
+
+    /**
+     * @param retentionDays
+     *            Days of traffic kept. A partition is dropped once all of its
+     *            days are older.
+     */
+    public void setRetentionDays(final int retentionDays) {
+        this.retentionDays = retentionDays;
+    }
+
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+
+    /**
+     * @param retainedAfter
+     *            Supplies the time before which rows may be dropped, e.g.
+     *            the archive horizon, or null while nothing may be dropped.
+     *            Partitions reaching past it are kept beyond the retention.
+     */
+    public void setRetainedAfter(final Supplier<Date> retainedAfter) {
+        this.retainedAfter = retainedAfter;
+    }
+
+    /**
+     * Runs maintenance now and then every hour on a background thread.
+     */
+    public synchronized void start() {
+        maintain();
+        if (scheduler == null) {
+            scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "transaction-partitions");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    maintain();
+                }
+            }, 1, 1, TimeUnit.HOURS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Creates the partitions of the current and the next periods and drops
+     * the partitions past retention.
+     */
+    public synchronized void maintain() {
+        Connection connection = null;
+        try {
+            connection = connectionPool.reserveConnection();
+            try {
+                partitioned = dialect.isPartitioned(connection);
+            } catch (SQLException e) {
+                // The partitions can't be queried, read the whole table
+                partitioned = false;
+                throw e;
+            }
+            if (!partitioned) {
+                partitions = new TreeSet<LocalDate>();
+                return;
+            }
+            NavigableSet<LocalDate> existing = load(connection);
+
+            LocalDate today = LocalDate.now(zone);
+            LocalDate start = granularity.start(today);
+            for (int i = 0; i <= PERIODS_AHEAD; i++) {
+                if (!existing.contains(start)
+                        && (dialect.requiresPartitionForInsert()
+                                || existing.isEmpty() || start.isAfter(existing
+                                .last()))) {
+                    create(connection, start);
+                    existing.add(start);
+                }
+                start = granularity.next(start);
+            }
+
+            LocalDate oldestKept = today.minusDays(retentionDays);
+            Date floor = retainedAfter == null ? null : retainedAfter.get();
+            if (retainedAfter != null && floor == null) {
+                oldestKept = LocalDate.MIN;
+            } else if (floor != null
+                    && toLocalDate(floor.getTime()).isBefore(oldestKept)) {
+                // The last partition ending at or before the floor
+                oldestKept = toLocalDate(floor.getTime());
+            }
+            for (LocalDate partition : new ArrayList<LocalDate>(existing)) {
+                if (!granularity.next(partition).isAfter(oldestKept)) {
+                    dialect.dropPartition(connection,
+                            granularity.name(partition));
+                    commit(connection);
+                    existing.remove(partition);
+                }
+            }
+            partitions = existing;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (connection != null) {
+                connectionPool.releaseConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * @return Table expression reading the partitions the range overlaps.
+     */
+    public String source(final DayRange range) {
+        return source(range.getStart(), range.getEnd());
+    }
+
+    /**
+     * @return Table expression reading the partitions overlapping the time
+     *         range from start (inclusive) to end (exclusive).
+     */
+    public String source(final Date start, final Date end) {
+        return source(toLocalDate(start.getTime()),
+                toLocalDate(end.getTime() - 1).plusDays(1));
+    }
+
+    /**
+     * @return Table expression reading only the partitions holding the given
+     *         days of the operators (see {@link DayRange}).
+     */
+    public String source(final Collection<LocalDate> days) {
+        if (!partitioned) {
+            return dialect.select(new ArrayList<String>());
+        }
+        NavigableSet<LocalDate> current = partitions;
+        NavigableSet<LocalDate> starts = new TreeSet<LocalDate>();
+        for (LocalDate day : days) {
+            // The day may span two days of the database's zone
+            DayRange range = DayRange.between(day, day.plusDays(1));
+            LocalDate first = granularity.start(toLocalDate(range.getStart()
+                    .getTime()));
+            LocalDate last = granularity.start(toLocalDate(range.getEnd()
+                    .getTime() - 1));
+            for (LocalDate start : new LocalDate[] { first, last }) {
+                if (current.contains(start)) {
+                    starts.add(start);
+                }
+            }
+        }
+        return dialect.select(names(starts));
+    }
+
+    /**
+     * @return Table expression reading all partitions.
+     */
+    public String source() {
+        return dialect.select(names(partitions));
+    }
+
+    /**
+     * @return Table the row with the given time is inserted into. The
+     *         partition is created first if the database needs it and it
+     *         doesn't exist yet.
+     */
+    public String tableFor(final long time) throws SQLException {
+        LocalDate start = granularity.start(toLocalDate(time));
+        String name = granularity.name(start);
+        if (dialect.requiresPartitionForInsert()
+                && !partitions.contains(start)) {
+            synchronized (this) {
+                if (!partitions.contains(start)) {
+                    Connection connection = connectionPool
+                            .reserveConnection();
+                    try {
+                        create(connection, start);
+                    } finally {
+                        connectionPool.releaseConnection(connection);
+                    }
+                    NavigableSet<LocalDate> next = new TreeSet<LocalDate>(
+                            partitions);
+                    next.add(start);
+                    partitions = next;
+                }
+            }
+        }
+        return dialect.insertTable(name);
+    }
+
+    /**
+     * Removes the rows of a day of the operators that was just archived.
+     * Daily partitions whose whole time range lies within the archived days
+     * are dropped. A partition reaching past them, e.g. because the database
+     * splits its days in another zone than the operators, is kept, as it
+     * holds rows of days not archived yet.
+     *
+     * @param day
+     *            The archived day.
+     * @param archived
+     *            All archived days, including the given one.
+     * @return true if the day's rows are gone, false if some of them are in
+     *         a partition that was kept (or the table is not partitioned)
+     *         and have to be deleted instead.
+     */
+    public synchronized boolean dropDay(final DayRange day,
+            final DayRange archived) throws SQLException {
+        if (!partitioned || granularity != PartitionGranularity.DAY) {
+            return false;
+        }
+        boolean gone = true;
+        NavigableSet<LocalDate> next = new TreeSet<LocalDate>(partitions);
+        LocalDate last = toLocalDate(day.getEnd().getTime() - 1);
+        for (LocalDate start = toLocalDate(day.getStart().getTime()); !start
+                .isAfter(last); start = start.plusDays(1)) {
+            if (!partitions.contains(start)) {
+                // Without a partition of its own the database day has no
+                // rows, unless the database keeps older rows in its first
+                // partition
+                gone &= dialect.requiresPartitionForInsert();
+            } else if (within(start, archived)) {
+                Connection connection = connectionPool.reserveConnection();
+                try {
+                    dialect.dropPartition(connection, granularity.name(start));
+                    commit(connection);
+                } finally {
+                    connectionPool.releaseConnection(connection);
+                }
+                next.remove(start);
+            } else {
+                gone = false;
+            }
+        }
+        partitions = next;
+        return gone;
+    }
+
+    /**
+     * @return The tables holding the rows of the range, to delete them from.
+     */
+    public List<String> tables(final DayRange range) {
+        List<String> tables = new ArrayList<String>();
+        if (!partitioned || !dialect.requiresPartitionForInsert()) {
+            tables.add(dialect.select(new ArrayList<String>()));
+            return tables;
+        }
+        for (LocalDate start : partitions.subSet(
+                granularity.start(toLocalDate(range.getStart().getTime())),
+                true, toLocalDate(range.getEnd().getTime() - 1), true)) {
+            tables.add(dialect.insertTable(granularity.name(start)));
+        }
+        return tables;
+    }
+
+    /*
+     * The daily partition starting on the given day of the database's zone
+     * holds no time outside the range.
+     */
+    private boolean within(final LocalDate start, final DayRange range) {
+        return !start.atStartOfDay(zone).toInstant()
+                .isBefore(range.getStart().toInstant())
+                && !start.plusDays(1).atStartOfDay(zone).toInstant()
+                        .isAfter(range.getEnd().toInstant());
+    }
+
+    private String source(final LocalDate from, final LocalDate to) {
+        if (!partitioned) {
+            return dialect.select(new ArrayList<String>());
+        }
+        return dialect.select(names(partitions.subSet(granularity.start(from),
+                true, to, false)));
+    }
+
+    private List<String> names(final NavigableSet<LocalDate> starts) {
+        List<String> names = new ArrayList<String>(starts.size());
+        for (LocalDate start : starts) {
+            names.add(granularity.name(start));
+        }
+        return names;
+    }
+
+    private NavigableSet<LocalDate> load(final Connection connection)
+            throws SQLException {
+        NavigableSet<LocalDate> result = new TreeSet<LocalDate>();
+        for (String name : dialect.listPartitions(connection)) {
+            LocalDate start = granularity.parse(name);
+            if (start != null) {
+                result.add(start);
+            }
+        }
+        return result;
+    }
+
+    private void create(final Connection connection, final LocalDate start)
+            throws SQLException {
+        dialect.createPartition(connection, granularity.name(start), start,
+                granularity.next(start));
+        commit(connection);
+    }
+
+    private static void commit(final Connection connection)
+            throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    private LocalDate toLocalDate(final long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+    }
+}
@@ -0,0 +1,115 @@
+package com.vaadin.demo.dashboard.data.partition;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partitions as separate tables <code>transaction_tab_p...</code> with the
+ * columns of transaction_tab, for databases without native partitioning such
+ * as the embedded H2 database of the load test. Reads go through a UNION ALL
+ * of the partition tables, inserts go to the table of the row's partition.
+ * Rows in transaction_tab itself are not read, so the dialect is only used
+ * if <code>dashboard.partitionTables</code> is true.
+ * <p>
+ * The ids of all partition tables come from one sequence, so they stay unique
+ * across partitions.
+ */
+public class TablePerPartitionDialect implements PartitionDialect {
+
+    private static final String TABLE = "transaction_tab";
+    private static final String PREFIX = TABLE + "_";
+
+    @Override
+    public boolean isPartitioned(final Connection connection) {
+        return true;
+    }
+
+    @Override
+    public List<String> listPartitions(final Connection connection)
+            throws SQLException {
+        List<String> names = new ArrayList<String>();
+        ResultSet rs = connection.getMetaData().getTables(null, null, null,
+                new String[] { "TABLE" });
+        try {
+            while (rs.next()) {
+                String table = rs.getString("TABLE_NAME").toLowerCase();
+                if (table.startsWith(PREFIX)) {
+                    names.add(table.substring(PREFIX.length()));
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return names;
+    }
+
+    @Override
+    public void createPartition(final Connection connection,
+            final String name, final LocalDate start, final LocalDate end)
+            throws SQLException {
+        String table = insertTable(name);
+        execute(connection,
+                "CREATE SEQUENCE IF NOT EXISTS " + TABLE + "_seq",
+                "CREATE TABLE IF NOT EXISTS " + table + " ("
+                        + "id INT DEFAULT NEXT VALUE FOR " + TABLE
+                        + "_seq PRIMARY KEY,"
+                        + " ref_id VARCHAR(32), seq_id INT,"
+                        + " module_name VARCHAR(32), date_time TIMESTAMP,"
+                        + " msisdn VARCHAR(20), service_id VARCHAR(32),"
+                        + " cell_id VARCHAR(32))",
+                "CREATE INDEX IF NOT EXISTS " + table + "_date_time ON "
+                        + table + " (date_time)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_msisdn ON " + table
+                        + " (msisdn, date_time)",
+                "CREATE INDEX IF NOT EXISTS " + table + "_ref_id ON " + table
+                        + " (ref_id)");
+    }
+
+    @Override
+    public void dropPartition(final Connection connection, final String name)
+            throws SQLException {
+        execute(connection, "DROP TABLE IF EXISTS " + insertTable(name));
+    }
+
+    @Override
+    public boolean requiresPartitionForInsert() {
+        return true;
+    }
+
+    @Override
+    public String select(final List<String> names) {
+        if (names.isEmpty()) {
+            return TABLE;
+        } else if (names.size() == 1) {
+            return insertTable(names.get(0)) + " " + TABLE;
+        }
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(i == 0 ? "SELECT * FROM " : " UNION ALL SELECT * FROM ")
+                    .append(insertTable(names.get(i)));
+        }
+        return sb.append(") ").append(TABLE).toString();
+    }
+
+    @Override
+    public String insertTable(final String name) {
+        return PREFIX + name;
+    }
+
+    private static void execute(final Connection connection,
+            final String... sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for (String s : sql) {
+                statement.execute(s);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
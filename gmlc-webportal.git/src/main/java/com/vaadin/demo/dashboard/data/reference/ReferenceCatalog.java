@@ -0,0 +1,107 @@
+package com.vaadin.demo.dashboard.data.reference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.vaadin.demo.dashboard.domain.Movie;
+
+/**
+ * Immutable index of the {@link ReferenceData}. Movies are found by id in an
+ * open addressing table keyed by the primitive id and by title in a hash
+ * map, without locking.
+ * <p>
+ * A refresh builds a new catalog and replaces the old one as a whole, so a
+ * reader always sees the movies and their indexes from the same load.
+ */
+public final class ReferenceCatalog {
+
+    public static final ReferenceCatalog EMPTY = of(new ReferenceData(
+            new ArrayList<Movie>(), ImmutableListMultimap
+                    .<String, String> of()));
+
+    private final List<Movie> movies;
+    private final ImmutableListMultimap<String, String> countryToCities;
+
+    /* Open addressing by id, a slot is free if its movie is null */
+    private final long[] ids;
+    private final Movie[] byId;
+    private final int mask;
+
+    private final Map<String, Movie> byTitle;
+
+    private ReferenceCatalog(final List<Movie> movies,
+            final ImmutableListMultimap<String, String> countryToCities) {
+        this.movies = movies;
+        this.countryToCities = countryToCities;
+
+        int capacity = Integer.highestOneBit(Math.max(1, movies.size())) << 2;
+        ids = new long[capacity];
+        byId = new Movie[capacity];
+        mask = capacity - 1;
+        Map<String, Movie> titles = new HashMap<String, Movie>();
+        for (Movie movie : movies) {
+            int slot = slot(movie.getId());
+            while (byId[slot] != null && ids[slot] != movie.getId()) {
+                slot = (slot + 1) & mask;
+            }
+            // The first movie of an id or title wins, as in a linear search
+            if (byId[slot] == null) {
+                ids[slot] = movie.getId();
+                byId[slot] = movie;
+            }
+            if (movie.getTitle() != null
+                    && !titles.containsKey(movie.getTitle())) {
+                titles.put(movie.getTitle(), movie);
+            }
+        }
+        byTitle = ImmutableMap.copyOf(titles);
+    }
+
+    public static ReferenceCatalog of(final ReferenceData data) {
+        return new ReferenceCatalog(ImmutableList.copyOf(data.getMovies()),
+                ImmutableListMultimap.copyOf(data.getCountryToCities()));
+    }
+
+    /**
+     * @return The movies in the order they were loaded.
+     */
+    public List<Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * @return The movie, or null if there is no movie with the id.
+     */
+    public Movie getMovie(final long id) {
+        int slot = slot(id);
+        Movie movie;
+        while ((movie = byId[slot]) != null) {
+            if (ids[slot] == id) {
+                return movie;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return The movie, or null if there is no movie with the title.
+     */
+    public Movie getMovieForTitle(final String title) {
+        return title == null ? null : byTitle.get(title);
+    }
+
+    public ImmutableListMultimap<String, String> getCountryToCities() {
+        return countryToCities;
+    }
+
+    private int slot(final long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
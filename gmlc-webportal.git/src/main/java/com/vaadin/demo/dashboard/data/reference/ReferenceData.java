@@ -0,0 +1,30 @@
+package com.vaadin.demo.dashboard.data.reference;
+
+import java.util.Collection;
+
+import com.google.common.collect.Multimap;
+import com.vaadin.demo.dashboard.domain.Movie;
+
+/**
+ * The reference data loaded by the {@link ReferenceDataLoader}: the movies
+ * playing in theaters and the cities of each country.
+ */
+public final class ReferenceData {
+
+    private final Collection<Movie> movies;
+    private final Multimap<String, String> countryToCities;
+
+    public ReferenceData(final Collection<Movie> movies,
+            final Multimap<String, String> countryToCities) {
+        this.movies = movies;
+        this.countryToCities = countryToCities;
+    }
+
+    public Collection<Movie> getMovies() {
+        return movies;
+    }
+
+    public Multimap<String, String> getCountryToCities() {
+        return countryToCities;
+    }
+}
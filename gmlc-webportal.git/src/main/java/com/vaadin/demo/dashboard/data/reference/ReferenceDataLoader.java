@@ -0,0 +1,396 @@
+package com.vaadin.demo.dashboard.data.reference;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.vaadin.demo.dashboard.domain.Movie;
+
+/**
+ * Loads the {@link ReferenceData} from its sources, a Rotten Tomatoes movie
+ * list in JSON and a tab separated list of cities.
+ * <p>
+ * The sources are parsed in a single streaming pass each, without building a
+ * document tree or reading them into a string first. The parsed data is then
+ * written to a binary snapshot, which later loads map into memory instead of
+ * parsing the sources again. A snapshot is used as long as it was made from
+ * the same versions (path, size and modification time) of the sources.
+ */
+public final class ReferenceDataLoader {
+
+    private static final int MAGIC = 0x47524631;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private ReferenceDataLoader() {
+    }
+
+    /**
+     * @param movies
+     *            The movie list, or null for no movies.
+     * @param cities
+     *            The list of cities.
+     * @param snapshot
+     *            Where the snapshot is kept.
+     */
+    public static ReferenceData load(final File movies, final URL cities,
+            final File snapshot) throws IOException {
+        String version = version(movies, cities);
+        if (snapshot.isFile()) {
+            try {
+                ReferenceData data = readSnapshot(snapshot, version);
+                if (data != null) {
+                    return data;
+                }
+            } catch (IOException e) {
+                // Unreadable, made again below
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                // Truncated, made again below
+                e.printStackTrace();
+            }
+        }
+
+        Collection<Movie> movieList = new ArrayList<Movie>();
+        if (movies != null) {
+            InputStream in = new FileInputStream(movies);
+            try {
+                movieList = readMovies(in);
+            } finally {
+                in.close();
+            }
+        }
+        InputStream in = cities.openStream();
+        Multimap<String, String> countryToCities;
+        try {
+            countryToCities = readCities(in);
+        } finally {
+            in.close();
+        }
+        ReferenceData data = new ReferenceData(movieList, countryToCities);
+        try {
+            writeSnapshot(snapshot, version, data);
+        } catch (IOException e) {
+            // Parsed again next time
+            e.printStackTrace();
+        }
+        return data;
+    }
+
+    /**
+     * Parses the <code>movies</code> array of a Rotten Tomatoes movie list.
+     * Movies without a poster are skipped, the others get their index in the
+     * list as id.
+     */
+    public static List<Movie> readMovies(final InputStream in)
+            throws IOException {
+        List<Movie> result = new ArrayList<Movie>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in,
+                StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"movies".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                Movie movie = readMovie(reader);
+                if (movie != null) {
+                    movie.setId(i);
+                    result.add(movie);
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return result;
+    }
+
+    private static Movie readMovie(final JsonReader reader) throws IOException {
+        Movie movie = new Movie();
+        String profile = null;
+        String detailed = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("title".equals(name)) {
+                movie.setTitle(nextString(reader));
+            } else if ("synopsis".equals(name)) {
+                movie.setSynopsis(nextString(reader));
+            } else if ("runtime".equals(name)) {
+                movie.setDuration(nextInt(reader, 0));
+            } else if ("posters".equals(name)
+                    && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String poster = reader.nextName();
+                    if ("profile".equals(poster)) {
+                        profile = nextString(reader);
+                    } else if ("detailed".equals(poster)) {
+                        detailed = nextString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("release_dates".equals(name)
+                    && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("theater".equals(reader.nextName())) {
+                        movie.setReleaseDate(parseDate(nextString(reader)));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("ratings".equals(name)
+                    && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("critics_score".equals(reader.nextName())) {
+                        movie.setScore(nextInt(reader, 0));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (profile == null || profile.contains("poster_default")) {
+            return null;
+        }
+        movie.setThumbUrl(profile.replace("_tmb", "_320"));
+        movie.setPosterUrl(detailed == null ? null : detailed.replace("_tmb",
+                "_640"));
+        return movie;
+    }
+
+    /**
+     * Parses the list of cities. It has rows of tab separated values, of which
+     * the second is the city and the one before the last the country.
+     */
+    public static Multimap<String, String> readCities(final InputStream in)
+            throws IOException {
+        Multimap<String, String> countryToCities = MultimapBuilder.hashKeys()
+                .arrayListValues().build();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == '\t') {
+                end--;
+            }
+            int first = line.indexOf('\t');
+            int last = line.lastIndexOf('\t', end - 1);
+            if (first < 0 || first >= end) {
+                continue;
+            }
+            int second = last == first ? end : line.indexOf('\t', first + 1);
+            int beforeLast = line.lastIndexOf('\t', last - 1);
+            countryToCities.put(line.substring(beforeLast + 1, last),
+                    line.substring(first + 1, second));
+        }
+        return countryToCities;
+    }
+
+    /*
+     * The snapshot holds the version of its sources and then the movies and
+     * the cities of each country, with strings as UTF-8 bytes behind their
+     * length (-1 for null).
+     */
+    static void writeSnapshot(final File file, final String version,
+            final ReferenceData data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            writeString(out, version);
+            out.writeInt(data.getMovies().size());
+            for (Movie movie : data.getMovies()) {
+                out.writeLong(movie.getId());
+                writeString(out, movie.getTitle());
+                writeString(out, movie.getSynopsis());
+                writeString(out, movie.getThumbUrl());
+                writeString(out, movie.getPosterUrl());
+                out.writeInt(movie.getDuration());
+                out.writeInt(movie.getScore());
+                out.writeLong(movie.getReleaseDate() == null ? NO_DATE
+                        : movie.getReleaseDate().getTime());
+            }
+            Map<String, Collection<String>> countries = data
+                    .getCountryToCities().asMap();
+            out.writeInt(countries.size());
+            for (Map.Entry<String, Collection<String>> e : countries
+                    .entrySet()) {
+                writeString(out, e.getKey());
+                out.writeInt(e.getValue().size());
+                for (String city : e.getValue()) {
+                    writeString(out, city);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot write " + file);
+            }
+        }
+    }
+
+    /**
+     * @return The snapshot's data, or null if it was made from other versions
+     *         of the sources.
+     */
+    static ReferenceData readSnapshot(final File file, final String version)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.getInt() != MAGIC || !version.equals(readString(buffer))) {
+            return null;
+        }
+        int movieCount = buffer.getInt();
+        List<Movie> movies = new ArrayList<Movie>(movieCount);
+        for (int i = 0; i < movieCount; i++) {
+            Movie movie = new Movie();
+            movie.setId(buffer.getLong());
+            movie.setTitle(readString(buffer));
+            movie.setSynopsis(readString(buffer));
+            movie.setThumbUrl(readString(buffer));
+            movie.setPosterUrl(readString(buffer));
+            movie.setDuration(buffer.getInt());
+            movie.setScore(buffer.getInt());
+            long releaseDate = buffer.getLong();
+            if (releaseDate != NO_DATE) {
+                movie.setReleaseDate(new Date(releaseDate));
+            }
+            movies.add(movie);
+        }
+        int countryCount = buffer.getInt();
+        Multimap<String, String> countryToCities = MultimapBuilder
+                .hashKeys(countryCount).arrayListValues().build();
+        for (int i = 0; i < countryCount; i++) {
+            String country = readString(buffer);
+            int cityCount = buffer.getInt();
+            List<String> cities = new ArrayList<String>(cityCount);
+            for (int c = 0; c < cityCount; c++) {
+                cities.add(readString(buffer));
+            }
+            countryToCities.putAll(country, cities);
+        }
+        return new ReferenceData(movies, countryToCities);
+    }
+
+    private static String version(final File movies, final URL cities)
+            throws IOException {
+        StringBuilder version = new StringBuilder();
+        if (movies != null) {
+            version.append(movies.getAbsolutePath()).append(' ')
+                    .append(movies.length()).append(' ')
+                    .append(movies.lastModified());
+        }
+        URLConnection connection = cities.openConnection();
+        version.append('\n').append(cities).append(' ')
+                .append(connection.getContentLengthLong()).append(' ')
+                .append(connection.getLastModified());
+        // Only the headers were needed
+        connection.getInputStream().close();
+        return version.toString();
+    }
+
+    private static void writeString(final DataOutputStream out,
+            final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String nextString(final JsonReader reader)
+            throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /*
+     * Missing and malformed numbers are common in the movie list.
+     */
+    private static int nextInt(final JsonReader reader, final int defaultValue)
+            throws IOException {
+        String value = nextString(reader);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Date parseDate(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Date.from(LocalDate.parse(value)
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.vaadin.demo.dashboard.data.replica;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+
+/**
+ * Sends the read-only analytics queries of the portal to replicas of its
+ * database, so that they don't compete with the GMLC writing to the
+ * primary.
+ * <p>
+ * The replication lag of every replica is measured with a heartbeat row the
+ * router writes to the primary and reads back from the replicas, one row per
+ * node sharing the primary:
+ *
+ * <pre>
+ * CREATE TABLE replica_heartbeat (node VARCHAR(64) PRIMARY KEY, beat TIMESTAMP)
+ * </pre>
+ *
+ * The beat is the time of the primary, and the lag is the time of the
+ * primary at the last beat minus the beat a replica has, so neither the
+ * clocks of the nodes nor those of the replicas matter.
+ * <p>
+ * Each connection of the {@link #getReadPool() read pool} comes from the
+ * replica with the fewest connections in use among those lagging less than
+ * the maximum lag. Replicas that lag behind, have no heartbeat yet or fail
+ * to connect are skipped until the next heartbeat finds them current again,
+ * and without any such replica the connection comes from the primary.
+ */
+public class ReplicaRouter {
+
+    private static final String UPDATE_BEAT = "UPDATE replica_heartbeat SET beat = CURRENT_TIMESTAMP WHERE node = ?";
+    private static final String INSERT_BEAT = "INSERT INTO replica_heartbeat (node, beat) VALUES (?, CURRENT_TIMESTAMP)";
+    private static final String SELECT_BEAT = "SELECT beat FROM replica_heartbeat WHERE node = ?";
+
+    private final JDBCConnectionPool primary;
+    private final String node;
+    private final List<Replica> replicas = new ArrayList<Replica>();
+    private final JDBCConnectionPool readPool = new ReadPool();
+
+    /* Pool each connection of the read pool was reserved from */
+    private final Map<Connection, Replica> owners = Collections
+            .synchronizedMap(new IdentityHashMap<Connection, Replica>());
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    private long maxLagMillis = 30000;
+    private long heartbeatMillis = 1000;
+    private boolean heartbeatFailing;
+    /* Last beat written to the primary, and when, by System.nanoTime() */
+    private long primaryBeat = -1;
+    private long primaryBeatNanos;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param node
+     *            Name of this node, unique among the nodes sharing the
+     *            primary.
+     */
+    public ReplicaRouter(final JDBCConnectionPool primary,
+            final List<JDBCConnectionPool> replicaPools, final String node) {
+        this.primary = primary;
+        this.node = node;
+        for (JDBCConnectionPool pool : replicaPools) {
+            replicas.add(new Replica(pool));
+        }
+    }
+
+    /**
+     * @param maxLagMillis
+     *            Replicas lagging more are not read from.
+     */
+    public void setMaxLagMillis(final long maxLagMillis) {
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    public void setHeartbeatMillis(final long heartbeatMillis) {
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * Measures the lag of the replicas on a background thread.
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r, "replica-heartbeat");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        heartbeat();
+                    } catch (RuntimeException e) {
+                        // Keeps the schedule alive
+                        e.printStackTrace();
+                    }
+                }
+            }, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public JDBCConnectionPool getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return The pool for read-only queries that may see data as old as the
+     *         maximum lag.
+     */
+    public JDBCConnectionPool getReadPool() {
+        return readPool;
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * @return The last measured lag of the replica, -1 if it is unknown or
+     *         the replica is unavailable.
+     */
+    public long getLagMillis(final int replica) {
+        return replicas.get(replica).lagMillis;
+    }
+
+    /**
+     * @return Connections reserved from the replica so far.
+     */
+    public long getReservations(final int replica) {
+        return replicas.get(replica).reservations.get();
+    }
+
+    /**
+     * @return Connections of the read pool reserved from the primary so far.
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     * Writes the heartbeat to the primary and reads it back from each
+     * replica.
+     */
+    void heartbeat() {
+        try {
+            primaryBeat = writeBeat();
+            primaryBeatNanos = System.nanoTime();
+            heartbeatFailing = false;
+        } catch (SQLException e) {
+            // Logged once, the replicas are still measured against older beats
+            if (!heartbeatFailing) {
+                e.printStackTrace();
+                heartbeatFailing = true;
+            }
+        }
+        // Time of the primary, estimated while it can't be written
+        long now = primaryBeat < 0 ? -1 : primaryBeat
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                        - primaryBeatNanos);
+        for (Replica replica : replicas) {
+            try {
+                long beat = readBeat(replica.pool, node);
+                replica.lagMillis = beat < 0 || now < 0 ? -1 : Math.max(0,
+                        now - beat);
+            } catch (SQLException e) {
+                replica.lagMillis = -1;
+            }
+        }
+    }
+
+    /*
+     * Epoch millis of the beat written, in the time of the primary.
+     */
+    private long writeBeat() throws SQLException {
+        Connection connection = primary.reserveConnection();
+        try {
+            PreparedStatement statement = connection
+                    .prepareStatement(UPDATE_BEAT);
+            try {
+                statement.setString(1, node);
+                if (statement.executeUpdate() == 0) {
+                    statement.close();
+                    statement = connection.prepareStatement(INSERT_BEAT);
+                    statement.setString(1, node);
+                    statement.executeUpdate();
+                }
+            } finally {
+                statement.close();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            primary.releaseConnection(connection);
+        }
+        return readBeat(primary, node);
+    }
+
+    /*
+     * Epoch millis of the heartbeat of the node in the pool's database, -1
+     * if there is none yet.
+     */
+    private static long readBeat(final JDBCConnectionPool pool,
+            final String node) throws SQLException {
+        Connection connection = pool.reserveConnection();
+        try {
+            PreparedStatement statement = connection
+                    .prepareStatement(SELECT_BEAT);
+            try {
+                statement.setString(1, node);
+                ResultSet rs = statement.executeQuery();
+                return rs.next() ? rs.getTimestamp(1).getTime() : -1;
+            } finally {
+                statement.close();
+            }
+        } finally {
+            pool.releaseConnection(connection);
+        }
+    }
+
+    /*
+     * Current replicas, least busy first.
+     */
+    private List<Replica> candidates() {
+        List<Replica> result = new ArrayList<Replica>();
+        for (Replica replica : replicas) {
+            long lag = replica.lagMillis;
+            if (lag >= 0 && lag <= maxLagMillis) {
+                result.add(replica);
+            }
+        }
+        if (result.size() > 1) {
+            Collections.sort(result, new Comparator<Replica>() {
+                @Override
+                public int compare(final Replica o1, final Replica o2) {
+                    int c = Integer.compare(o1.active.get(), o2.active.get());
+                    return c != 0 ? c : Long.compare(o1.lagMillis,
+                            o2.lagMillis);
+                }
+            });
+        }
+        return result;
+    }
+
+    private static final class Replica {
+
+        private final JDBCConnectionPool pool;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong reservations = new AtomicLong();
+        private volatile long lagMillis = -1;
+
+        Replica(final JDBCConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class ReadPool implements JDBCConnectionPool {
+
+        @Override
+        public Connection reserveConnection() throws SQLException {
+            for (Replica replica : candidates()) {
+                Connection connection;
+                try {
+                    connection = replica.pool.reserveConnection();
+                } catch (SQLException e) {
+                    // Skipped until the next heartbeat reaches it
+                    replica.lagMillis = -1;
+                    continue;
+                }
+                replica.active.incrementAndGet();
+                replica.reservations.incrementAndGet();
+                owners.put(connection, replica);
+                return connection;
+            }
+            fallbacks.incrementAndGet();
+            return primary.reserveConnection();
+        }
+
+        @Override
+        public void releaseConnection(final Connection conn) {
+            Replica replica = owners.remove(conn);
+            if (replica == null) {
+                primary.releaseConnection(conn);
+            } else {
+                replica.active.decrementAndGet();
+                replica.pool.releaseConnection(conn);
+            }
+        }
+
+        /*
+         * The pools belong to the router's owner.
+         */
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.vaadin.demo.dashboard.domain;
+
+import java.util.Date;
+
+/**
+ * A run of consecutive location results of a subscriber that reported the
+ * same cell.
+ */
+public final class LocationVisit {
+    private String cellId;
+    private Date firstSeen;
+    private Date lastSeen;
+    private int count;
+
+    public String getCellId() {
+        return cellId;
+    }
+
+    public void setCellId(final String cellId) {
+        this.cellId = cellId;
+    }
+
+    public Date getFirstSeen() {
+        return firstSeen;
+    }
+
+    public void setFirstSeen(final Date firstSeen) {
+        this.firstSeen = firstSeen;
+    }
+
+    public Date getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(final Date lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(final int count) {
+        this.count = count;
+    }
+}
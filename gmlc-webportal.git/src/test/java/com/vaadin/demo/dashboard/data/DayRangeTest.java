@@ -0,0 +1,126 @@
+package com.vaadin.demo.dashboard.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DayRangeTest {
+
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    @Test
+    public void spansSplitAtTheTransitionsOfBothZones() {
+        // Berlin springs forward on 2024-03-31, New York on 2024-03-10
+        Instant start = LocalDate.of(2024, 3, 9).atStartOfDay(BERLIN)
+                .toInstant();
+        Instant end = LocalDate.of(2024, 4, 2).atStartOfDay(BERLIN)
+                .toInstant();
+        List<DayRange.OffsetSpan> spans = DayRange.offsetSpans(start, end,
+                BERLIN, NEW_YORK);
+
+        assertEquals(3, spans.size());
+        assertContiguous(spans, start, end);
+        assertEquals(
+                LocalDateTime.of(2024, 3, 10, 2, 0).atZone(NEW_YORK)
+                        .toInstant(), spans.get(1).getStart().toInstant());
+        assertEquals(
+                LocalDateTime.of(2024, 3, 31, 2, 0).atZone(BERLIN)
+                        .toInstant(), spans.get(2).getStart().toInstant());
+        assertEquals(3600, spans.get(0).getOffsetSeconds());
+        assertEquals(3600, spans.get(1).getOffsetSeconds());
+        assertEquals(7200, spans.get(2).getOffsetSeconds());
+    }
+
+    @Test
+    public void rangeWithoutTransitionIsOneSpan() {
+        Instant start = LocalDate.of(2024, 6, 1).atStartOfDay(BERLIN)
+                .toInstant();
+        Instant end = LocalDate.of(2024, 6, 8).atStartOfDay(BERLIN)
+                .toInstant();
+        List<DayRange.OffsetSpan> spans = DayRange.offsetSpans(start, end,
+                BERLIN, UTC);
+
+        assertEquals(1, spans.size());
+        assertContiguous(spans, start, end);
+        assertEquals(7200, spans.get(0).getOffsetSeconds());
+    }
+
+    @Test
+    public void dayArithmeticMatchesTheOperatorDaysAcrossSpringForward() {
+        assertDayArithmetic(BERLIN, UTC, LocalDate.of(2024, 3, 30),
+                LocalDate.of(2024, 4, 1));
+        assertDayArithmetic(BERLIN, NEW_YORK, LocalDate.of(2024, 3, 9),
+                LocalDate.of(2024, 4, 1));
+    }
+
+    @Test
+    public void dayArithmeticMatchesTheOperatorDaysAcrossFallBack() {
+        assertDayArithmetic(BERLIN, BERLIN, LocalDate.of(2024, 10, 26),
+                LocalDate.of(2024, 10, 29));
+        assertDayArithmetic(NEW_YORK, BERLIN, LocalDate.of(2024, 10, 26),
+                LocalDate.of(2024, 11, 5));
+    }
+
+    @Test
+    public void dayArithmeticWorksWestOfGreenwich() {
+        assertDayArithmetic(ZoneId.of("America/Los_Angeles"), UTC,
+                LocalDate.of(2024, 3, 9), LocalDate.of(2024, 3, 12));
+    }
+
+    /*
+     * Evaluates the expression countDays runs in SQL for times every 10
+     * minutes and at the span edges, and compares it with the day of the
+     * time in the operator zone.
+     */
+    private static void assertDayArithmetic(final ZoneId zone,
+            final ZoneId storedZone, final LocalDate first,
+            final LocalDate end) {
+        Instant start = first.atStartOfDay(zone).toInstant();
+        Instant to = end.atStartOfDay(zone).toInstant();
+        List<DayRange.OffsetSpan> spans = DayRange.offsetSpans(start, to,
+                zone, storedZone);
+        assertContiguous(spans, start, to);
+        for (DayRange.OffsetSpan span : spans) {
+            long spanStart = span.getStart().getTime();
+            long spanEnd = span.getEnd().getTime();
+            for (long time = spanStart; time < spanEnd; time += 10 * 60 * 1000L) {
+                assertDay(zone, span, time);
+            }
+            assertDay(zone, span, spanEnd - 1000);
+        }
+    }
+
+    private static void assertDay(final ZoneId zone,
+            final DayRange.OffsetSpan span, final long time) {
+        long spanStart = span.getStart().getTime();
+        long secondsSinceStart = (time - spanStart) / 1000;
+        long day = Math.floorDiv(secondsSinceStart + spanStart / 1000
+                + span.getOffsetSeconds(), 86400);
+        assertEquals(Instant.ofEpochMilli(time).toString(), Instant
+                .ofEpochMilli(time).atZone(zone).toLocalDate().toEpochDay(),
+                day);
+    }
+
+    private static void assertContiguous(
+            final List<DayRange.OffsetSpan> spans, final Instant start,
+            final Instant end) {
+        assertEquals(start, spans.get(0).getStart().toInstant());
+        assertEquals(end, spans.get(spans.size() - 1).getEnd().toInstant());
+        for (int i = 1; i < spans.size(); i++) {
+            assertEquals(spans.get(i - 1).getEnd(), spans.get(i).getStart());
+        }
+        for (DayRange.OffsetSpan span : spans) {
+            assertTrue(span.getStart().before(span.getEnd()));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.vaadin.demo.dashboard.data.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryAdmissionTest {
+
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    @After
+    public void endQueries() throws InterruptedException {
+        for (Session session : sessions) {
+            session.finish();
+        }
+    }
+
+    @Test
+    public void admitsQueriesUpToTheLimit() throws InterruptedException {
+        QueryAdmission admission = new QueryAdmission(2, 2, 10, 5000);
+        QueryGuard guard = new QueryGuard(admission, 0);
+
+        assertNull(start(guard, "alice").outcome());
+        assertNull(start(guard, "bob").outcome());
+        assertEquals(2, admission.getRunning());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    public void rejectsQueryWhenTheQueueIsFull() throws InterruptedException {
+        QueryAdmission admission = new QueryAdmission(1, 1, 0, 5000);
+        QueryGuard guard = new QueryGuard(admission, 0);
+        start(guard, "alice").outcome();
+
+        assertTrue(start(guard, "bob").outcome() instanceof QueryRejectedException);
+        assertEquals(1, admission.getRejected());
+    }
+
+    @Test
+    public void rejectsQueryWaitingTooLong() throws InterruptedException {
+        QueryAdmission admission = new QueryAdmission(1, 1, 10, 100);
+        QueryGuard guard = new QueryGuard(admission, 0);
+        start(guard, "alice").outcome();
+
+        RuntimeException e = start(guard, "bob").outcome();
+        assertTrue(e instanceof QueryRejectedException);
+        assertTrue(e.getMessage().contains("waited"));
+        assertEquals(1, admission.getRejected());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    public void rejectsQueriesOverTheLimitOfTheUser()
+            throws InterruptedException {
+        QueryAdmission admission = new QueryAdmission(10, 1, 10, 5000);
+        QueryGuard guard = new QueryGuard(admission, 0);
+        start(guard, "alice").outcome();
+        start(guard, "alice");
+        awaitQueued(admission, 1);
+
+        RuntimeException e = start(guard, "alice").outcome();
+        assertTrue(e instanceof QueryRejectedException);
+        assertTrue(e.getMessage().contains("other queries"));
+        // Other users are not held up by her
+        assertNull(start(guard, "bob").outcome());
+    }
+
+    @Test
+    public void releaseAdmitsTheWaitingQuery() throws InterruptedException {
+        QueryAdmission admission = new QueryAdmission(1, 1, 10, 5000);
+        QueryGuard guard = new QueryGuard(admission, 0);
+        Session first = start(guard, "alice");
+        first.outcome();
+        Session second = start(guard, "bob");
+        awaitQueued(admission, 1);
+
+        first.finish();
+        assertNull(second.outcome());
+        assertEquals(1, admission.getRunning());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    public void cancelStopsTheWaitingQuery() throws InterruptedException {
+        QueryAdmission admission = new QueryAdmission(1, 1, 10, 5000);
+        start(new QueryGuard(admission, 0), "alice").outcome();
+        QueryGuard guard = new QueryGuard(admission, 0);
+        Session waiting = start(guard, "bob");
+        awaitQueued(admission, 1);
+
+        guard.cancel();
+        assertTrue(waiting.outcome() instanceof QueryCancelledException);
+        assertEquals(0, admission.getRejected());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test(expected = QueryCancelledException.class)
+    public void checkThrowsForCancelledQuery() {
+        QueryAdmission admission = new QueryAdmission(1, 1, 10, 5000);
+        QueryGuard guard = new QueryGuard(admission, 0);
+        QueryGuard.Query query = guard.start("alice");
+        try {
+            guard.cancel();
+            query.check(Boolean.TRUE);
+        } finally {
+            query.end();
+        }
+    }
+
+    private Session start(final QueryGuard guard, final String user) {
+        Session session = new Session(guard, user);
+        sessions.add(session);
+        session.start();
+        return session;
+    }
+
+    private static void awaitQueued(final QueryAdmission admission,
+            final int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (admission.getQueued() != queued) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Expected " + queued + " queued queries");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /*
+     * Starts a query on its own thread and holds it until finished, as the
+     * queries of a guard belong to the thread running them.
+     */
+    private static final class Session extends Thread {
+
+        private final QueryGuard guard;
+        private final String user;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+
+        Session(final QueryGuard guard, final String user) {
+            this.guard = guard;
+            this.user = user;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            QueryGuard.Query query;
+            try {
+                query = guard.start(user);
+            } catch (RuntimeException e) {
+                failure = e;
+                started.countDown();
+                return;
+            }
+            started.countDown();
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                // Ends the query
+            } finally {
+                query.end();
+            }
+        }
+
+        /*
+         * Null if the query was admitted, the exception otherwise.
+         */
+        RuntimeException outcome() throws InterruptedException {
+            if (!started.await(5, TimeUnit.SECONDS)) {
+                fail("The query of " + user + " was neither admitted nor"
+                        + " rejected");
+            }
+            return failure;
+        }
+
+        void finish() throws InterruptedException {
+            finished.countDown();
+            join(5000);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.vaadin.demo.dashboard.data.alert;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FailureWindowTest {
+
+    private static final long T0 = 1700000000000L;
+
+    @Test
+    public void countsRequestsAndFailuresWithinTheWindow() {
+        FailureWindow window = new FailureWindow(10);
+        window.add(T0, false);
+        window.add(T0 + 500, true);
+        window.add(T0 + 9000, true);
+
+        assertEquals(3, window.getRequests());
+        assertEquals(2, window.getFailures());
+    }
+
+    @Test
+    public void expiresSecondsLeavingTheWindow() {
+        FailureWindow window = new FailureWindow(10);
+        window.add(T0, true);
+        window.add(T0 + 5000, false);
+
+        window.advance(T0 + 10000);
+        assertEquals(1, window.getRequests());
+        assertEquals(0, window.getFailures());
+
+        window.advance(T0 + 15000);
+        assertEquals(0, window.getRequests());
+    }
+
+    @Test
+    public void gapLongerThanTheWindowClearsIt() {
+        FailureWindow window = new FailureWindow(10);
+        for (int i = 0; i < 10; i++) {
+            window.add(T0 + i * 1000L, true);
+        }
+        window.add(T0 + 60000, false);
+
+        assertEquals(1, window.getRequests());
+        assertEquals(0, window.getFailures());
+    }
+
+    @Test
+    public void ignoresRequestsOlderThanTheWindow() {
+        FailureWindow window = new FailureWindow(10);
+        window.add(T0 + 20000, false);
+        window.add(T0 + 10000, true);
+        window.add(T0 + 11000, true);
+
+        assertEquals(2, window.getRequests());
+        assertEquals(1, window.getFailures());
+    }
+
+    @Test
+    public void advancingBackwardsKeepsTheCounts() {
+        FailureWindow window = new FailureWindow(10);
+        window.add(T0 + 5000, true);
+        window.advance(T0);
+
+        assertEquals(1, window.getRequests());
+        assertEquals(1, window.getFailures());
+    }
+}
@@ -0,0 +1,216 @@
+package com.vaadin.demo.dashboard.data.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.demo.dashboard.data.TransactionRow;
+
+public class ArchiveFileTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    private static final long DAY = LocalDate.of(2024, 6, 3)
+            .atStartOfDay(ZONE).toInstant().toEpochMilli();
+    private static final long MINUTE = 60000;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("archive").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsBackTheRowsAndCounts() throws IOException {
+        List<TransactionRow> rows = rows();
+        ArchiveFile file = write(DAY, DAY + 24 * 60 * MINUTE, rows);
+
+        assertEquals(DAY, file.getDayStart());
+        assertEquals(rows.size(), file.getRows());
+        assertEquals(2, file.getFailedRows());
+        assertEquals(Integer.valueOf(3), file.getServiceRows().get("LBS"));
+        assertEquals(Integer.valueOf(2), file.getServiceRows().get("EMG"));
+        assertEquals(Integer.valueOf(1), file.getServiceRows().get(""));
+        assertEquals(1440, file.getMinuteRows().length);
+        assertEquals(2, file.getMinuteRows()[0]);
+        assertEquals(1, file.getMinuteRows()[61]);
+        assertEquals(1, file.getMinuteRows()[1439]);
+
+        List<TransactionRow> scanned = file.scan(Long.MIN_VALUE,
+                Long.MAX_VALUE, null, null, null);
+        assertEquals(rows.size(), scanned.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertRow(rows.get(i), scanned.get(i));
+        }
+    }
+
+    @Test
+    public void scanFiltersByColumnsAndTime() throws IOException {
+        ArchiveFile file = write(DAY, DAY + 24 * 60 * MINUTE, rows());
+
+        assertEquals(3, file.scan(Long.MIN_VALUE, Long.MAX_VALUE,
+                "358401000002", null, null).size());
+        assertEquals(0, file.scan(Long.MIN_VALUE, Long.MAX_VALUE,
+                "358401000009", null, null).size());
+        assertEquals(2, file.scan(Long.MIN_VALUE, Long.MAX_VALUE, null,
+                "EMG", null).size());
+        List<TransactionRow> byRefId = file.scan(Long.MIN_VALUE,
+                Long.MAX_VALUE, null, null, "ref-3");
+        assertEquals(2, byRefId.size());
+        assertEquals(1, byRefId.get(0).getSeqId());
+        assertEquals(2, byRefId.get(1).getSeqId());
+        List<TransactionRow> firstHour = file.scan(DAY, DAY + 60 * MINUTE,
+                null, null, null);
+        assertEquals(3, firstHour.size());
+        assertEquals(0, file.scan(DAY + 62 * MINUTE, DAY + 1439 * MINUTE,
+                null, null, null).size());
+    }
+
+    @Test
+    public void headerTellsWhichFilesToSkip() throws IOException {
+        ArchiveFile file = write(DAY, DAY + 24 * 60 * MINUTE, rows());
+
+        assertTrue(file.overlaps(DAY, DAY + 1));
+        assertFalse(file.overlaps(DAY + 24 * 60 * MINUTE, Long.MAX_VALUE));
+        assertTrue(file.mightContainMsisdn("358401000001"));
+        assertFalse(file.mightContainMsisdn("358401000000"));
+        assertFalse(file.mightContainMsisdn("358401000004"));
+        assertTrue(file.mightContainRefId("ref-1"));
+    }
+
+    @Test
+    public void emptyDayHasNoRows() throws IOException {
+        ArchiveFile file = write(DAY, DAY + 24 * 60 * MINUTE,
+                new ArrayList<TransactionRow>());
+
+        assertEquals(0, file.getRows());
+        assertEquals(0, file.getFailedRows());
+        assertTrue(file.getServiceRows().isEmpty());
+        assertFalse(file.overlaps(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertFalse(file.mightContainMsisdn(""));
+        assertFalse(file.mightContainRefId("ref-1"));
+        assertTrue(file.scan(Long.MIN_VALUE, Long.MAX_VALUE, null, null,
+                null).isEmpty());
+    }
+
+    @Test
+    public void shortDayHasAMinuteCountPerMinute() throws IOException {
+        // Clocks go forward on 2024-03-31 in Berlin, the day has 23 hours
+        long start = LocalDate.of(2024, 3, 31).atStartOfDay(ZONE)
+                .toInstant().toEpochMilli();
+        long end = LocalDate.of(2024, 4, 1).atStartOfDay(ZONE).toInstant()
+                .toEpochMilli();
+        ArchiveFile file = write(start, end, Arrays.asList(new TransactionRow(
+                "ref-1", 0, "GMLC", end - 1, "358401000001", "LBS", "c1")));
+
+        assertEquals(23 * 60, file.getMinuteRows().length);
+        assertEquals(1, file.getMinuteRows()[23 * 60 - 1]);
+    }
+
+    @Test
+    public void findsSubscribersAcrossBlocks() throws IOException {
+        // Three rows per subscriber, runs cross the block boundaries
+        List<TransactionRow> rows = new ArrayList<TransactionRow>();
+        for (int subscriber = 0; subscriber < 5000; subscriber++) {
+            String msisdn = String.format("3584%08d", subscriber);
+            for (int hop = 0; hop < 3; hop++) {
+                rows.add(new TransactionRow("ref-" + subscriber, hop, "GMLC",
+                        DAY + subscriber * 1000L + hop, msisdn, "LBS", "c"
+                                + subscriber % 7));
+            }
+        }
+        ArchiveFile file = write(DAY, DAY + 24 * 60 * MINUTE, rows);
+
+        assertEquals(15000, file.getRows());
+        for (int subscriber : new int[] { 0, 1365, 1366, 2730, 4999 }) {
+            String msisdn = String.format("3584%08d", subscriber);
+            List<TransactionRow> found = file.scan(Long.MIN_VALUE,
+                    Long.MAX_VALUE, msisdn, null, null);
+            assertEquals(msisdn, 3, found.size());
+            for (int hop = 0; hop < 3; hop++) {
+                assertRow(rows.get(subscriber * 3 + hop), found.get(hop));
+            }
+        }
+        assertEquals(3, file.scan(Long.MIN_VALUE, Long.MAX_VALUE, null,
+                null, "ref-4242").size());
+        assertEquals(15000, file.scan(Long.MIN_VALUE, Long.MAX_VALUE, null,
+                null, null).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRowsOutOfMsisdnOrder() throws IOException {
+        ArchiveFile.Writer writer = new ArchiveFile.Writer(DAY, DAY + 24 * 60
+                * MINUTE, 10);
+        writer.add(new TransactionRow("ref-1", 0, "GMLC", DAY,
+                "358401000002", "LBS", "c1"));
+        writer.add(new TransactionRow("ref-2", 0, "GMLC", DAY,
+                "358401000001", "LBS", "c1"));
+    }
+
+    /*
+     * Rows of three subscribers in msisdn and date_time order, with failed
+     * locates and missing values.
+     */
+    private static List<TransactionRow> rows() {
+        List<TransactionRow> rows = new ArrayList<TransactionRow>();
+        rows.add(new TransactionRow("ref-1", 0, "GMLC", DAY, "358401000001",
+                "LBS", "cell-1"));
+        rows.add(new TransactionRow("ref-2", 0, "GMLC", DAY + 61 * MINUTE,
+                "358401000001", "EMG", null));
+        rows.add(new TransactionRow("ref-3", 1, "GMLC", DAY + 30,
+                "358401000002", "LBS", "cell-2"));
+        rows.add(new TransactionRow("ref-3", 2, "MPC", DAY + 30 * MINUTE,
+                "358401000002", "LBS", "cell-2"));
+        rows.add(new TransactionRow(null, 5, null, DAY + 1439 * MINUTE,
+                "358401000002", null, ""));
+        rows.add(new TransactionRow("ref-4", 0, "GMLC", DAY - 1,
+                "358401000003", "EMG", "cell-1"));
+        return rows;
+    }
+
+    private ArchiveFile write(final long dayStart, final long dayEnd,
+            final List<TransactionRow> rows) throws IOException {
+        ArchiveFile.Writer writer = new ArchiveFile.Writer(dayStart, dayEnd,
+                rows.size());
+        for (TransactionRow row : rows) {
+            writer.add(row);
+        }
+        File target = new File(directory, "day.tca");
+        writer.writeTo(target);
+        assertFalse(new File(directory, "day.tca.tmp").exists());
+        return ArchiveFile.open(target);
+    }
+
+    private static void assertRow(final TransactionRow expected,
+            final TransactionRow actual) {
+        assertEquals(expected.getRefId(), actual.getRefId());
+        assertEquals(expected.getSeqId(), actual.getSeqId());
+        assertEquals(expected.getModuleName(), actual.getModuleName());
+        assertEquals(expected.getDateTime(), actual.getDateTime());
+        assertEquals(expected.getMsisdn(), actual.getMsisdn());
+        assertEquals(expected.getServiceId(), actual.getServiceId());
+        assertEquals(expected.getCellId(), actual.getCellId());
+        assertEquals(expected.isFailed(), actual.isFailed());
+    }
+}
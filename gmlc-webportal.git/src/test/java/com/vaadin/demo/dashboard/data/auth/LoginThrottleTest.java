@@ -0,0 +1,46 @@
+package com.vaadin.demo.dashboard.data.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LoginThrottleTest {
+
+    @Test
+    public void rejectsAttemptsOverTheLimit() {
+        LoginThrottle throttle = new LoginThrottle(64, 3, 60000);
+        assertTrue(throttle.tryAcquire("alice"));
+        assertTrue(throttle.tryAcquire("alice"));
+        assertTrue(throttle.tryAcquire("alice"));
+        assertFalse(throttle.tryAcquire("alice"));
+    }
+
+    @Test
+    public void allowsAttemptsAgainInTheNextWindow()
+            throws InterruptedException {
+        LoginThrottle throttle = new LoginThrottle(64, 1, 50);
+        assertTrue(throttle.tryAcquire("alice"));
+        assertFalse(throttle.tryAcquire("alice"));
+        Thread.sleep(80);
+        assertTrue(throttle.tryAcquire("alice"));
+    }
+
+    @Test
+    public void namesOfTheSameStripeShareTheLimit() {
+        // "Aa" and "BB" have the same hash code
+        LoginThrottle throttle = new LoginThrottle(64, 2, 60000);
+        assertTrue(throttle.tryAcquire("Aa"));
+        assertTrue(throttle.tryAcquire("BB"));
+        assertFalse(throttle.tryAcquire("Aa"));
+    }
+
+    @Test
+    public void namesOfOtherStripesKeepTheirOwnLimit() {
+        LoginThrottle throttle = new LoginThrottle(2, 1, 60000);
+        // Hash codes 0 and 1 fall into different stripes
+        assertTrue(throttle.tryAcquire(""));
+        assertFalse(throttle.tryAcquire(""));
+        assertTrue(throttle.tryAcquire("\u0001"));
+    }
+}
@@ -0,0 +1,153 @@
+package com.vaadin.demo.dashboard.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.dummy.DummyDataProvider;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+
+/**
+ * Headless capacity test for a portal node. Simulates an increasing number
+ * of concurrent operator sessions against an embedded database and reports,
+ * for every step, the server-side latency per operation, the retained heap
+ * per session and the throughput.
+ * <p>
+ * Arguments (all optional): max sessions, seconds per step, think time in
+ * ms, days of seeded traffic, requests per day. Run with
+ * <code>-Ddashboard.leanSessions=true</code> to compare the lean session
+ * mode. All sessions log in as the same operator, so raise
+ * <code>-Ddashboard.maxHeavyQueriesPerUser</code> to load the database rather
+ * than the admission control.
+ */
+public final class DashboardLoadTest {
+
+    private final JDBCConnectionPool connectionPool;
+    private final List<String> msisdns;
+    private final long thinkTimeMillis;
+
+    private DashboardLoadTest(final JDBCConnectionPool connectionPool,
+            final List<String> msisdns, final long thinkTimeMillis) {
+        this.connectionPool = connectionPool;
+        this.msisdns = msisdns;
+        this.thinkTimeMillis = thinkTimeMillis;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int maxSessions = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int stepSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        long thinkTime = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        int days = args.length > 3 ? Integer.parseInt(args[3]) : 7;
+        long requestsPerDay = args.length > 4 ? Long.parseLong(args[4])
+                : 100000;
+
+        JDBCConnectionPool pool = EmbeddedDatabase.open("loadtest",
+                Math.max(4, maxSessions / 4));
+        DummyDataProvider.setPartitionManager(EmbeddedDatabase
+                .partitions(pool));
+        try {
+            System.out.println("Seeding " + days + " days of traffic...");
+            long rows = EmbeddedDatabase.seed(pool, days, requestsPerDay);
+            System.out.println("Seeded " + rows + " rows");
+
+            DashboardLoadTest test = new DashboardLoadTest(pool,
+                    sampleMsisdns(pool), thinkTime);
+            System.out.println(String.format("%8s %12s %14s", "sessions",
+                    "ops/s", "heap/session"));
+            for (int sessions = 1; sessions <= maxSessions; sessions *= 2) {
+                test.runStep(sessions, stepSeconds);
+            }
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    private void runStep(final int sessionCount, final int seconds)
+            throws InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        long heapBefore = usedHeapAfterGc();
+
+        List<OperatorSession> sessions = new ArrayList<OperatorSession>();
+        for (int i = 0; i < sessionCount; i++) {
+            OperatorSession session = new OperatorSession(connectionPool,
+                    recorder, msisdns, i, thinkTimeMillis);
+            session.open();
+            sessions.add(session);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(sessionCount);
+        long began = System.nanoTime();
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        for (OperatorSession session : sessions) {
+            session.runUntil(deadline);
+            executor.execute(session);
+        }
+        executor.shutdown();
+        executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - began) / 1e9;
+
+        /* Sessions are still referenced here, so their state is retained */
+        long heapPerSession = (usedHeapAfterGc() - heapBefore) / sessionCount;
+        System.out.println(String.format("%8d %12.1f %11d KB", sessionCount,
+                recorder.count() / elapsed, heapPerSession / 1024));
+        System.out.print(recorder.summary());
+        System.out.print(sessions.get(0).footprint());
+        sessions.clear();
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /*
+     * Mix of the most located subscribers and random ones, like operators
+     * looking up both frequent and rare numbers. The traffic is in the
+     * partitions, so they are read like the portal reads them.
+     */
+    private static List<String> sampleMsisdns(final JDBCConnectionPool pool)
+            throws SQLException {
+        PartitionManager partitions = EmbeddedDatabase.partitions(pool);
+        partitions.maintain();
+        String source = partitions.source();
+        List<String> result = new ArrayList<String>();
+        Connection connection = pool.reserveConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("SELECT msisdn FROM "
+                        + source
+                        + " GROUP BY msisdn ORDER BY COUNT(*) DESC LIMIT 50");
+                while (rs.next()) {
+                    result.add(rs.getString(1));
+                }
+                rs = statement.executeQuery("SELECT DISTINCT msisdn FROM "
+                        + source + " ORDER BY RAND() LIMIT 50");
+                while (rs.next()) {
+                    result.add(rs.getString(1));
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            pool.releaseConnection(connection);
+        }
+        if (result.isEmpty()) {
+            throw new IllegalStateException(
+                    "No subscribers found in the seeded traffic");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,187 @@
+package com.vaadin.demo.dashboard.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.auth.UserDirectory;
+import com.vaadin.demo.dashboard.data.dummy.TransactionBulkLoader;
+import com.vaadin.demo.dashboard.data.partition.PartitionGranularity;
+import com.vaadin.demo.dashboard.data.partition.PartitionManager;
+import com.vaadin.demo.dashboard.data.partition.TablePerPartitionDialect;
+import com.vaadin.demo.dashboard.domain.User;
+
+/**
+ * An in-memory H2 database (in MySQL mode) with the portal schema, seeded
+ * with synthetic traffic. Used by the load test and the other stand-alone
+ * tools that need a database outside the servlet container.
+ * <p>
+ * H2 has no native partitions, so the traffic is loaded into one table per
+ * day (see {@link TablePerPartitionDialect}); transaction_tab itself stays
+ * empty. Opening a database selects these tables for the whole JVM.
+ */
+public final class EmbeddedDatabase {
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS transaction_tab ("
+                    + "id INT AUTO_INCREMENT PRIMARY KEY,"
+                    + " ref_id VARCHAR(32), seq_id INT,"
+                    + " module_name VARCHAR(32), date_time TIMESTAMP,"
+                    + " msisdn VARCHAR(20), service_id VARCHAR(32),"
+                    + " cell_id VARCHAR(32))",
+            "CREATE INDEX IF NOT EXISTS transaction_date_time ON transaction_tab (date_time)",
+            "CREATE INDEX IF NOT EXISTS transaction_msisdn ON transaction_tab (msisdn, date_time)",
+            "CREATE INDEX IF NOT EXISTS transaction_ref_id ON transaction_tab (ref_id)",
+            "CREATE TABLE IF NOT EXISTS cell_site ("
+                    + "cell_id VARCHAR(32) PRIMARY KEY,"
+                    + " latitude DOUBLE, longitude DOUBLE)",
+            "CREATE TABLE IF NOT EXISTS app_user ("
+                    + "user_name VARCHAR(64) PRIMARY KEY,"
+                    + " password_hash VARCHAR(128) NOT NULL,"
+                    + " first_name VARCHAR(64), last_name VARCHAR(64),"
+                    + " role VARCHAR(32), email VARCHAR(128),"
+                    + " location VARCHAR(64), bio VARCHAR(1024))",
+            "CREATE TABLE IF NOT EXISTS notification ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " recipient VARCHAR(64), created TIMESTAMP,"
+                    + " first_name VARCHAR(64), last_name VARCHAR(64),"
+                    + " action VARCHAR(128), content VARCHAR(1024))",
+            "CREATE INDEX IF NOT EXISTS notification_recipient ON notification (recipient, id)",
+            "CREATE TABLE IF NOT EXISTS notification_read ("
+                    + "user_name VARCHAR(64) PRIMARY KEY, last_read_id BIGINT)",
+            "CREATE TABLE IF NOT EXISTS cache_invalidation ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " node VARCHAR(64), created TIMESTAMP,"
+                    + " kind VARCHAR(16), cache_key VARCHAR(64))",
+            "CREATE INDEX IF NOT EXISTS cache_invalidation_created ON cache_invalidation (created)",
+            "CREATE TABLE IF NOT EXISTS cache_stats ("
+                    + "node VARCHAR(64), cache_name VARCHAR(64),"
+                    + " hits BIGINT, misses BIGINT, updated TIMESTAMP,"
+                    + " PRIMARY KEY (node, cache_name))",
+            "CREATE TABLE IF NOT EXISTS archive_lease ("
+                    + "id INT PRIMARY KEY, node VARCHAR(64), expires TIMESTAMP)",
+            "CREATE TABLE IF NOT EXISTS replica_heartbeat ("
+                    + "node VARCHAR(64) PRIMARY KEY, beat TIMESTAMP)" };
+
+    /** Operator account of the simulated sessions, password "operator". */
+    public static final String OPERATOR = "operator";
+
+    private EmbeddedDatabase() {
+    }
+
+    /**
+     * Creates (or opens) an in-memory database with the given name.
+     */
+    public static JDBCConnectionPool open(final String name,
+            final int connections) throws SQLException {
+        JDBCConnectionPool pool = new SimpleJDBCConnectionPool(
+                "org.h2.Driver", "jdbc:h2:mem:" + name
+                        + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2,
+                connections);
+        execute(pool, SCHEMA);
+        addOperator(pool);
+        return pool;
+    }
+
+    /**
+     * Creates an in-memory database with the given name as a copy of the
+     * other one, e.g. as a replica of it.
+     */
+    public static JDBCConnectionPool copy(final JDBCConnectionPool source,
+            final String name, final int connections) throws SQLException {
+        File script;
+        try {
+            script = File.createTempFile("dashboard-" + name, ".sql");
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        try {
+            execute(source, "SCRIPT TO '" + script.getAbsolutePath() + "'");
+            JDBCConnectionPool pool = new SimpleJDBCConnectionPool(
+                    "org.h2.Driver", "jdbc:h2:mem:" + name
+                            + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", 2,
+                    connections);
+            execute(pool,
+                    "RUNSCRIPT FROM '" + script.getAbsolutePath() + "'");
+            return pool;
+        } finally {
+            script.delete();
+        }
+    }
+
+    /**
+     * @return A partition manager keeping the partitions of the database as
+     *         a table each, as H2 has no native partitions.
+     */
+    public static PartitionManager partitions(final JDBCConnectionPool pool) {
+        return new PartitionManager(pool, new TablePerPartitionDialect(),
+                PartitionGranularity.DAY);
+    }
+
+    /**
+     * Loads synthetic traffic for the given number of days up to now.
+     *
+     * @return The number of rows loaded.
+     */
+    public static long seed(final JDBCConnectionPool pool, final int days,
+            final long requestsPerDay) throws SQLException {
+        long end = System.currentTimeMillis();
+        long start = end - days * 1000L * 60 * 60 * 24;
+        TransactionBulkLoader loader = new TransactionBulkLoader(pool);
+        loader.setPartitions(partitions(pool));
+        return loader.load(start, end, days * requestsPerDay, 2);
+    }
+
+    private static void addOperator(final JDBCConnectionPool pool)
+            throws SQLException {
+        Connection connection = pool.reserveConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement
+                        .executeQuery("SELECT COUNT(*) FROM app_user WHERE user_name = '"
+                                + OPERATOR + "'");
+                rs.next();
+                if (rs.getInt(1) > 0) {
+                    return;
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            pool.releaseConnection(connection);
+        }
+        User user = new User();
+        user.setFirstName("Load");
+        user.setLastName("Test");
+        user.setRole("operator");
+        new UserDirectory(pool, Integer.getInteger(
+                "dashboard.passwordIterations", 210000), 30).addUser(OPERATOR,
+                OPERATOR, user);
+    }
+
+    static void execute(final JDBCConnectionPool pool, final String... sql)
+            throws SQLException {
+        Connection connection = pool.reserveConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                for (String s : sql) {
+                    statement.execute(s);
+                }
+            } finally {
+                statement.close();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            pool.releaseConnection(connection);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.vaadin.demo.dashboard.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects server-side latencies per operation and summarizes them as
+ * percentiles.
+ */
+final class LatencyRecorder {
+
+    private final Map<String, Samples> operations = new TreeMap<String, Samples>();
+
+    synchronized void record(final String operation, final long nanos) {
+        Samples samples = operations.get(operation);
+        if (samples == null) {
+            samples = new Samples();
+            operations.put(operation, samples);
+        }
+        samples.add(nanos);
+    }
+
+    synchronized long count() {
+        long count = 0;
+        for (Samples samples : operations.values()) {
+            count += samples.size;
+        }
+        return count;
+    }
+
+    /**
+     * @return One line per operation: count, p50, p95, p99 and max in ms.
+     */
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Samples> e : operations.entrySet()) {
+            long[] sorted = Arrays.copyOf(e.getValue().values,
+                    e.getValue().size);
+            Arrays.sort(sorted);
+            sb.append(String.format(
+                    "    %-20s n=%-7d p50=%8.2f p95=%8.2f p99=%8.2f max=%8.2f ms%n",
+                    e.getKey(), sorted.length, percentile(sorted, 0.50),
+                    percentile(sorted, 0.95), percentile(sorted, 0.99),
+                    percentile(sorted, 1.0)));
+        }
+        return sb.toString();
+    }
+
+    private static double percentile(final long[] sorted, final double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.vaadin.demo.dashboard.loadtest;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.vaadin.data.util.BeanItemContainer;
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.DataProvider;
+import com.vaadin.demo.dashboard.data.SessionFootprint;
+import com.vaadin.demo.dashboard.data.admission.QueryRejectedException;
+import com.vaadin.demo.dashboard.data.dummy.DummyDataProvider;
+import com.vaadin.demo.dashboard.domain.Detailed;
+import com.vaadin.demo.dashboard.domain.Location;
+import com.vaadin.demo.dashboard.domain.Service;
+import com.vaadin.demo.dashboard.domain.Statistics;
+
+/**
+ * Simulates what one operator's UI session does on the server: logging in,
+ * navigating between the views and changing their filters. Like a real
+ * session it has its own DataProvider and keeps the results of the views it
+ * has open in containers.
+ */
+final class OperatorSession implements Runnable {
+
+    private static final long DAY = 1000L * 60 * 60 * 24;
+
+    private final JDBCConnectionPool connectionPool;
+    private final LatencyRecorder recorder;
+    private final List<String> msisdns;
+    private final SplittableRandom random;
+    private final long thinkTimeMillis;
+
+    private volatile long deadline;
+    private DataProvider dataProvider;
+
+    /* Result containers of the views, kept as long as the session lives */
+    private BeanItemContainer<Statistics> statistics;
+    private BeanItemContainer<Detailed> detailed;
+    private BeanItemContainer<Service> services;
+    private BeanItemContainer<Location> locations;
+
+    OperatorSession(final JDBCConnectionPool connectionPool,
+            final LatencyRecorder recorder, final List<String> msisdns,
+            final long seed, final long thinkTimeMillis) {
+        this.connectionPool = connectionPool;
+        this.recorder = recorder;
+        this.msisdns = msisdns;
+        this.thinkTimeMillis = thinkTimeMillis;
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Logs in and opens the statistics view, as on the first request of a
+     * session.
+     */
+    void open() {
+        long start = System.nanoTime();
+        dataProvider = new DummyDataProvider(connectionPool);
+        dataProvider.authenticate(EmbeddedDatabase.OPERATOR,
+                EmbeddedDatabase.OPERATOR);
+        recorder.record("login", System.nanoTime() - start);
+        enterStatistics(0);
+    }
+
+    /**
+     * @return The heap retained by this session, per part.
+     */
+    SessionFootprint footprint() {
+        return new SessionFootprint().add("data provider", dataProvider)
+                .add("statistics", statistics).add("detailed", detailed)
+                .add("services", services).add("locations", locations);
+    }
+
+    void runUntil(final long deadline) {
+        this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+        while (System.currentTimeMillis() < deadline) {
+            int days = 1 + random.nextInt(30);
+            long started = System.nanoTime();
+            try {
+                switch (random.nextInt(6)) {
+                case 0:
+                    enterStatistics(0);
+                    break;
+                case 1:
+                    enterStatistics(days);
+                    break;
+                case 2:
+                    long start = System.nanoTime();
+                    detailed = container(Detailed.class,
+                            dataProvider.getDetailed(ago(days), new Date()));
+                    recorder.record("detailed", System.nanoTime() - start);
+                    break;
+                case 3:
+                    start = System.nanoTime();
+                    services = container(Service.class,
+                            dataProvider.getService("LBS00"
+                                    + (1 + random.nextInt(6)), ago(days),
+                                    new Date()));
+                    recorder.record("service", System.nanoTime() - start);
+                    break;
+                case 4:
+                    start = System.nanoTime();
+                    locations = container(Location.class,
+                            dataProvider.getLocation(msisdn(), ago(days),
+                                    new Date()));
+                    recorder.record("location", System.nanoTime() - start);
+                    break;
+                default:
+                    start = System.nanoTime();
+                    dataProvider.getLocationTrail(msisdn(), ago(days),
+                            new Date());
+                    recorder.record("trail", System.nanoTime() - start);
+                }
+            } catch (QueryRejectedException e) {
+                // Rejected by the admission control, or timed out
+                recorder.record("rejected", System.nanoTime() - started);
+            }
+            think();
+        }
+    }
+
+    private void enterStatistics(final int days) {
+        long start = System.nanoTime();
+        statistics = container(Statistics.class,
+                dataProvider.getStatistics(ago(days), new Date()));
+        recorder.record(days == 0 ? "statistics today" : "statistics filter",
+                System.nanoTime() - start);
+    }
+
+    private String msisdn() {
+        return msisdns.get(random.nextInt(msisdns.size()));
+    }
+
+    private static Date ago(final int days) {
+        return new Date(System.currentTimeMillis() - days * DAY);
+    }
+
+    private static <T> BeanItemContainer<T> container(final Class<T> type,
+            final Collection<T> items) {
+        return new BeanItemContainer<T>(type, items);
+    }
+
+    private void think() {
+        if (thinkTimeMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(thinkTimeMillis / 2 + random.nextLong(thinkTimeMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deadline = 0;
+        }
+    }
+}
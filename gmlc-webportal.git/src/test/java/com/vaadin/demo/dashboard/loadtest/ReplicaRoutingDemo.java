@@ -0,0 +1,199 @@
+package com.vaadin.demo.dashboard.loadtest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.demo.dashboard.data.dummy.DummyDataProvider;
+import com.vaadin.demo.dashboard.data.replica.ReplicaRouter;
+
+/**
+ * Shows the analytics queries of the portal moving between a primary
+ * database and a replica of it, both embedded. A replicator thread copies
+ * the heartbeat of the router from the primary to the replica; pausing it
+ * lets the replica fall behind, so that the queries go to the primary until
+ * replication resumes.
+ * <p>
+ * Arguments (all optional): queries per phase, days of seeded traffic,
+ * requests per day.
+ */
+public final class ReplicaRoutingDemo {
+
+    private static final long MAX_LAG_MILLIS = 2000;
+    private static final long HEARTBEAT_MILLIS = 200;
+    private static final long REPLICATION_MILLIS = 100;
+
+    private final ReplicaRouter router;
+    private final DummyDataProvider provider;
+    private int queryDays;
+
+    private ReplicaRoutingDemo(final ReplicaRouter router,
+            final DummyDataProvider provider) {
+        this.router = router;
+        this.provider = provider;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 7;
+        long requestsPerDay = args.length > 2 ? Long.parseLong(args[2])
+                : 10000;
+
+        JDBCConnectionPool primary = EmbeddedDatabase.open("primary", 8);
+        DummyDataProvider.setPartitionManager(EmbeddedDatabase
+                .partitions(primary));
+        JDBCConnectionPool replica = null;
+        Replicator replicator = null;
+        ReplicaRouter router = null;
+        try {
+            System.out.println("Seeding " + days + " days of traffic...");
+            long rows = EmbeddedDatabase.seed(primary, days, requestsPerDay);
+            System.out.println("Seeded " + rows + " rows, copying to replica");
+            replica = EmbeddedDatabase.copy(primary, "replica", 8);
+
+            replicator = new Replicator(primary, replica);
+            replicator.start();
+            router = new ReplicaRouter(primary,
+                    Collections.singletonList(replica), "demo");
+            router.setHeartbeatMillis(HEARTBEAT_MILLIS);
+            router.setMaxLagMillis(MAX_LAG_MILLIS);
+            router.start();
+            Thread.sleep(5 * HEARTBEAT_MILLIS);
+
+            ReplicaRoutingDemo demo = new ReplicaRoutingDemo(router,
+                    new DummyDataProvider(primary, router.getReadPool()));
+            System.out.println(String.format("%-22s %8s %10s %10s",
+                    "phase", "lag ms", "replica", "primary"));
+            demo.runPhase("replicating", queries);
+
+            replicator.paused = true;
+            Thread.sleep(MAX_LAG_MILLIS + 5 * HEARTBEAT_MILLIS);
+            demo.runPhase("replication paused", queries);
+
+            replicator.paused = false;
+            Thread.sleep(5 * HEARTBEAT_MILLIS);
+            demo.runPhase("replication resumed", queries);
+        } finally {
+            if (router != null) {
+                router.stop();
+            }
+            if (replicator != null) {
+                replicator.interrupt();
+            }
+            if (replica != null) {
+                replica.destroy();
+            }
+            primary.destroy();
+        }
+    }
+
+    /*
+     * Runs the analytics over ranges not asked for before, so that none of
+     * them is answered by the statistics cache.
+     */
+    private void runPhase(final String phase, final int queries) {
+        long replicaBefore = router.getReservations(0);
+        long primaryBefore = router.getFallbacks();
+        for (int i = 0; i < queries; i++) {
+            Date end = new Date();
+            Date start = new Date(end.getTime() - ++queryDays * 24 * 60
+                    * 60 * 1000L);
+            switch (i % 3) {
+            case 0:
+                provider.getStatistics(start, end);
+                break;
+            case 1:
+                provider.getDetailed(start, end);
+                break;
+            default:
+                provider.getRequestTimeSeries(start, end, 60 * 60 * 1000L);
+            }
+        }
+        System.out.println(String.format("%-22s %8d %10d %10d", phase,
+                router.getLagMillis(0), router.getReservations(0)
+                        - replicaBefore, router.getFallbacks() - primaryBefore));
+    }
+
+    /*
+     * Stands in for the replication of the database: copies the heartbeat
+     * rows, the only rows that change during the demo.
+     */
+    private static final class Replicator extends Thread {
+
+        private final JDBCConnectionPool primary;
+        private final JDBCConnectionPool replica;
+        private volatile boolean paused;
+
+        Replicator(final JDBCConnectionPool primary,
+                final JDBCConnectionPool replica) {
+            super("replicator");
+            setDaemon(true);
+            this.primary = primary;
+            this.replica = replica;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    if (!paused) {
+                        replicate();
+                    }
+                    Thread.sleep(REPLICATION_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the demo
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void replicate() throws SQLException {
+            Map<String, Timestamp> beats = new HashMap<String, Timestamp>();
+            Connection connection = primary.reserveConnection();
+            try {
+                PreparedStatement statement = connection
+                        .prepareStatement("SELECT node, beat FROM replica_heartbeat");
+                try {
+                    ResultSet rs = statement.executeQuery();
+                    while (rs.next()) {
+                        beats.put(rs.getString(1), rs.getTimestamp(2));
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                primary.releaseConnection(connection);
+            }
+            if (beats.isEmpty()) {
+                return;
+            }
+            connection = replica.reserveConnection();
+            try {
+                PreparedStatement statement = connection
+                        .prepareStatement("MERGE INTO replica_heartbeat (node, beat) KEY (node) VALUES (?, ?)");
+                try {
+                    for (Map.Entry<String, Timestamp> beat : beats.entrySet()) {
+                        statement.setString(1, beat.getKey());
+                        statement.setTimestamp(2, beat.getValue());
+                        statement.executeUpdate();
+                    }
+                } finally {
+                    statement.close();
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } finally {
+                replica.releaseConnection(connection);
+            }
+        }
+    }
+}
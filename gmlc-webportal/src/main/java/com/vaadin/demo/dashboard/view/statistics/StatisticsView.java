@@ -1,7 +1,7 @@
 package com.vaadin.demo.dashboard.view.statistics;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -16,6 +16,9 @@ import com.vaadin.data.Container.Filter;
 import com.vaadin.data.Container.Filterable;
 import com.vaadin.data.Item;
 import com.vaadin.data.Property;
+import com.vaadin.demo.dashboard.component.CachedFormatTable;
+import com.vaadin.demo.dashboard.data.DayRange;
+import com.vaadin.demo.dashboard.data.SessionFootprint;
 import com.vaadin.demo.dashboard.domain.Statistics;
 import com.vaadin.demo.dashboard.event.DashboardEvent.BrowserResizeEvent;
 import com.vaadin.demo.dashboard.event.DashboardEventBus;
@@ -43,8 +46,8 @@ import com.vaadin.ui.themes.ValoTheme;
 public final class StatisticsView extends VerticalLayout implements View {
 
     private final Table table;
-    private static final DateFormat DATEFORMAT = new SimpleDateFormat(
-            "MM/dd/yyyy hh:mm:ss a");
+    private static final DateTimeFormatter DATEFORMAT = DateTimeFormatter
+            .ofPattern("MM/dd/yyyy hh:mm:ss a").withZone(DayRange.getZone());
     private static final String[] DEFAULT_COLLAPSIBLE = { "time" };
 
     public StatisticsView() {
@@ -65,6 +68,11 @@ public final class StatisticsView extends VerticalLayout implements View {
         // A new instance of TransactionsView is created every time it's
         // navigated to so we'll need to clean up references to it on detach.
         DashboardEventBus.unregister(this);
+        if (SessionFootprint.isLean()) {
+            // The rows aren't needed anymore, don't keep them in the session
+            table.setContainerDataSource(new TempStatisticsContainer(
+                    new ArrayList<Statistics>()));
+        }
     }
 
     private Component buildToolbar() {
@@ -172,17 +180,16 @@ public final class StatisticsView extends VerticalLayout implements View {
     }
 
     private Table buildTable() {
-        final Table table = new Table() {
+        final Table table = new CachedFormatTable() {
             @Override
-            protected String formatPropertyValue(final Object rowId,
+            protected String formatCell(final Object rowId,
                     final Object colId, final Property<?> property) {
-                String result = super.formatPropertyValue(rowId, colId,
-                        property);
                 if (colId.equals("time")) {
-                    result = DATEFORMAT.format(((Date) property.getValue()));
+                    Date time = (Date) property.getValue();
+                    return time == null ? "" : DATEFORMAT.format(Instant
+                            .ofEpochMilli(time.getTime()));
                 }
-                
-                return result;
+                return super.formatCell(rowId, colId, property);
             }
         };
         table.setSizeFull();